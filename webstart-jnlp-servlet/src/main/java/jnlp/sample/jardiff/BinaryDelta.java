@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.jardiff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+
+/**
+ * Binary delta between two versions of an entry, as carried by the patch
+ * command of a version 2 JarDiff.
+ * <p>
+ * A delta starts with the length and CRC-32 of the old contents it applies
+ * to, and the length and CRC-32 of the new contents it produces, followed by
+ * instructions either copying a run of bytes of the old contents, or adding
+ * bytes carried by the delta. Numbers are written as variable length
+ * unsigned integers, seven bits per byte, least significant first.
+ */
+final class BinaryDelta
+{
+    /**
+     * Largest entry, old or new, for which a delta is computed. Indexing the
+     * old contents takes up to twice as many ints as it has bytes. Deltas
+     * producing larger contents are rejected.
+     */
+    static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final int DEFAULT_READ_SIZE = 2048;
+
+    // Shortest run of old bytes worth a copy instruction
+    private static final int MIN_MATCH = 8;
+
+    // Candidates compared for each position of the new contents
+    private static final int MAX_CHAIN = 16;
+
+    private static final int ADD = 0;
+
+    private static final int COPY = 1;
+
+    private BinaryDelta()
+    {
+    }
+
+    /**
+     * Computes the delta from the old contents to the new ones, greedily
+     * copying the longest runs found in the old contents
+     *
+     * @param source the old contents
+     * @param target the new contents
+     * @return the delta
+     */
+    static byte[] create( byte[] source, byte[] target )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( target.length / 4 + 16 );
+        writeNumber( out, source.length );
+        writeInt( out, checksum( source ) );
+        writeNumber( out, target.length );
+        writeInt( out, checksum( target ) );
+
+        // Chains of the positions of the old contents, by hash of the bytes starting there
+        int positions = Math.max( source.length - MIN_MATCH + 1, 0 );
+        int bits = Math.max( 31 - Integer.numberOfLeadingZeros( Math.max( positions, 1 ) ), 8 );
+        int[] head = new int[1 << bits];
+        Arrays.fill( head, -1 );
+        int[] next = new int[positions];
+        for ( int i = 0; i < positions; i++ )
+        {
+            int h = hash( source, i, bits );
+            next[i] = head[h];
+            head[h] = i;
+        }
+
+        int pos = 0;
+        int literal = 0;
+        while ( pos + MIN_MATCH <= target.length )
+        {
+            int bestLength = 0;
+            int bestOffset = 0;
+            if ( positions > 0 )
+            {
+                int chain = MAX_CHAIN;
+                for ( int c = head[hash( target, pos, bits )]; c >= 0 && chain-- > 0; c = next[c] )
+                {
+                    int length = matchLength( source, c, target, pos );
+                    if ( length > bestLength )
+                    {
+                        bestLength = length;
+                        bestOffset = c;
+                    }
+                }
+            }
+            if ( bestLength >= MIN_MATCH )
+            {
+                // Take back the bytes before the match that match as well
+                while ( pos > literal && bestOffset > 0 && source[bestOffset - 1] == target[pos - 1] )
+                {
+                    pos--;
+                    bestOffset--;
+                    bestLength++;
+                }
+                writeAdd( out, target, literal, pos );
+                writeNumber( out, ( (long) bestLength << 1 ) | COPY );
+                writeNumber( out, bestOffset );
+                pos += bestLength;
+                literal = pos;
+            }
+            else
+            {
+                pos++;
+            }
+        }
+        writeAdd( out, target, literal, target.length );
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies a delta to the old contents
+     *
+     * @param source the old contents
+     * @param delta  the delta, read up to its end
+     * @return the new contents, or null if the delta does not apply to these old contents
+     * @throws IOException if the delta cannot be read
+     */
+    static byte[] apply( byte[] source, InputStream delta )
+            throws IOException
+    {
+        if ( readNumber( delta ) != source.length || readInt( delta ) != checksum( source ) )
+        {
+            return null;
+        }
+        long length = readNumber( delta );
+        int crc = readInt( delta );
+        if ( length > MAX_SIZE )
+        {
+            return null;
+        }
+        byte[] target = new byte[(int) length];
+        int pos = 0;
+        while ( pos < target.length )
+        {
+            long instruction = readNumber( delta );
+            long count = instruction >>> 1;
+            if ( count > target.length - pos )
+            {
+                return null;
+            }
+            if ( ( instruction & 1 ) == COPY )
+            {
+                long offset = readNumber( delta );
+                if ( offset < 0 || offset > source.length || offset + count > source.length )
+                {
+                    return null;
+                }
+                System.arraycopy( source, (int) offset, target, pos, (int) count );
+            }
+            else
+            {
+                readFully( delta, target, pos, (int) count );
+            }
+            pos += (int) count;
+        }
+        return checksum( target ) == crc ? target : null;
+    }
+
+    /**
+     * Reads the contents of an entry, old or new, to compute or apply a delta
+     *
+     * @param file  the jar holding the entry
+     * @param entry the entry to read
+     * @return the contents
+     * @throws IOException if the entry cannot be read
+     */
+    static byte[] readEntry( JarFile file, JarEntry entry )
+            throws IOException
+    {
+        InputStream data = file.getInputStream( entry );
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( (int) Math.max( entry.getSize(), 0 ) );
+            byte[] buffer = new byte[DEFAULT_READ_SIZE];
+            int size;
+            while ( ( size = data.read( buffer ) ) != -1 )
+            {
+                bytes.write( buffer, 0, size );
+            }
+            return bytes.toByteArray();
+        }
+        finally
+        {
+            data.close();
+        }
+    }
+
+    private static int hash( byte[] b, int off, int bits )
+    {
+        long v = 0;
+        for ( int i = 0; i < MIN_MATCH; i++ )
+        {
+            v = ( v << 8 ) | ( b[off + i] & 0xff );
+        }
+        return (int) ( ( v * 0x9E3779B97F4A7C15L ) >>> ( 64 - bits ) );
+    }
+
+    private static int matchLength( byte[] source, int sourceOff, byte[] target, int targetOff )
+    {
+        int max = Math.min( source.length - sourceOff, target.length - targetOff );
+        int length = 0;
+        while ( length < max && source[sourceOff + length] == target[targetOff + length] )
+        {
+            length++;
+        }
+        return length;
+    }
+
+    private static int checksum( byte[] b )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( b, 0, b.length );
+        return (int) crc.getValue();
+    }
+
+    private static void writeAdd( ByteArrayOutputStream out, byte[] b, int start, int end )
+    {
+        if ( end > start )
+        {
+            writeNumber( out, ( (long) ( end - start ) << 1 ) | ADD );
+            out.write( b, start, end - start );
+        }
+    }
+
+    private static void writeNumber( ByteArrayOutputStream out, long v )
+    {
+        while ( ( v & ~0x7fL ) != 0 )
+        {
+            out.write( (int) ( ( v & 0x7f ) | 0x80 ) );
+            v >>>= 7;
+        }
+        out.write( (int) v );
+    }
+
+    private static void writeInt( ByteArrayOutputStream out, int v )
+    {
+        out.write( v & 0xff );
+        out.write( ( v >>> 8 ) & 0xff );
+        out.write( ( v >>> 16 ) & 0xff );
+        out.write( ( v >>> 24 ) & 0xff );
+    }
+
+    private static long readNumber( InputStream in )
+            throws IOException
+    {
+        long v = 0;
+        for ( int shift = 0; shift < 64; shift += 7 )
+        {
+            int b = readByte( in );
+            v |= (long) ( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return v;
+            }
+        }
+        throw new IOException( "Invalid number in delta" );
+    }
+
+    private static int readInt( InputStream in )
+            throws IOException
+    {
+        return readByte( in ) | ( readByte( in ) << 8 ) | ( readByte( in ) << 16 ) | ( readByte( in ) << 24 );
+    }
+
+    private static int readByte( InputStream in )
+            throws IOException
+    {
+        int b = in.read();
+        if ( b < 0 )
+        {
+            throw new EOFException( "Truncated delta" );
+        }
+        return b;
+    }
+
+    private static void readFully( InputStream in, byte[] b, int off, int len )
+            throws IOException
+    {
+        while ( len > 0 )
+        {
+            int read = in.read( b, off, len );
+            if ( read < 0 )
+            {
+                throw new EOFException( "Truncated delta" );
+            }
+            off += read;
+            len -= read;
+        }
+    }
+}
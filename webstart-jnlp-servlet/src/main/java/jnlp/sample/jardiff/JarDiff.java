@@ -36,6 +36,7 @@
 
 package jnlp.sample.jardiff;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -54,6 +55,7 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -105,6 +107,24 @@ public class JarDiff
      */
     public static void createPatch( String oldPath, String newPath, OutputStream os, boolean minimal )
             throws IOException
+    {
+        createPatch( oldPath, newPath, os, minimal, VERSION_1 );
+    }
+
+    /**
+     * Creates a patch from the two passed in files, writing the result
+     * to <code>os</code>. From version 2, modified entries are sent as a
+     * delta against their old contents when it is smaller.
+     *
+     * @param oldPath path of the old jar
+     * @param newPath path of the new jar
+     * @param os      stream to write the JarDiff to
+     * @param minimal false to add copied entries as new files, for javaws 1.0 and 1.0.1
+     * @param version format of the patch, {@link #VERSION_1} or {@link #VERSION_2}
+     * @throws IOException if a jar cannot be read or the JarDiff cannot be written
+     */
+    public static void createPatch( String oldPath, String newPath, OutputStream os, boolean minimal, int version )
+            throws IOException
     {
         JarFile2 oldJar = new JarFile2( oldPath );
         JarFile2 newJar = new JarFile2( newPath );
@@ -261,10 +281,37 @@ public class JarDiff
                 }
             }
 
+            // Modified entries that are sent as a delta
+            Map<String, byte[]> patches = new HashMap<>();
+            if ( version >= VERSION_2 )
+            {
+                for ( Object o : newEntries )
+                {
+                    String newName = (String) o;
+                    JarEntry oldEntry = oldJar.getEntryByName( newName );
+                    JarEntry newEntry = newJar.getEntryByName( newName );
+                    if ( oldEntry != null && !newEntry.isDirectory() && oldEntry.getSize() <= BinaryDelta.MAX_SIZE &&
+                            newEntry.getSize() <= BinaryDelta.MAX_SIZE )
+                    {
+                        byte[] oldContents = BinaryDelta.readEntry( oldJar.getJarFile(), oldEntry );
+                        byte[] newContents = BinaryDelta.readEntry( newJar.getJarFile(), newEntry );
+                        byte[] delta = BinaryDelta.create( oldContents, newContents );
+                        if ( delta.length < newContents.length )
+                        {
+                            if ( _debug )
+                            {
+                                System.out.println( "Patch: " + newName + " " + delta.length + "/" + newContents.length );
+                            }
+                            patches.put( newName, delta );
+                        }
+                    }
+                }
+            }
+
             JarOutputStream jos = new JarOutputStream( os );
 
-            // Write out all the MOVEs and REMOVEs
-            createIndex( jos, deleted, moved );
+            // Write out all the MOVEs, REMOVEs and PATCHes
+            createIndex( jos, deleted, moved, patches.keySet(), version );
 
             // Put in New and Modified entries
             entries = newEntries.iterator();
@@ -278,7 +325,18 @@ public class JarDiff
                     {
                         System.out.println( "New File: " + newName );
                     }
-                    writeEntry( jos, newJar.getEntryByName( newName ), newJar );
+                    JarEntry newEntry = newJar.getEntryByName( newName );
+                    byte[] delta = patches.get( newName );
+                    if ( delta != null )
+                    {
+                        JarEntry deltaEntry = new JarEntry( newName );
+                        deltaEntry.setTime( newEntry.getTime() );
+                        writeEntry( jos, deltaEntry, new ByteArrayInputStream( delta ) );
+                    }
+                    else
+                    {
+                        writeEntry( jos, newEntry, newJar );
+                    }
                 }
             }
 
@@ -314,19 +372,23 @@ public class JarDiff
     /**
      * Writes the index file out to <code>jos</code>.
      * <code>oldEntries</code> gives the names of the files that were removed,
-     * <code>movedMap</code> maps from the new name to the old name.
+     * <code>movedMap</code> maps from the new name to the old name,
+     * <code>patched</code> gives the names of the entries sent as a delta.
      *
      * @param jos        TODO
      * @param oldEntries TODO
      * @param movedMap   TODO
+     * @param patched    names of the new entries sent as a delta against the old entry
+     * @param version    format of the JarDiff, setting the version header of the index
      * @throws IOException TODO
      */
-    private static void createIndex( JarOutputStream jos, List oldEntries, Map movedMap )
+    private static void createIndex( JarOutputStream jos, List oldEntries, Map movedMap, Set<String> patched,
+                                     int version )
             throws IOException
     {
         StringWriter writer = new StringWriter();
 
-        writer.write( VERSION_HEADER );
+        writer.write( version >= VERSION_2 ? VERSION_2_HEADER : VERSION_HEADER );
         writer.write( "\r\n" );
 
         // Write out entries that have been removed
@@ -355,6 +417,17 @@ public class JarDiff
             writer.write( "\r\n" );
         }
 
+        // And those sent as a delta against the old entry of the same name
+        for ( String name : patched )
+        {
+            writer.write( PATCH_COMMAND );
+            writer.write( " " );
+            writeEscapedString( writer, name );
+            writer.write( " " );
+            writeEscapedString( writer, name );
+            writer.write( "\r\n" );
+        }
+
         JarEntry je = new JarEntry( INDEX_NAME );
         byte[] bytes = writer.toString().getBytes( "UTF-8" );
 
@@ -693,7 +766,7 @@ public class JarDiff
     private static void showHelp()
     {
         System.out.println(
-                "JarDiff: [-nonminimal (for backward compatibility with 1.0.1/1.0] [-creatediff | -applydiff] [-output file] old.jar new.jar" );
+                "JarDiff: [-nonminimal (for backward compatibility with 1.0.1/1.0] [-version2 (deltas of modified entries)] [-creatediff | -applydiff] [-output file] old.jar new.jar" );
     }
 
     // -creatediff -applydiff -debug -output file
@@ -702,6 +775,7 @@ public class JarDiff
     {
         boolean diff = true;
         boolean minimal = true;
+        int version = VERSION_1;
         String outputFile = "out.jardiff";
 
         for ( int counter = 0; counter < args.length; counter++ )
@@ -711,6 +785,10 @@ public class JarDiff
             {
                 minimal = false;
             }
+            else if ( args[counter].equals( "-version2" ) || args[counter].equals( "-2" ) )
+            {
+                version = VERSION_2;
+            }
             else if ( args[counter].equals( "-creatediff" ) || args[counter].equals( "-c" ) )
             {
                 diff = true;
@@ -747,7 +825,7 @@ public class JarDiff
                     {
                         OutputStream os = new FileOutputStream( outputFile );
 
-                        JarDiff.createPatch( args[counter], args[counter + 1], os, minimal );
+                        JarDiff.createPatch( args[counter], args[counter + 1], os, minimal, version );
                         os.close();
                     }
                     catch ( IOException ioe )
@@ -44,7 +44,14 @@ package jnlp.sample.jardiff;
 public interface JarDiffConstants
 {
     String VERSION_HEADER = "version 1.0";
+    String VERSION_2_HEADER = "version 2.0";
     String INDEX_NAME = "META-INF/INDEX.JD";
     String REMOVE_COMMAND = "remove";
     String MOVE_COMMAND = "move";
+    // Version 2 only: the entry of the JarDiff is a delta against an entry of the old jar
+    String PATCH_COMMAND = "patch";
+
+    // Formats of JarDiff, understood by the patchers of the same or a later version
+    int VERSION_1 = 1;
+    int VERSION_2 = 2;
 }
@@ -36,6 +36,7 @@
 
 package jnlp.sample.jardiff;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -70,10 +71,6 @@ public class JarDiffPatcher
 {
     private static final int DEFAULT_READ_SIZE = 2048;
 
-    private static byte[] newBytes = new byte[DEFAULT_READ_SIZE];
-
-    private static byte[] oldBytes = new byte[DEFAULT_READ_SIZE];
-
     private static ResourceBundle _resources = JarDiff.getResources();
 
     public static ResourceBundle getResources()
@@ -91,8 +88,9 @@ public class JarDiffPatcher
         JarFile jarDiff = new JarFile( diffFile );
         Set<String> ignoreSet = new HashSet<>();
         Map<String, String> renameMap = new HashMap<>();
+        Map<String, String> patchMap = new HashMap<>();
 
-        determineNameMapping( jarDiff, ignoreSet, renameMap );
+        determineNameMapping( jarDiff, ignoreSet, renameMap, patchMap );
 
         // get all keys in renameMap
         String[] keys = renameMap.keySet().toArray( new String[renameMap.size()] );
@@ -136,7 +134,33 @@ public class JarDiffPatcher
                     updateDelegate( delegate, currentEntry, size );
                     currentEntry++;
 
-                    writeEntry( jos, entry, jarDiff );
+                    String patchSource = patchMap.remove( entry.getName() );
+                    if ( patchSource != null )
+                    {
+                        // Rebuild the entry from its delta against the old one
+                        JarEntry oldEntry = oldJar.getJarEntry( patchSource );
+                        if ( oldEntry == null )
+                        {
+                            handleException( "jardiff.error.badpatch",
+                                             PATCH_COMMAND + " " + patchSource + " " + entry.getName() );
+                        }
+                        InputStream delta = jarDiff.getInputStream( entry );
+                        byte[] contents;
+                        try
+                        {
+                            byte[] oldContents = BinaryDelta.readEntry( oldJar, oldEntry );
+                            contents = applyDelta( patchSource, entry.getName(), oldContents, delta );
+                        }
+                        finally
+                        {
+                            delta.close();
+                        }
+                        writeEntry( jos, entry, new ByteArrayInputStream( contents ) );
+                    }
+                    else
+                    {
+                        writeEntry( jos, entry, jarDiff );
+                    }
 
                     // Remove entry from oldjarNames since no implicit
                     //move is needed
@@ -158,6 +182,12 @@ public class JarDiffPatcher
             }
         }
 
+        // every patch command needs its delta
+        for ( Map.Entry<String, String> patch : patchMap.entrySet() )
+        {
+            handleException( "jardiff.error.badpatch", PATCH_COMMAND + " " + patch.getValue() + " " + patch.getKey() );
+        }
+
         // go through the renameMap and apply move for each entry
         for ( String newName : keys )
         {
@@ -222,23 +252,42 @@ public class JarDiffPatcher
     {
         if ( delegate != null )
         {
-            delegate.patching( (int) ( currentSize / size ) );
+            delegate.patching( size > 0 ? (int) ( currentSize * 100 / size ) : 100 );
         }
     }
 
-    private void determineNameMapping( JarFile jarDiff, Set<String> ignoreSet, Map<String, String> renameMap )
+    private void determineNameMapping( JarFile jarDiff, Set<String> ignoreSet, Map<String, String> renameMap,
+                                       Map<String, String> patchMap )
             throws IOException
     {
-        InputStream is = jarDiff.getInputStream( jarDiff.getEntry( INDEX_NAME ) );
+        ZipEntry index = jarDiff.getEntry( INDEX_NAME );
+        InputStream is = index == null ? null : jarDiff.getInputStream( index );
 
         if ( is == null )
         {
             handleException( "jardiff.error.noindex", null );
         }
+        determineNameMapping( is, ignoreSet, renameMap, patchMap );
+    }
+
+    /**
+     * Reads the remove, move and patch commands of the index of a JarDiff
+     *
+     * @param is        the contents of the index
+     * @param ignoreSet receives the names of the removed entries
+     * @param renameMap receives the old name of each moved entry, by new name
+     * @param patchMap  receives the old name of each entry sent as a delta, by new name
+     * @throws IOException if the index is not valid
+     */
+    void determineNameMapping( InputStream is, Set<String> ignoreSet, Map<String, String> renameMap,
+                               Map<String, String> patchMap )
+            throws IOException
+    {
         LineNumberReader indexReader = new LineNumberReader( new InputStreamReader( is, "UTF-8" ) );
         String line = indexReader.readLine();
+        boolean version2 = VERSION_2_HEADER.equals( line );
 
-        if ( line == null || !line.equals( VERSION_HEADER ) )
+        if ( line == null || !( line.equals( VERSION_HEADER ) || version2 ) )
         {
             handleException( "jardiff.error.badheader", line );
         }
@@ -270,6 +319,15 @@ public class JarDiffPatcher
                     handleException( "jardiff.error.badmove", line );
                 }
             }
+            else if ( version2 && line.startsWith( PATCH_COMMAND ) )
+            {
+                List<String> sub = getSubpaths( line.substring( PATCH_COMMAND.length() ) );
+
+                if ( sub.size() != 2 || patchMap.put( sub.get( 1 ), sub.get( 0 ) ) != null )
+                {
+                    handleException( "jardiff.error.badpatch", line );
+                }
+            }
             else if ( line.length() > 0 )
             {
                 handleException( "jardiff.error.badcommand", line );
@@ -277,7 +335,28 @@ public class JarDiffPatcher
         }
     }
 
-    private void handleException( String errorMsg, String line )
+    /**
+     * Rebuilds an entry from its delta against the old contents
+     *
+     * @param oldName  name of the entry in the old jar
+     * @param newName  name of the entry in the new jar
+     * @param contents the contents of the entry in the old jar
+     * @param delta    the entry of the JarDiff, left open
+     * @return the contents of the entry in the new jar
+     * @throws IOException if the delta does not apply to the old contents
+     */
+    byte[] applyDelta( String oldName, String newName, byte[] contents, InputStream delta )
+            throws IOException
+    {
+        byte[] result = BinaryDelta.apply( contents, delta );
+        if ( result == null )
+        {
+            handleException( "jardiff.error.badpatch", PATCH_COMMAND + " " + oldName + " " + newName );
+        }
+        return result;
+    }
+
+    void handleException( String errorMsg, String line )
             throws IOException
     {
         try
@@ -362,6 +441,7 @@ public class JarDiffPatcher
         jos.putNextEntry( new ZipEntry( entry.getName() ) );
 
         // Read the entry
+        byte[] newBytes = new byte[DEFAULT_READ_SIZE];
         int size = data.read( newBytes );
 
         while ( size != -1 )
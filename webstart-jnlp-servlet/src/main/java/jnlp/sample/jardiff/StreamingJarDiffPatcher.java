@@ -0,0 +1,813 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.jardiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Applies a JarDiff in a single pass over the diff and over the old jar,
+ * without inflating and deflating again the entries kept from the old jar.
+ * <p>
+ * The diff is read as a stream, its index first, as written by
+ * {@link JarDiff}. The entries of the old jar are located from its central
+ * directory, and their compressed data is copied as is, in the order they
+ * appear in the file. Entries sent as a delta by a version 2 JarDiff are
+ * rebuilt from the contents of their old entry. Progress is reported as the
+ * share of the bytes of both files processed so far.
+ * <p>
+ * The result is written as a plain zip file. Jars needing Zip64 extensions
+ * are not supported.
+ */
+public class StreamingJarDiffPatcher
+        extends JarDiffPatcher
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    private static final int END_SIZE = 22;
+
+    private static final int VERSION = 20;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    /**
+     * An entry of a zip file, as recorded in its central directory
+     */
+    private static final class Entry
+    {
+        private String _name;
+
+        private byte[] _nameBytes;
+
+        private int _flags;
+
+        private int _method;
+
+        private int _dosTime;
+
+        private long _crc;
+
+        private long _compressedSize;
+
+        private long _size;
+
+        private byte[] _extra;
+
+        private byte[] _comment;
+
+        private int _internalAttributes;
+
+        private long _externalAttributes;
+
+        private long _offset;
+
+        private Entry copy( String name )
+                throws IOException
+        {
+            Entry copy = new Entry();
+            copy._name = name;
+            copy._nameBytes = name.getBytes( "UTF-8" );
+            copy._flags = ( _flags & ~( FLAG_DATA_DESCRIPTOR | FLAG_UTF8 ) ) |
+                    ( copy._nameBytes.length != name.length() ? FLAG_UTF8 : 0 );
+            copy._method = _method;
+            copy._dosTime = _dosTime;
+            copy._crc = _crc;
+            copy._compressedSize = _compressedSize;
+            copy._size = _size;
+            copy._extra = _extra;
+            copy._comment = _comment;
+            copy._internalAttributes = _internalAttributes;
+            copy._externalAttributes = _externalAttributes;
+            return copy;
+        }
+    }
+
+    private static final Comparator<Entry> BY_OFFSET = new Comparator<Entry>()
+    {
+        public int compare( Entry a, Entry b )
+        {
+            return a._offset < b._offset ? -1 : ( a._offset == b._offset ? 0 : 1 );
+        }
+    };
+
+    public void applyPatch( Patcher.PatchDelegate delegate, String oldJarPath, String jarDiffPath, OutputStream result )
+            throws IOException
+    {
+        File diffFile = new File( jarDiffPath );
+        RandomAccessFile oldJar = new RandomAccessFile( oldJarPath, "r" );
+        try
+        {
+            List<Entry> oldEntries = readCentralDirectory( oldJar );
+            long oldBytes = 0;
+            for ( Entry entry : oldEntries )
+            {
+                oldBytes += entry._compressedSize;
+            }
+            Progress progress = new Progress( delegate, diffFile.length() + oldBytes );
+
+            ZipWriter out = new ZipWriter( result );
+            Set<String> ignoreSet = new HashSet<>();
+            Map<String, String> renameMap = new HashMap<>();
+            Map<String, String> patchMap = new HashMap<>();
+            Set<String> replaced = new HashSet<>();
+            Map<String, Entry> oldByName = new HashMap<>();
+            for ( Entry entry : oldEntries )
+            {
+                oldByName.put( entry._name, entry );
+            }
+
+            // Entries of the diff first, as they come
+            ProgressInputStream diffIn =
+                    new ProgressInputStream( new BufferedInputStream( new FileInputStream( diffFile ) ), progress );
+            ZipInputStream diff = new ZipInputStream( diffIn );
+            try
+            {
+                boolean hasIndex = false;
+                ZipEntry entry;
+                while ( ( entry = diff.getNextEntry() ) != null )
+                {
+                    if ( INDEX_NAME.equals( entry.getName() ) )
+                    {
+                        determineNameMapping( readIndex( diff ), ignoreSet, renameMap, patchMap );
+                        hasIndex = true;
+                    }
+                    else
+                    {
+                        String patchSource = patchMap.remove( entry.getName() );
+                        if ( patchSource != null )
+                        {
+                            // Rebuild the entry from its delta against the old one
+                            Entry oldEntry = oldByName.get( patchSource );
+                            if ( oldEntry == null )
+                            {
+                                handleException( "jardiff.error.badpatch",
+                                                 PATCH_COMMAND + " " + patchSource + " " + entry.getName() );
+                            }
+                            byte[] contents =
+                                    applyDelta( patchSource, entry.getName(), readContents( oldJar, oldEntry ), diff );
+                            out.writeDeflated( entry, new ByteArrayInputStream( contents ) );
+                        }
+                        else
+                        {
+                            out.writeDeflated( entry, diff );
+                        }
+                        replaced.add( entry.getName() );
+                    }
+                }
+                if ( !hasIndex )
+                {
+                    handleException( "jardiff.error.noindex", null );
+                }
+                for ( Map.Entry<String, String> patch : patchMap.entrySet() )
+                {
+                    handleException( "jardiff.error.badpatch",
+                                     PATCH_COMMAND + " " + patch.getValue() + " " + patch.getKey() );
+                }
+            }
+            finally
+            {
+                diff.close();
+            }
+
+            // Then the entries kept or moved from the old jar, in the order of the file
+            Map<String, List<String>> moves = new HashMap<>();
+            for ( Map.Entry<String, String> move : renameMap.entrySet() )
+            {
+                List<String> targets = moves.get( move.getValue() );
+                if ( targets == null )
+                {
+                    targets = new ArrayList<>();
+                    moves.put( move.getValue(), targets );
+                }
+                targets.add( move.getKey() );
+            }
+            for ( Map.Entry<String, String> move : renameMap.entrySet() )
+            {
+                if ( !oldByName.containsKey( move.getValue() ) )
+                {
+                    handleException( "jardiff.error.badmove", MOVE_COMMAND + move.getValue() + " " + move.getKey() );
+                }
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for ( Entry entry : oldEntries )
+            {
+                List<String> targets = moves.remove( entry._name );
+                if ( targets != null )
+                {
+                    for ( String target : targets )
+                    {
+                        copyEntry( oldJar, entry, entry.copy( target ), out, buffer, null );
+                    }
+                    progress.add( entry._compressedSize );
+                }
+                else if ( !ignoreSet.contains( entry._name ) && !replaced.contains( entry._name ) )
+                {
+                    copyEntry( oldJar, entry, entry.copy( entry._name ), out, buffer, progress );
+                }
+                else
+                {
+                    progress.add( entry._compressedSize );
+                }
+            }
+
+            out.finish();
+            progress.done();
+        }
+        finally
+        {
+            oldJar.close();
+        }
+    }
+
+    private static InputStream readIndex( InputStream in )
+            throws IOException
+    {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ( ( read = in.read( buffer ) ) != -1 )
+        {
+            index.write( buffer, 0, read );
+        }
+        return new ByteArrayInputStream( index.toByteArray() );
+    }
+
+    /**
+     * Positions the old jar on the compressed data of one of its entries
+     *
+     * @return the extra field of the local header of the entry
+     */
+    private static byte[] seekData( RandomAccessFile oldJar, Entry entry )
+            throws IOException
+    {
+        oldJar.seek( entry._offset );
+        if ( readInt( oldJar ) != LOCAL_HEADER_SIGNATURE )
+        {
+            throw new ZipException( "Invalid local header for " + entry._name );
+        }
+        oldJar.seek( entry._offset + 26 );
+        int nameLength = readShort( oldJar );
+        int extraLength = readShort( oldJar );
+        byte[] localExtra = new byte[extraLength];
+        oldJar.skipBytes( nameLength );
+        oldJar.readFully( localExtra );
+        return localExtra;
+    }
+
+    /**
+     * Reads the uncompressed contents of an entry of the old jar
+     */
+    private static byte[] readContents( RandomAccessFile oldJar, Entry entry )
+            throws IOException
+    {
+        if ( entry._size > Integer.MAX_VALUE - 8 || entry._compressedSize > Integer.MAX_VALUE - 8 )
+        {
+            throw new ZipException( "Entry too large to patch: " + entry._name );
+        }
+        seekData( oldJar, entry );
+        int length = (int) entry._compressedSize;
+        if ( entry._method == ZipEntry.STORED )
+        {
+            byte[] contents = new byte[length];
+            oldJar.readFully( contents );
+            return contents;
+        }
+        if ( entry._method != ZipEntry.DEFLATED )
+        {
+            throw new ZipException( "Unsupported compression method for " + entry._name );
+        }
+        // An extra byte, as the inflater may need more input than the raw data to finish
+        byte[] data = new byte[length + 1];
+        oldJar.readFully( data, 0, length );
+        Inflater inflater = new Inflater( true );
+        try
+        {
+            inflater.setInput( data );
+            byte[] contents = new byte[(int) entry._size];
+            length = 0;
+            while ( length < contents.length && !inflater.finished() )
+            {
+                int inflated = inflater.inflate( contents, length, contents.length - length );
+                if ( inflated == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+                {
+                    break;
+                }
+                length += inflated;
+            }
+            if ( length != contents.length )
+            {
+                throw new ZipException( "Invalid compressed data for " + entry._name );
+            }
+            return contents;
+        }
+        catch ( DataFormatException e )
+        {
+            throw new ZipException( "Invalid compressed data for " + entry._name );
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Copies the compressed data of an entry of the old jar to the result
+     */
+    private static void copyEntry( RandomAccessFile oldJar, Entry entry, Entry target, ZipWriter out, byte[] buffer,
+                                   Progress progress )
+            throws IOException
+    {
+        byte[] localExtra = seekData( oldJar, entry );
+
+        out.startRawEntry( target, localExtra );
+        long remaining = entry._compressedSize;
+        while ( remaining > 0 )
+        {
+            int read = oldJar.read( buffer, 0, (int) Math.min( buffer.length, remaining ) );
+            if ( read < 0 )
+            {
+                throw new ZipException( "Truncated entry " + entry._name );
+            }
+            out.write( buffer, 0, read );
+            remaining -= read;
+            if ( progress != null )
+            {
+                progress.add( read );
+            }
+        }
+    }
+
+    /**
+     * Reads the central directory of a zip file
+     *
+     * @return its entries, in the order of their data in the file
+     */
+    private static List<Entry> readCentralDirectory( RandomAccessFile file )
+            throws IOException
+    {
+        // The end record is at the end of the file, followed by a comment of up to 64k
+        long length = file.length();
+        int tail = (int) Math.min( length, END_SIZE + 0xffff );
+        byte[] bytes = new byte[tail];
+        file.seek( length - tail );
+        file.readFully( bytes );
+        int end = -1;
+        for ( int i = tail - END_SIZE; i >= 0; i-- )
+        {
+            if ( getInt( bytes, i ) == END_SIGNATURE )
+            {
+                end = i;
+                break;
+            }
+        }
+        if ( end < 0 )
+        {
+            throw new ZipException( "Not a zip file" );
+        }
+        int count = getShort( bytes, end + 10 );
+        long directorySize = getInt( bytes, end + 12 ) & MAX_SIZE;
+        long directoryOffset = getInt( bytes, end + 16 ) & MAX_SIZE;
+        if ( count == 0xffff || directorySize == MAX_SIZE || directoryOffset == MAX_SIZE )
+        {
+            throw new ZipException( "Zip64 files are not supported" );
+        }
+
+        byte[] directory = new byte[(int) directorySize];
+        file.seek( directoryOffset );
+        file.readFully( directory );
+        List<Entry> entries = new ArrayList<>( count );
+        int pos = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( pos + CENTRAL_HEADER_SIZE > directory.length || getInt( directory, pos ) != CENTRAL_HEADER_SIGNATURE )
+            {
+                throw new ZipException( "Invalid central directory" );
+            }
+            Entry entry = new Entry();
+            entry._flags = getShort( directory, pos + 8 );
+            entry._method = getShort( directory, pos + 10 );
+            entry._dosTime = getInt( directory, pos + 12 );
+            entry._crc = getInt( directory, pos + 16 ) & MAX_SIZE;
+            entry._compressedSize = getInt( directory, pos + 20 ) & MAX_SIZE;
+            entry._size = getInt( directory, pos + 24 ) & MAX_SIZE;
+            int nameLength = getShort( directory, pos + 28 );
+            int extraLength = getShort( directory, pos + 30 );
+            int commentLength = getShort( directory, pos + 32 );
+            entry._internalAttributes = getShort( directory, pos + 36 );
+            entry._externalAttributes = getInt( directory, pos + 38 ) & MAX_SIZE;
+            entry._offset = getInt( directory, pos + 42 ) & MAX_SIZE;
+            if ( entry._compressedSize == MAX_SIZE || entry._size == MAX_SIZE || entry._offset == MAX_SIZE )
+            {
+                throw new ZipException( "Zip64 files are not supported" );
+            }
+            pos += CENTRAL_HEADER_SIZE;
+            // Names are read as UTF-8, as by java.util.zip
+            entry._name = new String( directory, pos, nameLength, "UTF-8" );
+            pos += nameLength;
+            entry._extra = new byte[extraLength];
+            System.arraycopy( directory, pos, entry._extra, 0, extraLength );
+            pos += extraLength;
+            entry._comment = new byte[commentLength];
+            System.arraycopy( directory, pos, entry._comment, 0, commentLength );
+            pos += commentLength;
+            entries.add( entry );
+        }
+        Collections.sort( entries, BY_OFFSET );
+        return entries;
+    }
+
+    private static int getShort( byte[] b, int off )
+    {
+        return ( b[off] & 0xff ) | ( ( b[off + 1] & 0xff ) << 8 );
+    }
+
+    private static int getInt( byte[] b, int off )
+    {
+        return getShort( b, off ) | ( getShort( b, off + 2 ) << 16 );
+    }
+
+    private static int readShort( RandomAccessFile file )
+            throws IOException
+    {
+        int b0 = file.read();
+        int b1 = file.read();
+        if ( b1 < 0 )
+        {
+            throw new ZipException( "Unexpected end of file" );
+        }
+        return b0 | ( b1 << 8 );
+    }
+
+    private static int readInt( RandomAccessFile file )
+            throws IOException
+    {
+        return readShort( file ) | ( readShort( file ) << 16 );
+    }
+
+    /**
+     * Reports the share of the bytes processed, when it changes
+     */
+    private static final class Progress
+    {
+        private final Patcher.PatchDelegate _delegate;
+
+        private final long _total;
+
+        private long _done = 0;
+
+        private int _percent = -1;
+
+        Progress( Patcher.PatchDelegate delegate, long total )
+        {
+            _delegate = delegate;
+            _total = total;
+            add( 0 );
+        }
+
+        void add( long bytes )
+        {
+            _done += bytes;
+            int percent = _total > 0 ? (int) ( Math.min( _done, _total ) * 100 / _total ) : 0;
+            if ( percent != _percent && _delegate != null )
+            {
+                _percent = percent;
+                _delegate.patching( percent );
+            }
+        }
+
+        void done()
+        {
+            if ( _percent != 100 && _delegate != null )
+            {
+                _percent = 100;
+                _delegate.patching( 100 );
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes of the diff read so far
+     */
+    private static final class ProgressInputStream
+            extends FilterInputStream
+    {
+        private final Progress _progress;
+
+        ProgressInputStream( InputStream in, Progress progress )
+        {
+            super( in );
+            _progress = progress;
+        }
+
+        public int read()
+                throws IOException
+        {
+            int b = super.read();
+            if ( b >= 0 )
+            {
+                _progress.add( 1 );
+            }
+            return b;
+        }
+
+        public int read( byte[] b, int off, int len )
+                throws IOException
+        {
+            int read = super.read( b, off, len );
+            if ( read > 0 )
+            {
+                _progress.add( read );
+            }
+            return read;
+        }
+
+        public long skip( long n )
+                throws IOException
+        {
+            long skipped = super.skip( n );
+            _progress.add( skipped );
+            return skipped;
+        }
+    }
+
+    /**
+     * Writes a zip file entry by entry, either deflating their contents, or
+     * copying their already compressed data
+     */
+    private static final class ZipWriter
+    {
+        private final OutputStream _out;
+
+        private final List<Entry> _entries = new ArrayList<>();
+
+        private final Set<String> _names = new HashSet<>();
+
+        private final Deflater _deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+
+        private final byte[] _buffer = new byte[BUFFER_SIZE];
+
+        private final byte[] _deflated = new byte[BUFFER_SIZE];
+
+        private long _written = 0;
+
+        ZipWriter( OutputStream out )
+        {
+            _out = new BufferedOutputStream( out, BUFFER_SIZE );
+        }
+
+        /**
+         * Writes an entry with the given contents, followed by its sizes and CRC
+         */
+        void writeDeflated( ZipEntry zipEntry, InputStream data )
+                throws IOException
+        {
+            Entry entry = new Entry();
+            entry._name = zipEntry.getName();
+            entry._nameBytes = entry._name.getBytes( "UTF-8" );
+            entry._flags = FLAG_DATA_DESCRIPTOR | ( entry._nameBytes.length != entry._name.length() ? FLAG_UTF8 : 0 );
+            entry._method = ZipEntry.DEFLATED;
+            entry._dosTime = toDosTime( zipEntry.getTime() == -1 ? System.currentTimeMillis() : zipEntry.getTime() );
+            entry._extra = new byte[0];
+            entry._comment = new byte[0];
+            startEntry( entry, entry._extra );
+
+            CRC32 crc = new CRC32();
+            long size = 0;
+            long compressedSize = 0;
+            _deflater.reset();
+            int read;
+            while ( ( read = data.read( _buffer ) ) != -1 )
+            {
+                crc.update( _buffer, 0, read );
+                size += read;
+                _deflater.setInput( _buffer, 0, read );
+                while ( !_deflater.needsInput() )
+                {
+                    compressedSize += deflate();
+                }
+            }
+            _deflater.finish();
+            while ( !_deflater.finished() )
+            {
+                compressedSize += deflate();
+            }
+            entry._crc = crc.getValue();
+            entry._size = size;
+            entry._compressedSize = compressedSize;
+            checkSize( entry._size );
+
+            writeInt( DATA_DESCRIPTOR_SIGNATURE );
+            writeInt( (int) entry._crc );
+            writeInt( (int) entry._compressedSize );
+            writeInt( (int) entry._size );
+        }
+
+        private int deflate()
+                throws IOException
+        {
+            int deflated = _deflater.deflate( _deflated, 0, _deflated.length );
+            write( _deflated, 0, deflated );
+            return deflated;
+        }
+
+        /**
+         * Writes the header of an entry whose compressed data is then written as is
+         */
+        void startRawEntry( Entry entry, byte[] localExtra )
+                throws IOException
+        {
+            startEntry( entry, localExtra );
+        }
+
+        private void startEntry( Entry entry, byte[] localExtra )
+                throws IOException
+        {
+            if ( !_names.add( entry._name ) )
+            {
+                throw new ZipException( "duplicate entry: " + entry._name );
+            }
+            checkSize( _written );
+            entry._offset = _written;
+            _entries.add( entry );
+            boolean descriptor = ( entry._flags & FLAG_DATA_DESCRIPTOR ) != 0;
+            writeInt( LOCAL_HEADER_SIGNATURE );
+            writeShort( VERSION );
+            writeShort( entry._flags );
+            writeShort( entry._method );
+            writeInt( entry._dosTime );
+            writeInt( descriptor ? 0 : (int) entry._crc );
+            writeInt( descriptor ? 0 : (int) entry._compressedSize );
+            writeInt( descriptor ? 0 : (int) entry._size );
+            writeShort( entry._nameBytes.length );
+            writeShort( localExtra.length );
+            write( entry._nameBytes, 0, entry._nameBytes.length );
+            write( localExtra, 0, localExtra.length );
+        }
+
+        /**
+         * Writes the central directory, and flushes the result
+         */
+        void finish()
+                throws IOException
+        {
+            if ( _entries.size() >= 0xffff )
+            {
+                throw new ZipException( "Too many entries for a zip file without Zip64 extensions" );
+            }
+            long directoryOffset = _written;
+            checkSize( directoryOffset );
+            for ( Entry entry : _entries )
+            {
+                writeInt( CENTRAL_HEADER_SIGNATURE );
+                writeShort( VERSION );
+                writeShort( VERSION );
+                writeShort( entry._flags );
+                writeShort( entry._method );
+                writeInt( entry._dosTime );
+                writeInt( (int) entry._crc );
+                writeInt( (int) entry._compressedSize );
+                writeInt( (int) entry._size );
+                writeShort( entry._nameBytes.length );
+                writeShort( entry._extra.length );
+                writeShort( entry._comment.length );
+                writeShort( 0 );
+                writeShort( entry._internalAttributes );
+                writeInt( (int) entry._externalAttributes );
+                writeInt( (int) entry._offset );
+                write( entry._nameBytes, 0, entry._nameBytes.length );
+                write( entry._extra, 0, entry._extra.length );
+                write( entry._comment, 0, entry._comment.length );
+            }
+            long directorySize = _written - directoryOffset;
+            writeInt( END_SIGNATURE );
+            writeShort( 0 );
+            writeShort( 0 );
+            writeShort( _entries.size() );
+            writeShort( _entries.size() );
+            writeInt( (int) directorySize );
+            writeInt( (int) directoryOffset );
+            writeShort( 0 );
+            _out.flush();
+            _deflater.end();
+        }
+
+        void write( byte[] b, int off, int len )
+                throws IOException
+        {
+            _out.write( b, off, len );
+            _written += len;
+        }
+
+        private void writeShort( int v )
+                throws IOException
+        {
+            _out.write( v & 0xff );
+            _out.write( ( v >>> 8 ) & 0xff );
+            _written += 2;
+        }
+
+        private void writeInt( int v )
+                throws IOException
+        {
+            writeShort( v & 0xffff );
+            writeShort( ( v >>> 16 ) & 0xffff );
+        }
+
+        private static void checkSize( long size )
+                throws ZipException
+        {
+            if ( size >= MAX_SIZE )
+            {
+                throw new ZipException( "Jar too large for a zip file without Zip64 extensions" );
+            }
+        }
+
+        private static int toDosTime( long time )
+        {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis( time );
+            int year = cal.get( Calendar.YEAR );
+            if ( year < 1980 )
+            {
+                return ( 1 << 21 ) | ( 1 << 16 );
+            }
+            return ( year - 1980 ) << 25 | ( cal.get( Calendar.MONTH ) + 1 ) << 21 |
+                    cal.get( Calendar.DAY_OF_MONTH ) << 16 | cal.get( Calendar.HOUR_OF_DAY ) << 11 |
+                    cal.get( Calendar.MINUTE ) << 5 | cal.get( Calendar.SECOND ) >> 1;
+        }
+    }
+}
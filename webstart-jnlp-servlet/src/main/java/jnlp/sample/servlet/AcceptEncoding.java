@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Content codings accepted by a client, parsed from its Accept-Encoding
+ * header with their quality values.
+ * <p>
+ * Clients send few distinct headers, so instances are cached per header
+ * and shared between requests.
+ */
+final class AcceptEncoding
+{
+    // Maximum number of Accept-Encoding headers kept in the cache
+    private static final int CACHE_SIZE = 256;
+
+    // Requests without an Accept-Encoding header only get unencoded content
+    private static final AcceptEncoding NONE = new AcceptEncoding( new HashMap<String, Float>() );
+
+    private static final BoundedCache<String, AcceptEncoding> _cache = new BoundedCache<>( CACHE_SIZE );
+
+    private final Map<String, Float> _qualities;
+
+    // Bit i is set if variant i of the registry is acceptable
+    private final int _acceptedVariants;
+
+    /**
+     * Returns the parsed Accept-Encoding header
+     *
+     * @param header value of the Accept-Encoding header, may be null
+     * @return the parsed header, shared with other requests sending the same value
+     */
+    static AcceptEncoding valueOf( String header )
+    {
+        if ( header == null )
+        {
+            return NONE;
+        }
+        AcceptEncoding accept = _cache.get( header );
+        if ( accept == null )
+        {
+            accept = new AcceptEncoding( parse( header ) );
+            _cache.put( header, accept );
+        }
+        return accept;
+    }
+
+    /**
+     * Drops the cached headers, as the variants they accept depend on the registry
+     */
+    static void clearCache()
+    {
+        _cache.clear();
+    }
+
+    private AcceptEncoding( Map<String, Float> qualities )
+    {
+        _qualities = qualities;
+        int accepted = 0;
+        EncodingVariant[] variants = EncodingVariant.getVariants();
+        for ( int i = 0; i < variants.length; i++ )
+        {
+            if ( getQuality( variants[i].getEncoding() ) > 0 )
+            {
+                accepted |= 1 << i;
+            }
+        }
+        _acceptedVariants = accepted;
+    }
+
+    /**
+     * Returns the quality value of a content coding, as defined by RFC 7231:
+     * the value given for the coding, else the one given for "*", else 0.
+     * The identity coding is acceptable unless explicitly excluded, and
+     * pack200-gzip, which only Java Web Start can decode, must be named.
+     *
+     * @param coding a content coding, in lower case
+     * @return the quality value, 0 if the coding is not acceptable
+     */
+    float getQuality( String coding )
+    {
+        Float q = _qualities.get( coding );
+        if ( q == null && !DownloadResponse.PACK200_GZIP_ENCODING.equals( coding ) )
+        {
+            q = _qualities.get( "*" );
+        }
+        if ( q == null )
+        {
+            return "identity".equals( coding ) ? 1 : 0;
+        }
+        return q.floatValue();
+    }
+
+    /**
+     * @return a bit mask of the acceptable variants of {@link EncodingVariant#getVariants()}
+     */
+    int getAcceptedVariants()
+    {
+        return _acceptedVariants;
+    }
+
+    private static Map<String, Float> parse( String header )
+    {
+        Map<String, Float> qualities = new HashMap<>();
+        StringTokenizer st = new StringTokenizer( header, "," );
+        while ( st.hasMoreTokens() )
+        {
+            String element = st.nextToken().trim();
+            float q = 1;
+            int idx = element.indexOf( ';' );
+            if ( idx != -1 )
+            {
+                String params = element.substring( idx + 1 ).trim();
+                element = element.substring( 0, idx ).trim();
+                if ( params.startsWith( "q=" ) || params.startsWith( "Q=" ) )
+                {
+                    try
+                    {
+                        q = Float.parseFloat( params.substring( 2 ).trim() );
+                    }
+                    catch ( NumberFormatException nfe )
+                    {
+                        // Malformed quality, do not take the coding as acceptable
+                        q = 0;
+                    }
+                }
+            }
+            if ( element.length() == 0 )
+            {
+                continue;
+            }
+            String coding = element.toLowerCase( Locale.ENGLISH );
+            // x-gzip is an alias of gzip
+            if ( "x-gzip".equals( coding ) )
+            {
+                coding = DownloadResponse.GZIP_ENCODING;
+            }
+            qualities.put( coding, Float.valueOf( Math.max( 0, Math.min( 1, q ) ) ) );
+        }
+        return qualities;
+    }
+
+    public String toString()
+    {
+        return "AcceptEncoding" + _qualities;
+    }
+}
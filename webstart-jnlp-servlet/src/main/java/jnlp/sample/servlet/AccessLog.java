@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.servlet.ServletConfig;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-request records, feeding the {@link DownloadMetrics} and an optional
+ * structured access log, written as one JSON object per line.
+ * <p>
+ * The file is enabled by the <code>accessLogPath</code> init parameter. Each
+ * request gets a {@link Record} that collects what was asked for and returned,
+ * and how long each stage took. Records are formatted and queued once the
+ * response has been transferred, and written to the file from a background
+ * thread, with the same queue settings as the servlet log.
+ */
+class AccessLog
+{
+    // Configuration parameters
+    private final static String ACCESS_LOG_PATH = "accessLogPath";
+
+    private final static String LOG_QUEUE_SIZE = "logQueueSize";
+
+    private final static String LOG_OVERFLOW = "logOverflow";
+
+    // Response types
+    static final String TYPE_FULL = "full";
+
+    static final String TYPE_JARDIFF = "jardiff";
+
+    static final String TYPE_PACK = "pack";
+
+    static final String TYPE_GZIP = "gz";
+
+    static final String TYPE_NOT_MODIFIED = "304";
+
+    static final String TYPE_HEAD = "head";
+
+    static final String TYPE_ERROR = "error";
+
+    private final AsyncLogWriter _writer;
+
+    private final DownloadMetrics _metrics;
+
+    /**
+     * Creates the access log configured for the servlet
+     *
+     * @param config  the servlet configuration, with the access log init parameters
+     * @param metrics metrics to update as requests complete
+     * @return the access log, which only updates the metrics if accessLogPath is not set
+     */
+    static AccessLog create( ServletConfig config, DownloadMetrics metrics )
+    {
+        String path = config.getInitParameter( ACCESS_LOG_PATH );
+        if ( path == null || path.trim().length() == 0 )
+        {
+            return new AccessLog( null, metrics );
+        }
+        int queueSize = AsyncLogWriter.DEFAULT_QUEUE_SIZE;
+        String queueSizeParam = config.getInitParameter( LOG_QUEUE_SIZE );
+        if ( queueSizeParam != null )
+        {
+            try
+            {
+                queueSize = Integer.parseInt( queueSizeParam.trim() );
+            }
+            catch ( NumberFormatException nfe )
+            { /* keep default */ }
+        }
+        return new AccessLog(
+                new AsyncLogWriter( path.trim(), config.getServletName() + "-access", config.getServletContext(),
+                                    queueSize, config.getInitParameter( LOG_OVERFLOW ) ), metrics );
+    }
+
+    private AccessLog( AsyncLogWriter writer, DownloadMetrics metrics )
+    {
+        _writer = writer;
+        _metrics = metrics;
+    }
+
+    /**
+     * Starts the record of a request, once it has been parsed.
+     *
+     * @param dreq      the parsed request
+     * @param startTime System.nanoTime() when the request was received
+     * @return the record, to complete once the response is sent
+     */
+    Record startRecord( DownloadRequest dreq, long startTime )
+    {
+        return new Record( dreq, startTime );
+    }
+
+    void close()
+    {
+        if ( _writer != null )
+        {
+            _writer.close();
+        }
+    }
+
+    /**
+     * What is known about a request, filled in as it is processed.
+     * Timings are in nanoseconds.
+     * <p>
+     * The transfer may run on another thread than the one that started the
+     * record, and may be aborted by either of them, so the transfer state is
+     * shared safely and the record is completed only once.
+     */
+    class Record
+    {
+        private final long _timestamp = System.currentTimeMillis();
+
+        private final long _startTime;
+
+        private final String _path;
+
+        private final String _version;
+
+        private final String _currentVersion;
+
+        private final long _parseTime;
+
+        private volatile long _mark;
+
+        private String _returnVersion = null;
+
+        private String _type = TYPE_FULL;
+
+        private long _lookupTime = 0;
+
+        private long _diffTime = 0;
+
+        private long _templateTime = 0;
+
+        private volatile boolean _transferring = false;
+
+        private final AtomicBoolean _completed = new AtomicBoolean();
+
+        // Content bytes written so far, reported if the transfer is aborted
+        private final AtomicLong _sent = new AtomicLong();
+
+        private Record( DownloadRequest dreq, long startTime )
+        {
+            _startTime = startTime;
+            _path = dreq.getPath();
+            _version = dreq.getVersion();
+            _currentVersion = dreq.getCurrentVersionId();
+            _mark = System.nanoTime();
+            _parseTime = _mark - startTime;
+        }
+
+        /**
+         * The resource to return has been looked up
+         */
+        void resourceLocated( JnlpResource jnlpres )
+        {
+            long now = System.nanoTime();
+            _lookupTime = now - _mark;
+            _mark = now;
+            _returnVersion = jnlpres.getReturnVersionId();
+        }
+
+        void addDiffTime( long nanos )
+        {
+            _diffTime += nanos;
+        }
+
+        void addTemplateTime( long nanos )
+        {
+            _templateTime += nanos;
+        }
+
+        void setType( String type )
+        {
+            _type = type;
+        }
+
+        /**
+         * The response is about to be transferred
+         */
+        void startTransfer()
+        {
+            _mark = System.nanoTime();
+            if ( !_transferring )
+            {
+                _transferring = true;
+                _metrics.downloadStarted();
+            }
+        }
+
+        /**
+         * The response has been transferred, and the record can be written
+         *
+         * @param bytes number of content bytes sent
+         */
+        void complete( long bytes )
+        {
+            complete( bytes, false );
+        }
+
+        /**
+         * The transfer of the response failed, typically because the client
+         * went away
+         *
+         * @param bytes number of content bytes sent before the failure
+         */
+        void abort( long bytes )
+        {
+            complete( bytes, true );
+        }
+
+        /**
+         * The transfer of the response failed, after the content bytes counted
+         * by {@link #sent(long)}
+         */
+        void abort()
+        {
+            complete( _sent.get(), true );
+        }
+
+        /**
+         * Content bytes have been written, by the thread doing the transfer
+         *
+         * @param bytes number of bytes written
+         */
+        void sent( long bytes )
+        {
+            _sent.addAndGet( bytes );
+        }
+
+        private void complete( long bytes, boolean aborted )
+        {
+            if ( !_completed.compareAndSet( false, true ) )
+            {
+                return;
+            }
+            long now = System.nanoTime();
+            if ( _transferring )
+            {
+                _metrics.downloadFinished( aborted );
+            }
+            _metrics.requestCompleted( _type, bytes, now - _startTime );
+            if ( _writer == null )
+            {
+                return;
+            }
+            StringBuilder sb = new StringBuilder( 256 );
+            sb.append( "{\"timestamp\":" ).append( _timestamp );
+            appendString( sb, "path", _path );
+            appendString( sb, "version", _version );
+            appendString( sb, "currentVersion", _currentVersion );
+            appendString( sb, "returnVersion", _returnVersion );
+            appendString( sb, "type", _type );
+            sb.append( ",\"bytes\":" ).append( bytes );
+            if ( aborted )
+            {
+                sb.append( ",\"aborted\":true" );
+            }
+            sb.append( ",\"parseNanos\":" ).append( _parseTime );
+            sb.append( ",\"lookupNanos\":" ).append( _lookupTime );
+            sb.append( ",\"diffNanos\":" ).append( _diffTime );
+            sb.append( ",\"templateNanos\":" ).append( _templateTime );
+            sb.append( ",\"transferNanos\":" ).append( now - _mark );
+            sb.append( ",\"totalNanos\":" ).append( now - _startTime );
+            sb.append( '}' );
+            _writer.offer( sb.toString(), null );
+        }
+    }
+
+    /**
+     * Appends a string member to a JSON object, escaping the value
+     */
+    static void appendString( StringBuilder sb, String name, String value )
+    {
+        if ( value == null )
+        {
+            return;
+        }
+        sb.append( ",\"" ).append( name ).append( "\":\"" );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char ch = value.charAt( i );
+            switch ( ch )
+            {
+                case '"':
+                    sb.append( "\\\"" );
+                    break;
+                case '\\':
+                    sb.append( "\\\\" );
+                    break;
+                default:
+                    if ( ch < 0x20 )
+                    {
+                        String hex = Integer.toHexString( ch );
+                        sb.append( "\\u" );
+                        for ( int j = hex.length(); j < 4; j++ )
+                        {
+                            sb.append( '0' );
+                        }
+                        sb.append( hex );
+                    }
+                    else
+                    {
+                        sb.append( ch );
+                    }
+            }
+        }
+        sb.append( '"' );
+    }
+}
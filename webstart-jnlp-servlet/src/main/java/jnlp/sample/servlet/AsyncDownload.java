@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Writes the content of a download from an asynchronous request, without
+ * holding a container thread while the client reads it.
+ * <p>
+ * The content is written from a {@link WriteListener}: each time the output
+ * stream is ready, the next chunks are read from the channel and written
+ * until the stream would block. The container calls back when the client
+ * has caught up, so a slow client costs a socket and a buffer, not a thread.
+ * <p>
+ * This requires a Servlet 3.1 container, and the servlet to be declared with
+ * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>. All Servlet 3.1 API calls are
+ * kept in this class, so the servlet still runs on older containers as long
+ * as asynchronous downloads are not enabled.
+ */
+class AsyncDownload
+        implements WriteListener
+{
+    // Size of the transfer buffer
+    private static final int BUF_SIZE = 32 * 1024;
+
+    private final AsyncContext _asyncContext;
+
+    private final ServletOutputStream _out;
+
+    private final ReadableByteChannel _channel;
+
+    private final Logger _log;
+
+    private final AccessLog.Record _record;
+
+    private final ByteBuffer _buffer = ByteBuffer.allocate( BUF_SIZE );
+
+    private long _sent = 0;
+
+    /**
+     * Start writing the content of channel to the response, from an asynchronous request.
+     * The headers must have been set already. If the request does not support
+     * asynchronous processing, the content is written before returning.
+     *
+     * @param request  the request, put in asynchronous mode if it supports it
+     * @param response the response to write the content to
+     * @param channel  the content, closed once it is written or the download fails
+     * @param log      logger for failed downloads
+     * @param record   access log record to complete once the content is sent, may be null
+     * @throws IOException if the content cannot be written from the calling thread
+     */
+    static void start( HttpServletRequest request, HttpServletResponse response, ReadableByteChannel channel,
+                       Logger log, AccessLog.Record record )
+            throws IOException
+    {
+        if ( !request.isAsyncSupported() )
+        {
+            log.addDebug( "Asynchronous processing not supported, sending content synchronously" );
+            DownloadResponse.complete( record, copy( channel, response.getOutputStream(), record ) );
+            return;
+        }
+        AsyncContext asyncContext = request.startAsync();
+        // Downloads of large files to slow clients legitimately take long,
+        // stalled connections are left to the container's socket timeouts
+        asyncContext.setTimeout( 0 );
+        ServletOutputStream out = response.getOutputStream();
+        out.setWriteListener( new AsyncDownload( asyncContext, out, channel, log, record ) );
+    }
+
+    private AsyncDownload( AsyncContext asyncContext, ServletOutputStream out, ReadableByteChannel channel,
+                           Logger log, AccessLog.Record record )
+    {
+        _asyncContext = asyncContext;
+        _out = out;
+        _channel = channel;
+        _log = log;
+        _record = record;
+    }
+
+    public void onWritePossible()
+            throws IOException
+    {
+        byte[] bytes = _buffer.array();
+        while ( _out.isReady() )
+        {
+            // Buffer.clear(), as ByteBuffer.clear() only exists from Java 9
+            ( (Buffer) _buffer ).clear();
+            int read = _channel.read( _buffer );
+            if ( read == -1 )
+            {
+                _channel.close();
+                _asyncContext.complete();
+                DownloadResponse.complete( _record, _sent );
+                return;
+            }
+            _out.write( bytes, 0, read );
+            _sent += read;
+        }
+    }
+
+    public void onError( Throwable t )
+    {
+        _log.addDebug( "Asynchronous download aborted", t );
+        try
+        {
+            _channel.close();
+        }
+        catch ( IOException ioe )
+        { /* ignore */ }
+        _asyncContext.complete();
+        DownloadResponse.abort( _record, _sent );
+    }
+
+    private static long copy( ReadableByteChannel channel, ServletOutputStream out, AccessLog.Record record )
+            throws IOException
+    {
+        long total = 0;
+        ByteBuffer buffer = ByteBuffer.allocate( BUF_SIZE );
+        try
+        {
+            int read;
+            while ( ( read = channel.read( buffer ) ) != -1 )
+            {
+                out.write( buffer.array(), 0, read );
+                DownloadResponse.sent( record, read );
+                ( (Buffer) buffer ).clear();
+                total += read;
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+        return total;
+    }
+}
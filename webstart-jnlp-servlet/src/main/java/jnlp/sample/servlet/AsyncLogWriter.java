@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.servlet.ServletContext;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends lines to a file from a single background thread.
+ * <p>
+ * Callers only enqueue their line, without taking any lock. The writer thread
+ * keeps the file open, drains everything that has been queued and flushes
+ * once per batch. The queue is bounded: when it is full, lines are either
+ * dropped or the caller waits for room, depending on the overflow policy.
+ * Dropped lines are counted, and reported in the file once there is room again.
+ * <p>
+ * If the file cannot be written, lines go to the servlet context log instead.
+ */
+class AsyncLogWriter
+        implements Runnable
+{
+    // Overflow policies
+    static final String OVERFLOW_DROP = "drop";
+
+    static final String OVERFLOW_BLOCK = "block";
+
+    // Default maximum number of queued lines
+    static final int DEFAULT_QUEUE_SIZE = 8192;
+
+    // How long a blocked caller waits before checking for room again
+    private static final long BLOCK_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    // How long close() waits for queued lines to be written
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private static final String LINE_SEPARATOR = System.getProperty( "line.separator" );
+
+    private final String _path;
+
+    private final ServletContext _servletContext;
+
+    private final int _capacity;
+
+    private final boolean _blockWhenFull;
+
+    private final ConcurrentLinkedQueue<Event> _queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger _size = new AtomicInteger();
+
+    private final AtomicLong _written = new AtomicLong();
+
+    private final AtomicLong _dropped = new AtomicLong();
+
+    private final AtomicLong _blocked = new AtomicLong();
+
+    private final AtomicLong _failed = new AtomicLong();
+
+    private final Thread _thread;
+
+    private volatile boolean _idle = false;
+
+    private volatile boolean _closed = false;
+
+    // Only used by the writer thread
+    private Writer _out = null;
+
+    private long _reportedDropped = 0;
+
+    /* A queued line */
+    private static class Event
+    {
+        private final String _line;
+
+        private final Throwable _throwable;
+
+        Event( String line, Throwable throwable )
+        {
+            _line = line;
+            _throwable = throwable;
+        }
+    }
+
+    AsyncLogWriter( String path, String name, ServletContext servletContext, int capacity, String overflow )
+    {
+        _path = path;
+        _servletContext = servletContext;
+        _capacity = capacity > 0 ? capacity : DEFAULT_QUEUE_SIZE;
+        _blockWhenFull = OVERFLOW_BLOCK.equalsIgnoreCase( overflow );
+        _thread = new Thread( this, "jnlp-log-writer-" + name );
+        _thread.setDaemon( true );
+        _thread.start();
+    }
+
+    /**
+     * Queues a line to be appended to the file.
+     *
+     * @param line      the formatted line, without its line separator
+     * @param throwable stack trace to append after the line, may be null
+     * @return false if the writer is closed, and the line should be logged elsewhere
+     */
+    boolean offer( String line, Throwable throwable )
+    {
+        // Reserve room in the queue
+        boolean blocked = false;
+        while ( true )
+        {
+            if ( _closed )
+            {
+                return false;
+            }
+            int size = _size.get();
+            if ( size >= _capacity )
+            {
+                if ( !_blockWhenFull )
+                {
+                    _dropped.incrementAndGet();
+                    return true;
+                }
+                if ( !blocked )
+                {
+                    blocked = true;
+                    _blocked.incrementAndGet();
+                }
+                LockSupport.unpark( _thread );
+                LockSupport.parkNanos( BLOCK_WAIT_NANOS );
+            }
+            else if ( _size.compareAndSet( size, size + 1 ) )
+            {
+                break;
+            }
+        }
+        _queue.offer( new Event( line, throwable ) );
+        if ( _idle )
+        {
+            LockSupport.unpark( _thread );
+        }
+        return true;
+    }
+
+    /**
+     * Writes the queued lines, and stops the writer thread.
+     */
+    void close()
+    {
+        _closed = true;
+        LockSupport.unpark( _thread );
+        try
+        {
+            _thread.join( CLOSE_TIMEOUT_MILLIS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getWrittenCount()
+    {
+        return _written.get();
+    }
+
+    long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+    /**
+     * @return the number of lines whose caller had to wait for room in the queue
+     */
+    long getBlockedCount()
+    {
+        return _blocked.get();
+    }
+
+    long getFailedCount()
+    {
+        return _failed.get();
+    }
+
+    int getQueueSize()
+    {
+        return _size.get();
+    }
+
+    public void run()
+    {
+        while ( true )
+        {
+            Event event = _queue.poll();
+            if ( event == null )
+            {
+                // End of batch
+                flush();
+                if ( _closed && _queue.isEmpty() )
+                {
+                    break;
+                }
+                _idle = true;
+                if ( _queue.isEmpty() && !_closed )
+                {
+                    LockSupport.park();
+                }
+                _idle = false;
+                continue;
+            }
+            _size.decrementAndGet();
+            write( event );
+        }
+        closeFile();
+    }
+
+    private void write( Event event )
+    {
+        try
+        {
+            if ( _out == null )
+            {
+                _out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( _path, true ) ) );
+            }
+            long dropped = _dropped.get();
+            if ( dropped != _reportedDropped )
+            {
+                _out.write( ( dropped - _reportedDropped ) + " log events dropped" );
+                _out.write( LINE_SEPARATOR );
+                _reportedDropped = dropped;
+            }
+            _out.write( event._line );
+            _out.write( LINE_SEPARATOR );
+            if ( event._throwable != null )
+            {
+                PrintWriter pw = new PrintWriter( _out );
+                event._throwable.printStackTrace( pw );
+                pw.flush();
+            }
+            _written.incrementAndGet();
+        }
+        catch ( IOException ioe )
+        {
+            // Reopen the file for the next event, and fall back to the servlet context log
+            _failed.incrementAndGet();
+            closeFile();
+            if ( event._throwable == null )
+            {
+                _servletContext.log( event._line );
+            }
+            else
+            {
+                _servletContext.log( event._line, event._throwable );
+            }
+        }
+    }
+
+    private void flush()
+    {
+        if ( _out != null )
+        {
+            try
+            {
+                _out.flush();
+            }
+            catch ( IOException ioe )
+            {
+                _failed.incrementAndGet();
+                closeFile();
+            }
+        }
+    }
+
+    private void closeFile()
+    {
+        if ( _out != null )
+        {
+            try
+            {
+                _out.close();
+            }
+            catch ( IOException ioe )
+            { /* ignore */ }
+            _out = null;
+        }
+    }
+}
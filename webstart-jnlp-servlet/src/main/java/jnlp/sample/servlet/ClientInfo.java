@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+import jnlp.sample.util.VersionID;
+import jnlp.sample.util.VersionString;
+
+import java.util.StringTokenizer;
+
+/**
+ * Classification of the client that issued a request, derived from its
+ * User-Agent header.
+ * <p>
+ * A deployment only ever sees a handful of distinct User-Agent strings, so
+ * instances are cached per User-Agent and shared between requests.
+ */
+public class ClientInfo
+{
+    // Javaws versions that support a query string in the href of a JNLP file
+    private static final VersionString QUERY_IN_HREF_VERSIONS = VersionString.valueOf( "1.5+" );
+
+    // Javaws versions for which a minimal JARDiff must not be generated
+    private static final VersionString JARDIFF_WORKAROUND_VERSIONS = VersionString.valueOf( "1.0*" );
+
+    // Maximum number of User-Agent strings kept in the cache
+    private static final int CACHE_SIZE = 256;
+
+    // Client used for requests without a User-Agent header
+    private static final ClientInfo UNKNOWN = new ClientInfo( null );
+
+    private static final BoundedCache<String, ClientInfo> _cache = new BoundedCache<>( CACHE_SIZE );
+
+    private final VersionID _javawsVersion; // Version of javaws, or null if not javaws
+
+    private final boolean _supportsQueryInHref;
+
+    private final boolean _needsJarDiffWorkaround;
+
+    /**
+     * Returns the classification of the given User-Agent
+     *
+     * @param userAgent value of the User-Agent header, may be null
+     * @return the ClientInfo for userAgent
+     */
+    public static ClientInfo forUserAgent( String userAgent )
+    {
+        if ( userAgent == null )
+        {
+            return UNKNOWN;
+        }
+        ClientInfo info = _cache.get( userAgent );
+        if ( info == null )
+        {
+            String verId = parseJavawsVersion( userAgent );
+            info = new ClientInfo( verId == null ? null : VersionID.valueOf( verId ) );
+            _cache.put( userAgent, info );
+        }
+        return info;
+    }
+
+    private ClientInfo( VersionID javawsVersion )
+    {
+        _javawsVersion = javawsVersion;
+        _supportsQueryInHref = isJavawsVersion( QUERY_IN_HREF_VERSIONS );
+        _needsJarDiffWorkaround = isJavawsVersion( JARDIFF_WORKAROUND_VERSIONS );
+    }
+
+    /**
+     * @return the javaws version of the client, or null if the request does not come from javaws
+     */
+    public VersionID getJavawsVersion()
+    {
+        return _javawsVersion;
+    }
+
+    /**
+     * @param versions the versions to check
+     * @return true if the client is javaws, and its version is contained in versions
+     */
+    public boolean isJavawsVersion( VersionString versions )
+    {
+        return _javawsVersion != null && versions.contains( _javawsVersion );
+    }
+
+    /**
+     * Only javaws 1.5 and above supports a query string in the href of a JNLP file
+     *
+     * @return true if the client can be sent a JNLP file with a query string in its href
+     */
+    public boolean supportsQueryInHref()
+    {
+        return _supportsQueryInHref;
+    }
+
+    /**
+     * Javaws 1.0/1.0.1 cannot apply a minimal JARDiff
+     *
+     * @return true if the client must not be sent a minimal JARDiff
+     */
+    public boolean needsJarDiffWorkaround()
+    {
+        return _needsJarDiffWorkaround;
+    }
+
+    private static String parseJavawsVersion( String jwsVer )
+    {
+        String javawsAgent = "javaws";
+
+        // check the request is coming from javaws
+        if ( !jwsVer.startsWith( "javaws-" ) )
+        {
+            // this is the new style User-Agent string
+            // User-Agent: JNLP/1.0.1 javaws/1.4.2 (b28) J2SE/1.4.2
+            StringTokenizer st = new StringTokenizer( jwsVer );
+            while ( st.hasMoreTokens() )
+            {
+                String verString = st.nextToken();
+                int index = verString.indexOf( javawsAgent );
+                if ( index != -1 )
+                {
+                    int start = index + javawsAgent.length() + 1;
+                    return start <= verString.length() ? verString.substring( start ) : null;
+                }
+            }
+            return null;
+        }
+
+        // extract the version id from the download request
+        int startIndex = jwsVer.indexOf( "-" );
+
+        if ( startIndex == -1 )
+        {
+            return null;
+        }
+
+        int endIndex = jwsVer.indexOf( "/" );
+
+        if ( endIndex == -1 || endIndex < startIndex )
+        {
+            return null;
+        }
+
+        return jwsVer.substring( startIndex + 1, endIndex );
+    }
+
+    public String toString()
+    {
+        return "ClientInfo[javawsVersion=" + _javawsVersion + " supportsQueryInHref=" + _supportsQueryInHref +
+                " needsJarDiffWorkaround=" + _needsJarDiffWorkaround + "]";
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.servlet.ServletConfig;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opt-in gzip compression of resources that have no precompressed variant.
+ * <p>
+ * It is enabled by setting the <code>compress-on-the-fly</code> init parameter
+ * to <code>true</code>. The first request for an eligible resource is answered
+ * uncompressed, while the resource is compressed on a background thread; later
+ * requests accepting gzip get the compressed copy. Copies are kept in
+ * <code>compress-cache-dir</code> (by default a directory in the servlet
+ * context's temporary directory), within <code>compress-cache-size</code> bytes
+ * (64m by default), least recently used first out. A copy is tied to the
+ * modification time of its resource, and made again once the resource changes.
+ * Copies are named with a <code>jnlp-compressed-</code> prefix, and the other
+ * files of the directory are left alone.
+ * <p>
+ * Resources of the mime types listed in <code>compress-mime-types</code> are
+ * eligible, if they are at least <code>compress-min-size</code> bytes long.
+ */
+class CompressionCache
+{
+    // Configuration parameters
+    private static final String PARAM_ENABLED = "compress-on-the-fly";
+
+    private static final String PARAM_DIR = "compress-cache-dir";
+
+    private static final String PARAM_SIZE = "compress-cache-size";
+
+    private static final String PARAM_MIME_TYPES = "compress-mime-types";
+
+    private static final String PARAM_MIN_SIZE = "compress-min-size";
+
+    private static final String PARAM_THREADS = "compress-threads";
+
+    private static final long DEFAULT_SIZE = 64 * 1024 * 1024;
+
+    private static final long DEFAULT_MIN_SIZE = 1024;
+
+    private static final String DEFAULT_MIME_TYPES =
+            "application/x-java-archive,application/java-archive,application/x-java-jnlp-file,application/xml,text/*";
+
+    private static final int BUF_SIZE = 32 * 1024;
+
+    // Prefix of the files of the cache, the only ones it ever deletes in its directory
+    private static final String FILE_PREFIX = "jnlp-compressed-";
+
+    private final File _dir;
+
+    private final long _budget;
+
+    private final long _minSize;
+
+    private final String[] _mimeTypes;
+
+    private final ExecutorService _executor;
+
+    private final Logger _log;
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<>();
+
+    // Resources being compressed
+    private final ConcurrentHashMap<String, Boolean> _pending = new ConcurrentHashMap<>();
+
+    // Guarded by this
+    private long _used = 0;
+
+    private static class Entry
+    {
+        private final long _lastModified;
+
+        private final File _file;   // Compressed copy, or null if compression does not pay off
+
+        private final long _size;
+
+        private volatile long _lastAccess = System.nanoTime();
+
+        Entry( long lastModified, File file, long size )
+        {
+            _lastModified = lastModified;
+            _file = file;
+            _size = size;
+        }
+    }
+
+    /**
+     * Creates the cache configured for the servlet
+     *
+     * @param config the servlet configuration, with the compression init parameters
+     * @param log    logger of the servlet
+     * @return the cache, or null if on-the-fly compression is not enabled
+     */
+    static CompressionCache create( ServletConfig config, Logger log )
+    {
+        if ( !Boolean.parseBoolean( config.getInitParameter( PARAM_ENABLED ) ) )
+        {
+            return null;
+        }
+        File dir;
+        String dirParam = config.getInitParameter( PARAM_DIR );
+        if ( dirParam != null && dirParam.trim().length() > 0 )
+        {
+            dir = new File( dirParam.trim() );
+        }
+        else
+        {
+            File tempDir = (File) config.getServletContext().getAttribute( "javax.servlet.context.tempdir" );
+            if ( tempDir == null )
+            {
+                tempDir = new File( System.getProperty( "java.io.tmpdir" ) );
+            }
+            dir = new File( tempDir, "jnlp-compressed-" + config.getServletName() );
+        }
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            log.addWarning( "servlet.log.warning.compress-dir", dir.getPath() );
+            return null;
+        }
+        // Copies of a previous run cannot be matched to their resources, start afresh
+        File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                String name = file.getName();
+                if ( name.startsWith( FILE_PREFIX ) && ( name.endsWith( ".gz" ) || name.endsWith( ".tmp" ) ) )
+                {
+                    file.delete();
+                }
+            }
+        }
+
+        long budget = HotResourceCache.parseSize( config.getInitParameter( PARAM_SIZE ), DEFAULT_SIZE );
+        long minSize = HotResourceCache.parseSize( config.getInitParameter( PARAM_MIN_SIZE ), DEFAULT_MIN_SIZE );
+        String mimeTypes = config.getInitParameter( PARAM_MIME_TYPES );
+        int threads = 1;
+        String threadsParam = config.getInitParameter( PARAM_THREADS );
+        if ( threadsParam != null )
+        {
+            try
+            {
+                threads = Math.max( 1, Integer.parseInt( threadsParam.trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            { /* keep default */ }
+        }
+        log.addDebug( "Compressing resources on the fly into {0}, up to {1} bytes", dir, budget );
+        return new CompressionCache( dir, budget, minSize, parseMimeTypes(
+                mimeTypes == null ? DEFAULT_MIME_TYPES : mimeTypes ), threads, config.getServletName(), log );
+    }
+
+    private CompressionCache( File dir, long budget, long minSize, String[] mimeTypes, int threads,
+                              final String name, Logger log )
+    {
+        _dir = dir;
+        _budget = budget;
+        _minSize = minSize;
+        _mimeTypes = mimeTypes;
+        _log = log;
+        _executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "jnlp-compress-" + name + "-" + _count.incrementAndGet() );
+                thread.setDaemon( true );
+                thread.setPriority( Thread.MIN_PRIORITY );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * Returns a response serving the gzip compressed copy of a resource, and
+     * schedules its compression if there is no up to date copy yet
+     *
+     * @param jr     the resource to return, not a precompressed variant
+     * @param accept encodings accepted by the client
+     * @return the response, or null if the resource is to be sent as is
+     */
+    DownloadResponse getResponse( JnlpResource jr, AcceptEncoding accept )
+    {
+        String path = jr.getPath();
+        if ( path == null || accept.getQuality( DownloadResponse.GZIP_ENCODING ) <= 0 ||
+                EncodingVariant.forFileName( path ) != null || !isEligible( jr ) )
+        {
+            return null;
+        }
+
+        String key = jr.getReturnVersionId() == null ? path : path + '\n' + jr.getReturnVersionId();
+        Entry entry = _entries.get( key );
+        if ( entry != null && entry._lastModified == jr.getLastModified() )
+        {
+            if ( entry._file == null )
+            {
+                return null;
+            }
+            // Opened now, as the copy may be evicted before the response is sent
+            FileInputStream in = null;
+            try
+            {
+                in = new FileInputStream( entry._file );
+                entry._lastAccess = System.nanoTime();
+                return DownloadResponse.getOpenFileDownloadResponse( entry._file, in, jr.getMimeType(),
+                                                                     jr.getLastModified(),
+                                                                     jr.getReturnVersionId() );
+            }
+            catch ( IOException ioe )
+            {
+                close( in );
+            }
+            // Evicted in the meantime, or deleted behind our back
+            remove( key, entry );
+        }
+        else if ( entry != null )
+        {
+            remove( key, entry );
+        }
+        schedule( key, jr );
+        return null;
+    }
+
+    private boolean isEligible( JnlpResource jr )
+    {
+        long length = jr.getContentLength();
+        if ( length < _minSize || length > _budget )
+        {
+            return false;
+        }
+        String mimeType = jr.getMimeType();
+        if ( mimeType == null )
+        {
+            return false;
+        }
+        for ( String eligible : _mimeTypes )
+        {
+            if ( eligible.endsWith( "/*" )
+                    ? mimeType.startsWith( eligible.substring( 0, eligible.length() - 1 ) )
+                    : mimeType.equals( eligible ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void schedule( final String key, final JnlpResource jr )
+    {
+        if ( _pending.putIfAbsent( key, Boolean.TRUE ) != null )
+        {
+            return;
+        }
+        try
+        {
+            _executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        compress( key, jr );
+                    }
+                    catch ( IOException ioe )
+                    {
+                        _log.addDebug( "Failed to compress " + jr.getPath(), ioe );
+                    }
+                    finally
+                    {
+                        _pending.remove( key );
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            _pending.remove( key );
+        }
+    }
+
+    private void compress( String key, JnlpResource jr )
+            throws IOException
+    {
+        long start = System.nanoTime();
+        File tmp = File.createTempFile( FILE_PREFIX, ".tmp", _dir );
+        long originalSize = 0;
+        InputStream in = jr.getResource().openStream();
+        try
+        {
+            OutputStream out = new GZIPOutputStream( new FileOutputStream( tmp ), BUF_SIZE );
+            try
+            {
+                byte[] bytes = new byte[BUF_SIZE];
+                int read;
+                while ( ( read = in.read( bytes ) ) != -1 )
+                {
+                    out.write( bytes, 0, read );
+                    originalSize += read;
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            tmp.delete();
+            throw ioe;
+        }
+        finally
+        {
+            in.close();
+        }
+
+        Entry entry;
+        long size = tmp.length();
+        if ( size >= originalSize )
+        {
+            _log.addDebug( "Compression of {0} does not pay off", jr.getPath() );
+            tmp.delete();
+            entry = new Entry( jr.getLastModified(), null, 0 );
+        }
+        else
+        {
+            // The name ends with .gz for the Content-Encoding of the response
+            File file = new File( _dir, tmp.getName().replace( ".tmp", ".gz" ) );
+            if ( !tmp.renameTo( file ) )
+            {
+                tmp.delete();
+                throw new IOException( "Cannot rename " + tmp + " to " + file );
+            }
+            entry = new Entry( jr.getLastModified(), file, size );
+            if ( _log.isDebugLevel() )
+            {
+                _log.addDebug( "Compressed " + jr.getPath() + " from " + originalSize + " to " + size +
+                                       " bytes in " + ( System.nanoTime() - start ) / 1000000 + " ms" );
+            }
+        }
+        put( key, entry );
+    }
+
+    private synchronized void put( String key, Entry entry )
+    {
+        Entry previous = _entries.put( key, entry );
+        if ( previous != null )
+        {
+            discard( previous );
+        }
+        _used += entry._size;
+        // Drop the least recently used copies
+        while ( _used > _budget )
+        {
+            String lruKey = null;
+            Entry lru = null;
+            for ( Map.Entry<String, Entry> e : _entries.entrySet() )
+            {
+                Entry candidate = e.getValue();
+                if ( candidate._file != null && ( lru == null || candidate._lastAccess - lru._lastAccess < 0 ) )
+                {
+                    lruKey = e.getKey();
+                    lru = candidate;
+                }
+            }
+            if ( lru == null )
+            {
+                break;
+            }
+            _entries.remove( lruKey );
+            discard( lru );
+        }
+    }
+
+    private synchronized void remove( String key, Entry entry )
+    {
+        if ( _entries.remove( key, entry ) )
+        {
+            discard( entry );
+        }
+    }
+
+    // Called with the lock held
+    private void discard( Entry entry )
+    {
+        _used -= entry._size;
+        if ( entry._file != null )
+        {
+            entry._file.delete();
+        }
+    }
+
+    private static void close( InputStream in )
+    {
+        if ( in != null )
+        {
+            try
+            {
+                in.close();
+            }
+            catch ( IOException ioe )
+            { /* ignore */ }
+        }
+    }
+
+    void shutdown()
+    {
+        _executor.shutdownNow();
+    }
+
+    private static String[] parseMimeTypes( String spec )
+    {
+        List<String> mimeTypes = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer( spec, ", " );
+        while ( st.hasMoreTokens() )
+        {
+            mimeTypes.add( st.nextToken().toLowerCase( Locale.ENGLISH ) );
+        }
+        return mimeTypes.toArray( new String[mimeTypes.size()] );
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the blocking copy loop of downloads on a dedicated executor, from an
+ * asynchronous request, so that container threads are released during long
+ * transfers.
+ * <p>
+ * The executor is either a pool with a fixed number of platform threads, and
+ * a bounded queue of waiting downloads, or, on a JVM that has them, one
+ * virtual thread per download. Virtual threads are
+ * looked up reflectively, so the servlet keeps running on older JVMs, falling
+ * back to a pool with one platform thread per available processor.
+ * <p>
+ * This requires a Servlet 3.0 container, and the servlet to be declared with
+ * <code>&lt;async-supported&gt;true&lt;/async-supported&gt;</code>.
+ */
+class DownloadExecutor
+{
+    // Mode selecting one virtual thread per download
+    private static final String VIRTUAL = "virtual";
+
+    // Downloads waiting for a platform thread, per thread of the pool
+    private static final int QUEUED_PER_THREAD = 4;
+
+    private final ExecutorService _executor;
+
+    private final Logger _log;
+
+    /**
+     * Creates the executor for the given mode: either <code>virtual</code> or a
+     * number of platform threads.
+     *
+     * @param mode value of the download-executor init parameter
+     * @param log  logger for invalid modes and failed downloads
+     * @return the executor, or null if mode is not set or invalid
+     */
+    static DownloadExecutor create( String mode, Logger log )
+    {
+        if ( mode == null || mode.trim().length() == 0 )
+        {
+            return null;
+        }
+        mode = mode.trim();
+        ExecutorService executor;
+        if ( VIRTUAL.equalsIgnoreCase( mode ) )
+        {
+            executor = newVirtualThreadExecutor( log );
+        }
+        else
+        {
+            int threads;
+            try
+            {
+                threads = Integer.parseInt( mode );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                threads = 0;
+            }
+            if ( threads <= 0 )
+            {
+                log.addWarning( "servlet.log.warning.download-executor", mode );
+                return null;
+            }
+            executor = newPlatformThreadExecutor( threads );
+        }
+        return new DownloadExecutor( executor, log );
+    }
+
+    private static ExecutorService newPlatformThreadExecutor( int threads )
+    {
+        return new ThreadPoolExecutor( threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                       new ArrayBlockingQueue<Runnable>( threads * QUEUED_PER_THREAD ) );
+    }
+
+    private static ExecutorService newVirtualThreadExecutor( Logger log )
+    {
+        try
+        {
+            Method method = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return (ExecutorService) method.invoke( null );
+        }
+        catch ( Exception e )
+        {
+            int threads = Runtime.getRuntime().availableProcessors();
+            log.addWarning( "servlet.log.warning.novirtualthreads", System.getProperty( "java.version" ),
+                            String.valueOf( threads ) );
+            return newPlatformThreadExecutor( threads );
+        }
+    }
+
+    private DownloadExecutor( ExecutorService executor, Logger log )
+    {
+        _executor = executor;
+        _log = log;
+    }
+
+    /**
+     * Sends the response from a thread of this executor. If the request does not
+     * support asynchronous processing, or all the platform threads are busy and
+     * their queue is full, the response is sent from the calling thread.
+     *
+     * @param dres     the response to send
+     * @param request  the request, put in asynchronous mode if it supports it
+     * @param response the response to write to
+     * @param record   access log record to complete once the content is sent, may be null
+     * @throws IOException if the response cannot be sent from the calling thread
+     */
+    void submit( final DownloadResponse dres, HttpServletRequest request, final HttpServletResponse response,
+                 final AccessLog.Record record )
+            throws IOException
+    {
+        if ( !request.isAsyncSupported() )
+        {
+            dres.sendRespond( response, record );
+            return;
+        }
+        final AsyncContext asyncContext = request.startAsync();
+        // Downloads of large files to slow clients legitimately take long,
+        // stalled connections are left to the container's socket timeouts
+        asyncContext.setTimeout( 0 );
+        try
+        {
+            _executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        dres.sendRespond( response, record );
+                    }
+                    catch ( IOException | RuntimeException e )
+                    {
+                        _log.addDebug( "Download aborted", e );
+                        DownloadResponse.abort( record );
+                    }
+                    finally
+                    {
+                        asyncContext.complete();
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            try
+            {
+                dres.sendRespond( response, record );
+            }
+            finally
+            {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    void shutdown()
+    {
+        _executor.shutdown();
+    }
+}
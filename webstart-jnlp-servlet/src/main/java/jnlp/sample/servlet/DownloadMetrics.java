@@ -0,0 +1,490 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of a download servlet.
+ * <p>
+ * The metrics are always collected, as updating them is a few atomic
+ * increments. They can be exposed as an MBean of the platform MBean server,
+ * and as plain text through {@link #toText()}.
+ */
+public class DownloadMetrics
+        implements DownloadMetricsMBean
+{
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final AtomicLong _full = new AtomicLong();
+
+    private final AtomicLong _jarDiff = new AtomicLong();
+
+    private final AtomicLong _pack = new AtomicLong();
+
+    private final AtomicLong _gzip = new AtomicLong();
+
+    private final AtomicLong _encoded = new AtomicLong();
+
+    private final AtomicLong _notModified = new AtomicLong();
+
+    private final AtomicLong _head = new AtomicLong();
+
+    private final AtomicLong _error = new AtomicLong();
+
+    private final AtomicLong _bytesSent = new AtomicLong();
+
+    private final AtomicLong _inFlight = new AtomicLong();
+
+    private final AtomicLong _aborted = new AtomicLong();
+
+    private final Histogram _requestTime = new Histogram();
+
+    private final AtomicLong _jnlpCacheHits = new AtomicLong();
+
+    private final AtomicLong _jnlpCacheMisses = new AtomicLong();
+
+    private final AtomicLong _jnlpCacheEvictions = new AtomicLong();
+
+    private final AtomicLong _jarDiffCacheHits = new AtomicLong();
+
+    private final AtomicLong _jarDiffCacheMisses = new AtomicLong();
+
+    private final AtomicLong _jarDiffBytesSaved = new AtomicLong();
+
+    private final Histogram _jarDiffTime = new Histogram();
+
+    private final AtomicLong _hotCacheHits = new AtomicLong();
+
+    private final AtomicLong _hotCacheMisses = new AtomicLong();
+
+    private final AtomicLong _hotCacheEvictions = new AtomicLong();
+
+    private final AtomicLong _directoryScans = new AtomicLong();
+
+    private final AtomicLong _directoryRescans = new AtomicLong();
+
+    private ObjectName _objectName = null;
+
+    // Logger whose queue overflows are reported, if any
+    private volatile Logger _log = null;
+
+    /**
+     * Reports the events of the given logger dropped or blocked because its
+     * queue was full
+     *
+     * @param log the logger of the servlet
+     */
+    void setLogger( Logger log )
+    {
+        _log = log;
+    }
+
+    // Recording
+
+    void requestCompleted( String type, long bytes, long nanos )
+    {
+        switch ( type )
+        {
+            case AccessLog.TYPE_JARDIFF:
+                _jarDiff.incrementAndGet();
+                break;
+            case AccessLog.TYPE_PACK:
+                _pack.incrementAndGet();
+                break;
+            case AccessLog.TYPE_GZIP:
+                _gzip.incrementAndGet();
+                break;
+            case AccessLog.TYPE_NOT_MODIFIED:
+                _notModified.incrementAndGet();
+                break;
+            case AccessLog.TYPE_HEAD:
+                _head.incrementAndGet();
+                break;
+            case AccessLog.TYPE_ERROR:
+                _error.incrementAndGet();
+                break;
+            case AccessLog.TYPE_FULL:
+                _full.incrementAndGet();
+                break;
+            default:
+                // Other precompressed variants
+                _encoded.incrementAndGet();
+        }
+        _bytesSent.addAndGet( bytes );
+        _requestTime.record( nanos );
+    }
+
+    void downloadStarted()
+    {
+        _inFlight.incrementAndGet();
+    }
+
+    void downloadFinished( boolean aborted )
+    {
+        _inFlight.decrementAndGet();
+        if ( aborted )
+        {
+            _aborted.incrementAndGet();
+        }
+    }
+
+    void jnlpCacheHit()
+    {
+        _jnlpCacheHits.incrementAndGet();
+    }
+
+    /**
+     * @param evicted whether a stale entry is replaced
+     */
+    void jnlpCacheMiss( boolean evicted )
+    {
+        _jnlpCacheMisses.incrementAndGet();
+        if ( evicted )
+        {
+            _jnlpCacheEvictions.incrementAndGet();
+        }
+    }
+
+    void jarDiffCacheHit()
+    {
+        _jarDiffCacheHits.incrementAndGet();
+    }
+
+    void jarDiffCacheMiss()
+    {
+        _jarDiffCacheMisses.incrementAndGet();
+    }
+
+    /**
+     * A JarDiff has been generated
+     *
+     * @param nanos time spent generating it
+     */
+    void jarDiffGenerated( long nanos )
+    {
+        _jarDiffTime.record( nanos );
+    }
+
+    /**
+     * A JarDiff is returned instead of the full jar
+     *
+     * @param bytesSaved size of the full jar minus size of the JarDiff
+     */
+    void jarDiffSent( long bytesSaved )
+    {
+        _jarDiffBytesSaved.addAndGet( bytesSaved );
+    }
+
+    void hotCacheHit()
+    {
+        _hotCacheHits.incrementAndGet();
+    }
+
+    void hotCacheMiss()
+    {
+        _hotCacheMisses.incrementAndGet();
+    }
+
+    void hotCacheEviction()
+    {
+        _hotCacheEvictions.incrementAndGet();
+    }
+
+    void directoryScanned()
+    {
+        _directoryScans.incrementAndGet();
+    }
+
+    void directoryRescanned()
+    {
+        _directoryRescans.incrementAndGet();
+    }
+
+    // Exposure
+
+    /**
+     * Registers these metrics in the platform MBean server
+     *
+     * @param contextPath context path of the web application, part of the MBean name
+     * @param servletName name of the servlet, part of the MBean name
+     * @throws JMException if the registration failed
+     */
+    synchronized void register( String contextPath, String servletName )
+            throws JMException
+    {
+        ObjectName name = new ObjectName( "jnlp.sample.servlet:type=DownloadMetrics,context=" +
+                                                  ObjectName.quote( contextPath ) + ",name=" +
+                                                  ObjectName.quote( servletName ) );
+        ManagementFactory.getPlatformMBeanServer().registerMBean( this, name );
+        _objectName = name;
+    }
+
+    synchronized void unregister()
+            throws JMException
+    {
+        if ( _objectName != null )
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if ( server.isRegistered( _objectName ) )
+            {
+                server.unregisterMBean( _objectName );
+            }
+            _objectName = null;
+        }
+    }
+
+    /**
+     * Returns the metrics as text, one <code>name value</code> pair per line
+     *
+     * @return the metrics, in a format scrapers of plain text metrics can read
+     */
+    public String toText()
+    {
+        StringBuilder sb = new StringBuilder( 1024 );
+        appendLine( sb, "jnlp_requests_total{type=\"full\"}", getFullResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"jardiff\"}", getJarDiffResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"pack\"}", getPackResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"gz\"}", getGzipResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"encoded\"}", getEncodedResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"304\"}", getNotModifiedResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"head\"}", getHeadResponses() );
+        appendLine( sb, "jnlp_requests_total{type=\"error\"}", getErrorResponses() );
+        appendLine( sb, "jnlp_bytes_sent_total", getBytesSent() );
+        appendLine( sb, "jnlp_downloads_in_flight", getInFlightDownloads() );
+        appendLine( sb, "jnlp_downloads_aborted_total", getAbortedDownloads() );
+        appendLine( sb, "jnlp_request_seconds{quantile=\"0.5\"}", _requestTime.getPercentile( 50 ) / 1e9 );
+        appendLine( sb, "jnlp_request_seconds{quantile=\"0.99\"}", _requestTime.getPercentile( 99 ) / 1e9 );
+        appendLine( sb, "jnlp_request_seconds_max", _requestTime.getMax() / 1e9 );
+        appendLine( sb, "jnlp_request_seconds_sum", _requestTime.getSum() / 1e9 );
+        appendLine( sb, "jnlp_request_seconds_count", _requestTime.getCount() );
+        appendLine( sb, "jnlp_cache_hits_total{cache=\"jnlp\"}", getJnlpCacheHits() );
+        appendLine( sb, "jnlp_cache_misses_total{cache=\"jnlp\"}", getJnlpCacheMisses() );
+        appendLine( sb, "jnlp_cache_evictions_total{cache=\"jnlp\"}", getJnlpCacheEvictions() );
+        appendLine( sb, "jnlp_cache_hits_total{cache=\"jardiff\"}", getJarDiffCacheHits() );
+        appendLine( sb, "jnlp_cache_misses_total{cache=\"jardiff\"}", getJarDiffCacheMisses() );
+        appendLine( sb, "jnlp_cache_hits_total{cache=\"hot\"}", getHotCacheHits() );
+        appendLine( sb, "jnlp_cache_misses_total{cache=\"hot\"}", getHotCacheMisses() );
+        appendLine( sb, "jnlp_cache_evictions_total{cache=\"hot\"}", getHotCacheEvictions() );
+        appendLine( sb, "jnlp_jardiff_bytes_saved_total", getJarDiffBytesSaved() );
+        appendLine( sb, "jnlp_jardiff_seconds{quantile=\"0.99\"}", _jarDiffTime.getPercentile( 99 ) / 1e9 );
+        appendLine( sb, "jnlp_jardiff_seconds_max", _jarDiffTime.getMax() / 1e9 );
+        appendLine( sb, "jnlp_jardiff_seconds_sum", _jarDiffTime.getSum() / 1e9 );
+        appendLine( sb, "jnlp_jardiff_seconds_count", _jarDiffTime.getCount() );
+        appendLine( sb, "jnlp_directory_scans_total", getDirectoryScans() );
+        appendLine( sb, "jnlp_directory_rescans_total", getDirectoryRescans() );
+        appendLine( sb, "jnlp_log_events_dropped_total", getLogEventsDropped() );
+        appendLine( sb, "jnlp_log_events_blocked_total", getLogEventsBlocked() );
+        return sb.toString();
+    }
+
+    private static void appendLine( StringBuilder sb, String name, long value )
+    {
+        sb.append( name ).append( ' ' ).append( value ).append( '\n' );
+    }
+
+    private static void appendLine( StringBuilder sb, String name, double value )
+    {
+        sb.append( name ).append( ' ' ).append( value ).append( '\n' );
+    }
+
+    // DownloadMetricsMBean
+
+    public long getRequestCount()
+    {
+        return _requestTime.getCount();
+    }
+
+    public long getFullResponses()
+    {
+        return _full.get();
+    }
+
+    public long getJarDiffResponses()
+    {
+        return _jarDiff.get();
+    }
+
+    public long getPackResponses()
+    {
+        return _pack.get();
+    }
+
+    public long getGzipResponses()
+    {
+        return _gzip.get();
+    }
+
+    public long getEncodedResponses()
+    {
+        return _encoded.get();
+    }
+
+    public long getNotModifiedResponses()
+    {
+        return _notModified.get();
+    }
+
+    public long getHeadResponses()
+    {
+        return _head.get();
+    }
+
+    public long getErrorResponses()
+    {
+        return _error.get();
+    }
+
+    public long getBytesSent()
+    {
+        return _bytesSent.get();
+    }
+
+    public long getInFlightDownloads()
+    {
+        return _inFlight.get();
+    }
+
+    public long getAbortedDownloads()
+    {
+        return _aborted.get();
+    }
+
+    public double getRequestMeanMillis()
+    {
+        return _requestTime.getMean() / NANOS_PER_MILLI;
+    }
+
+    public double getRequestP50Millis()
+    {
+        return _requestTime.getPercentile( 50 ) / NANOS_PER_MILLI;
+    }
+
+    public double getRequestP99Millis()
+    {
+        return _requestTime.getPercentile( 99 ) / NANOS_PER_MILLI;
+    }
+
+    public double getRequestMaxMillis()
+    {
+        return _requestTime.getMax() / NANOS_PER_MILLI;
+    }
+
+    public long getJnlpCacheHits()
+    {
+        return _jnlpCacheHits.get();
+    }
+
+    public long getJnlpCacheMisses()
+    {
+        return _jnlpCacheMisses.get();
+    }
+
+    public long getJnlpCacheEvictions()
+    {
+        return _jnlpCacheEvictions.get();
+    }
+
+    public long getJarDiffCacheHits()
+    {
+        return _jarDiffCacheHits.get();
+    }
+
+    public long getJarDiffCacheMisses()
+    {
+        return _jarDiffCacheMisses.get();
+    }
+
+    public long getJarDiffBytesSaved()
+    {
+        return _jarDiffBytesSaved.get();
+    }
+
+    public double getJarDiffMeanMillis()
+    {
+        return _jarDiffTime.getMean() / NANOS_PER_MILLI;
+    }
+
+    public double getJarDiffP99Millis()
+    {
+        return _jarDiffTime.getPercentile( 99 ) / NANOS_PER_MILLI;
+    }
+
+    public double getJarDiffMaxMillis()
+    {
+        return _jarDiffTime.getMax() / NANOS_PER_MILLI;
+    }
+
+    public long getHotCacheHits()
+    {
+        return _hotCacheHits.get();
+    }
+
+    public long getHotCacheMisses()
+    {
+        return _hotCacheMisses.get();
+    }
+
+    public long getHotCacheEvictions()
+    {
+        return _hotCacheEvictions.get();
+    }
+
+    public long getDirectoryScans()
+    {
+        return _directoryScans.get();
+    }
+
+    public long getDirectoryRescans()
+    {
+        return _directoryRescans.get();
+    }
+
+    public long getLogEventsDropped()
+    {
+        Logger log = _log;
+        return log == null ? 0 : log.getDroppedEvents();
+    }
+
+    public long getLogEventsBlocked()
+    {
+        Logger log = _log;
+        return log == null ? 0 : log.getBlockedEvents();
+    }
+}
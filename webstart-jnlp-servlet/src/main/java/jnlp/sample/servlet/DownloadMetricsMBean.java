@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+/**
+ * Management interface of the {@link DownloadMetrics} of a download servlet.
+ * Durations are in milliseconds.
+ */
+public interface DownloadMetricsMBean
+{
+    long getRequestCount();
+
+    long getFullResponses();
+
+    long getJarDiffResponses();
+
+    long getPackResponses();
+
+    long getGzipResponses();
+
+    long getEncodedResponses();
+
+    long getNotModifiedResponses();
+
+    long getHeadResponses();
+
+    long getErrorResponses();
+
+    long getBytesSent();
+
+    long getInFlightDownloads();
+
+    long getAbortedDownloads();
+
+    double getRequestMeanMillis();
+
+    double getRequestP50Millis();
+
+    double getRequestP99Millis();
+
+    double getRequestMaxMillis();
+
+    long getJnlpCacheHits();
+
+    long getJnlpCacheMisses();
+
+    long getJnlpCacheEvictions();
+
+    long getJarDiffCacheHits();
+
+    long getJarDiffCacheMisses();
+
+    long getJarDiffBytesSaved();
+
+    double getJarDiffMeanMillis();
+
+    double getJarDiffP99Millis();
+
+    double getJarDiffMaxMillis();
+
+    long getHotCacheHits();
+
+    long getHotCacheMisses();
+
+    long getHotCacheEvictions();
+
+    long getDirectoryScans();
+
+    long getDirectoryRescans();
+
+    long getLogEventsDropped();
+
+    long getLogEventsBlocked();
+}
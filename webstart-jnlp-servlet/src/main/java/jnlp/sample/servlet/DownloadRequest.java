@@ -36,9 +36,10 @@
 
 package jnlp.sample.servlet;
 
+import jnlp.sample.jardiff.JarDiffConstants;
+
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -63,6 +64,8 @@ public class DownloadRequest
 
     private static final String ARG_KNOWN_PLATFORMS = "known-platforms";
 
+    private static final String ARG_JARDIFF_VERSION = "jardiff-version";
+
     private static final String TEST_JRE = "TestJRE";
 
     private String _path = null;
@@ -71,11 +74,8 @@ public class DownloadRequest
 
     private String _currentVersionId = null;
 
-    private String[] _os = null;
-
-    private String[] _arch = null;
-
-    private String[] _locale = null;
+    // The platform arguments are only split when asked for
+    private PlatformKey _platformKey = null;
 
     private String[] _knownPlatforms = null;
 
@@ -91,9 +91,17 @@ public class DownloadRequest
 
     private HttpServletRequest _httpRequest = null;
 
+    private ClientInfo _clientInfo = null;
+
+    // Latest JarDiff format the client can apply
+    private int _jarDiffVersion = JarDiffConstants.VERSION_1;
+
     // HTTP Compression RFC 2616 : Standard headers
     public static final String ACCEPT_ENCODING = "accept-encoding";
 
+    // Alternative to the jardiff-version argument
+    public static final String HEADER_JARDIFF_VERSION = "x-java-jardiff-version";
+
     // Contruct Request object based on HTTP request
     public DownloadRequest( HttpServletRequest request )
     {
@@ -120,18 +128,9 @@ public class DownloadRequest
             _path = "/"; // No path given
         }
         _path = _path.trim();
-        if ( _context != null && !_path.endsWith( "/" ) )
+        if ( _context != null && !_path.endsWith( "/" ) && PathKindCache.getInstance( _context ).isDirectory( _path ) )
         {
-            String realPath = _context.getRealPath( _path );
-            // fix for 4474021 - getRealPath might returns NULL
-            if ( realPath != null )
-            {
-                File f = new File( realPath );
-                if ( f.exists() && f.isDirectory() )
-                {
-                    _path += "/";
-                }
-            }
+            _path += "/";
         }
         // Append default file for a directory
         if ( _path.endsWith( "/" ) )
@@ -140,10 +139,6 @@ public class DownloadRequest
         }
         _version = getParameter( request, ARG_VERSION_ID );
         _currentVersionId = getParameter( request, ARG_CURRENT_VERSION_ID );
-        _os = getParameterList( request, ARG_OS );
-        _arch = getParameterList( request, ARG_ARCH );
-        _locale = getParameterList( request, ARG_LOCALE );
-        _knownPlatforms = getParameterList( request, ARG_KNOWN_PLATFORMS );
         String platformVersion = getParameter( request, ARG_PLATFORM_VERSION_ID );
         _isPlatformRequest = ( platformVersion != null );
         if ( _isPlatformRequest )
@@ -152,6 +147,27 @@ public class DownloadRequest
         }
         _query = request.getQueryString();
         _testJRE = getParameter( request, TEST_JRE );
+        String jarDiffVersion = getParameter( request, ARG_JARDIFF_VERSION );
+        if ( jarDiffVersion == null )
+        {
+            jarDiffVersion = request.getHeader( HEADER_JARDIFF_VERSION );
+        }
+        _jarDiffVersion = parseJarDiffVersion( jarDiffVersion );
+    }
+
+    /**
+     * Creates a request made by the servlet itself, for the given resource
+     * and platform, without an HTTP request
+     */
+    DownloadRequest( ServletContext context, String path, String version, String currentVersionId,
+                     PlatformKey platformKey )
+    {
+        _context = context;
+        _clientInfo = ClientInfo.forUserAgent( null );
+        _path = path;
+        _version = version;
+        _currentVersionId = currentVersionId;
+        _platformKey = platformKey;
     }
 
     /**
@@ -163,19 +179,59 @@ public class DownloadRequest
         _encoding = dreq._encoding;
         _context = dreq._context;
         _httpRequest = dreq._httpRequest;
+        _clientInfo = dreq._clientInfo;
         _path = dreq._path;
         _version = dreq._currentVersionId;
         _currentVersionId = null;
-        _os = dreq._os;
-        _arch = dreq._arch;
-        _locale = dreq._locale;
-        _knownPlatforms = dreq._knownPlatforms;
+        _platformKey = dreq.getPlatformKey();
+        _knownPlatforms = dreq.getKnownPlatforms();
         _isPlatformRequest = dreq._isPlatformRequest;
         _query = dreq._query;
         _testJRE = dreq._testJRE;
+        _jarDiffVersion = dreq._jarDiffVersion;
     }
 
 
+    /**
+     * Returns a DownloadRequest for another resource, made by the same client
+     * with the same platform arguments
+     */
+    private DownloadRequest( DownloadRequest dreq, String path, String version, String currentVersionId )
+    {
+        _encoding = dreq._encoding;
+        _context = dreq._context;
+        _httpRequest = dreq._httpRequest;
+        _clientInfo = dreq._clientInfo;
+        _path = path;
+        _version = version;
+        _currentVersionId = currentVersionId;
+        _platformKey = dreq.getPlatformKey();
+        _knownPlatforms = dreq.getKnownPlatforms();
+        _isPlatformRequest = false;
+        _query = null;
+        _testJRE = dreq._testJRE;
+        _jarDiffVersion = dreq._jarDiffVersion;
+    }
+
+    /**
+     * Returns the JarDiff format to send for the version asked for, the
+     * latest one known to this servlet if a later one is asked for
+     */
+    private static int parseJarDiffVersion( String version )
+    {
+        if ( version != null )
+        {
+            try
+            {
+                return Math.max( JarDiffConstants.VERSION_1,
+                                 Math.min( Integer.parseInt( version.trim() ), JarDiffConstants.VERSION_2 ) );
+            }
+            catch ( NumberFormatException nfe )
+            { /* not a version */ }
+        }
+        return JarDiffConstants.VERSION_1;
+    }
+
     private String getParameter( HttpServletRequest req, String key )
     {
         String res = req.getParameter( key );
@@ -185,26 +241,31 @@ public class DownloadRequest
     /**
      * Converts a space delimitered string to a list of strings
      */
-    static private String[] getStringList( String str )
+    static String[] getStringList( String str )
     {
         if ( str == null )
         {
             return null;
         }
+        int length = str.length();
+        if ( str.indexOf( ' ' ) == -1 && str.indexOf( '\\' ) == -1 )
+        {
+            // A single entry, the common case
+            return length == 0 ? null : new String[]{ str };
+        }
         List<String> list = new ArrayList<>();
+        StringBuilder sb = new StringBuilder( length );
         int i = 0;
-        int length = str.length();
-        StringBuffer sb = null;
         while ( i < length )
         {
             char ch = str.charAt( i );
             if ( ch == ' ' )
             {
                 // A space was hit. Add string to list
-                if ( sb != null )
+                if ( sb.length() > 0 )
                 {
                     list.add( sb.toString() );
-                    sb = null;
+                    sb.setLength( 0 );
                 }
             }
             else if ( ch == '\\' )
@@ -212,26 +273,17 @@ public class DownloadRequest
                 // It is a delimiter. Add next character
                 if ( i + 1 < length )
                 {
-                    ch = str.charAt( ++i );
-                    if ( sb == null )
-                    {
-                        sb = new StringBuffer();
-                    }
-                    sb.append( ch );
+                    sb.append( str.charAt( ++i ) );
                 }
             }
             else
             {
-                if ( sb == null )
-                {
-                    sb = new StringBuffer();
-                }
                 sb.append( ch );
             }
             i++; // Next character
         }
         // Make sure to add the last part to the list too
-        if ( sb != null )
+        if ( sb.length() > 0 )
         {
             list.add( sb.toString() );
         }
@@ -239,15 +291,7 @@ public class DownloadRequest
         {
             return null;
         }
-        String[] results = new String[list.size()];
-        return list.toArray( results );
-    }
-
-    /* Split parameter at spaces. Convert '\ ' insto a space */
-    private String[] getParameterList( HttpServletRequest req, String key )
-    {
-        String res = req.getParameter( key );
-        return ( res == null ) ? null : getStringList( res.trim() );
+        return list.toArray( new String[list.size()] );
     }
 
     // Query
@@ -283,24 +327,50 @@ public class DownloadRequest
 
     public String[] getOS()
     {
-        return _os;
+        return getPlatformKey().getOS();
     }
 
     public String[] getArch()
     {
-        return _arch;
+        return getPlatformKey().getArch();
     }
 
     public String[] getLocale()
     {
-        return _locale;
+        return getPlatformKey().getLocale();
     }
 
     public String[] getKnownPlatforms()
     {
+        getPlatformKey();
         return _knownPlatforms;
     }
 
+    /**
+     * Returns the os, arch and locale arguments, as a key shared by the
+     * requests with the same arguments
+     */
+    PlatformKey getPlatformKey()
+    {
+        if ( _platformKey == null )
+        {
+            _platformKey = PlatformKey.valueOf( getParameter( _httpRequest, ARG_OS ),
+                                                getParameter( _httpRequest, ARG_ARCH ),
+                                                getParameter( _httpRequest, ARG_LOCALE ) );
+            _knownPlatforms = PlatformKey.getList( getParameter( _httpRequest, ARG_KNOWN_PLATFORMS ) );
+        }
+        return _platformKey;
+    }
+
+    /**
+     * Returns the JarDiff format to send, {@link JarDiffConstants#VERSION_1}
+     * unless the client asked for a later one
+     */
+    public int getJarDiffVersion()
+    {
+        return _jarDiffVersion;
+    }
+
     public boolean isPlatformRequest()
     {
         return _isPlatformRequest;
@@ -311,6 +381,19 @@ public class DownloadRequest
         return _httpRequest;
     }
 
+    /**
+     * Returns the classification of the client, based on its User-Agent header.
+     * It is computed the first time it is asked for.
+     */
+    public ClientInfo getClientInfo()
+    {
+        if ( _clientInfo == null )
+        {
+            _clientInfo = ClientInfo.forUserAgent( _httpRequest.getHeader( "User-Agent" ) );
+        }
+        return _clientInfo;
+    }
+
     /**
      * Returns a DownloadRequest for the currentVersionId, that can be used
      * to lookup the existing cached version
@@ -320,14 +403,23 @@ public class DownloadRequest
         return new DownloadRequest( this );
     }
 
+    /**
+     * Returns a DownloadRequest for the given resource, with the client and
+     * platform arguments of this request
+     */
+    DownloadRequest getResourceRequest( String path, String version, String currentVersionId )
+    {
+        return new DownloadRequest( this, path, version, currentVersionId );
+    }
+
     // Debug
     public String toString()
     {
         return "DownloadRequest[path=" + _path + showEntry( " encoding=", _encoding ) + showEntry( " query=", _query ) +
                 showEntry( " TestJRE=", _testJRE ) + showEntry( " version=", _version ) +
-                showEntry( " currentVersionId=", _currentVersionId ) + showEntry( " os=", _os ) +
-                showEntry( " arch=", _arch ) + showEntry( " locale=", _locale ) +
-                showEntry( " knownPlatforms=", _knownPlatforms ) + " isPlatformRequest=" + _isPlatformRequest + "]";
+                showEntry( " currentVersionId=", _currentVersionId ) + showEntry( " os=", getOS() ) +
+                showEntry( " arch=", getArch() ) + showEntry( " locale=", getLocale() ) +
+                showEntry( " knownPlatforms=", getKnownPlatforms() ) + " isPlatformRequest=" + _isPlatformRequest + "]";
     }
 
     private String showEntry( String msg, String value )
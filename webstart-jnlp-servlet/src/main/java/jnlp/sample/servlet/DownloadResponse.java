@@ -36,6 +36,7 @@
 
 package jnlp.sample.servlet;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
@@ -45,7 +46,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Date;
 import java.util.MissingResourceException;
 
@@ -59,6 +65,8 @@ abstract public class DownloadResponse
 
     private static final String HEADER_JNLP_VERSION = "x-java-jnlp-version-id";
 
+    private static final String HEADER_VARY = "Vary";
+
     private static final String JNLP_ERROR_MIMETYPE = "application/x-java-jnlp-error";
 
     public static final int STS_00_OK = 0;
@@ -102,6 +110,89 @@ abstract public class DownloadResponse
     abstract void sendRespond( HttpServletResponse response )
             throws IOException;
 
+    /**
+     * Post information to an HttpResponse, and complete the access log record
+     * with the number of content bytes sent.
+     *
+     * @param response the response to send
+     * @param record   access log record of the request, may be null
+     * @throws IOException if the response cannot be sent
+     */
+    void sendRespond( HttpServletResponse response, AccessLog.Record record )
+            throws IOException
+    {
+        sendRespond( response );
+        complete( record, 0 );
+    }
+
+    /**
+     * Post information to an HttpResponse, writing the content from an
+     * asynchronous request, if the response has any. Responses without a
+     * content are sent as in {@link #sendRespond(HttpServletResponse, AccessLog.Record)}.
+     *
+     * @param request  the request, put in asynchronous mode if it supports it
+     * @param response the response to send
+     * @param log      logger for failed downloads
+     * @param record   access log record of the request, may be null
+     * @throws IOException if the response cannot be sent
+     */
+    void sendRespondAsync( HttpServletRequest request, HttpServletResponse response, Logger log,
+                           AccessLog.Record record )
+            throws IOException
+    {
+        sendRespond( response, record );
+    }
+
+    /**
+     * Post information to an HttpResponse, writing the content from a thread of
+     * the given executor, if the response has any. Responses without a content
+     * are sent as in {@link #sendRespond(HttpServletResponse, AccessLog.Record)}.
+     *
+     * @param request  the request, put in asynchronous mode if it supports it
+     * @param response the response to send
+     * @param executor the executor to write the content from
+     * @param record   access log record of the request, may be null
+     * @throws IOException if the response cannot be sent
+     */
+    void sendRespond( HttpServletRequest request, HttpServletResponse response, DownloadExecutor executor,
+                      AccessLog.Record record )
+            throws IOException
+    {
+        sendRespond( response, record );
+    }
+
+    static void complete( AccessLog.Record record, long bytes )
+    {
+        if ( record != null )
+        {
+            record.complete( bytes );
+        }
+    }
+
+    static void abort( AccessLog.Record record, long bytes )
+    {
+        if ( record != null )
+        {
+            record.abort( bytes );
+        }
+    }
+
+    static void abort( AccessLog.Record record )
+    {
+        if ( record != null )
+        {
+            record.abort();
+        }
+    }
+
+    static void sent( AccessLog.Record record, long bytes )
+    {
+        if ( record != null )
+        {
+            record.sent( bytes );
+        }
+    }
+
     /**
      * Factory methods for error responses
      *
@@ -131,20 +222,65 @@ abstract public class DownloadResponse
         return new NotModifiedResponse();
     }
 
+    static boolean isNotModifiedResponse( DownloadResponse dres )
+    {
+        return dres instanceof NotModifiedResponse;
+    }
+
+    /**
+     * Content encoding a response is sent with, or null if it is sent as is
+     */
+    static String getResponseEncoding( DownloadResponse dres )
+    {
+        return dres instanceof FileDownloadResponse ? ( (FileDownloadResponse) dres ).getEncoding() : null;
+    }
+
     static DownloadResponse getHeadRequestResponse( String mimeType, String versionId, long lastModified,
-                                                    int contentLength )
+                                                    long contentLength )
     {
         return new HeadRequestResponse( mimeType, versionId, lastModified, contentLength );
     }
 
     static DownloadResponse getFileDownloadResponse( byte[] content, String mimeType, long timestamp, String versionId )
     {
-        return new ByteArrayFileDownloadResponse( content, mimeType, versionId, timestamp );
+        return new ByteArrayFileDownloadResponse( content, mimeType, versionId, timestamp, null );
+    }
+
+    /**
+     * Returns a response for content held in memory
+     *
+     * @param content   the content to send
+     * @param mimeType  MIME type of the content
+     * @param timestamp last modification time of the content
+     * @param versionId version-id to return in the response header, may be null
+     * @param fileName  name of the file the content stands for, setting its content encoding
+     * @return the response
+     */
+    static DownloadResponse getFileDownloadResponse( byte[] content, String mimeType, long timestamp, String versionId,
+                                                     String fileName )
+    {
+        return new ByteArrayFileDownloadResponse( content, mimeType, versionId, timestamp, fileName );
     }
 
     static DownloadResponse getFileDownloadResponse( URL resource, String mimeType, long timestamp, String versionId )
     {
-        return new ResourceFileDownloadResponse( resource, mimeType, versionId, timestamp );
+        return new ResourceFileDownloadResponse( resource, mimeType, versionId, timestamp, -1 );
+    }
+
+    /**
+     * Returns a response for a resource of known length
+     *
+     * @param resource      URL of the resource to send
+     * @param mimeType      MIME type of the resource
+     * @param timestamp     last modification time of the resource
+     * @param versionId     version-id to return in the response header, may be null
+     * @param contentLength length of the resource, or -1 to get it from the resource
+     * @return the response
+     */
+    static DownloadResponse getFileDownloadResponse( URL resource, String mimeType, long timestamp, String versionId,
+                                                     long contentLength )
+    {
+        return new ResourceFileDownloadResponse( resource, mimeType, versionId, timestamp, contentLength );
     }
 
     static DownloadResponse getFileDownloadResponse( File file, String mimeType, long timestamp, String versionId )
@@ -152,6 +288,91 @@ abstract public class DownloadResponse
         return new DiskFileDownloadResponse( file, mimeType, versionId, timestamp );
     }
 
+    /**
+     * Returns a response for a file whose content depends on the given request headers
+     *
+     * @param file      the JarDiff file to send
+     * @param mimeType  MIME type of the file
+     * @param timestamp last modification time of the file
+     * @param versionId version-id to return in the response header, may be null
+     * @param vary      value of the Vary header
+     * @return the response
+     */
+    static DownloadResponse getFileDownloadResponse( File file, String mimeType, long timestamp, String versionId,
+                                                     String vary )
+    {
+        DiskFileDownloadResponse response = new DiskFileDownloadResponse( file, mimeType, versionId, timestamp );
+        response._vary = vary;
+        return response;
+    }
+
+    /**
+     * Returns a response for a file that is already open, so that it can be sent
+     * even if the file is deleted in the meantime. The response can only be sent
+     * once, and closes the file when sent.
+     *
+     * @param file      the file, whose name gives the content encoding
+     * @param in        the open file
+     * @param mimeType  mime type of the content
+     * @param timestamp last modification time of the resource
+     * @param versionId version of the resource, or null
+     * @return the response
+     * @throws IOException if the size of the file cannot be read
+     */
+    static DownloadResponse getOpenFileDownloadResponse( File file, FileInputStream in, String mimeType,
+                                                         long timestamp, String versionId )
+            throws IOException
+    {
+        return new OpenFileDownloadResponse( file, in, mimeType, versionId, timestamp );
+    }
+
+    /**
+     * Returns a response served from memory, which may be sent any number of times
+     *
+     * @param content         the content, from its position to its limit, never modified
+     * @param mimeType        MIME type of the content
+     * @param timestamp       last modification time of the content
+     * @param versionId       version-id to return in the response header, may be null
+     * @param fileName        name of the file the content was read from, for its content encoding
+     * @param lastModifiedHdr timestamp formatted as an HTTP date
+     * @return the response
+     */
+    static DownloadResponse getMemoryDownloadResponse( ByteBuffer content, String mimeType, long timestamp,
+                                                       String versionId, String fileName, String lastModifiedHdr )
+    {
+        return new MemoryFileDownloadResponse( content, mimeType, versionId, timestamp, fileName, lastModifiedHdr );
+    }
+
+    /**
+     * Sets the Content-Length header. Lengths beyond the range of an int, for
+     * files over 2 GB, are set as a plain header, which works on containers older
+     * than Servlet 3.1.
+     */
+    static void setContentLength( HttpServletResponse response, long contentLength )
+    {
+        if ( contentLength < 0 )
+        {
+            return;
+        }
+        if ( contentLength <= Integer.MAX_VALUE )
+        {
+            response.setContentLength( (int) contentLength );
+        }
+        else
+        {
+            response.setHeader( "Content-Length", Long.toString( contentLength ) );
+        }
+    }
+
+    /**
+     * Content encoding of a file, from its extension
+     */
+    static String getContentEncoding( String fileName )
+    {
+        EncodingVariant variant = EncodingVariant.forFileName( fileName );
+        return variant == null ? null : variant.getEncoding();
+    }
+
     //
     // Private classes implementing the various types
     //
@@ -195,9 +416,9 @@ abstract public class DownloadResponse
 
         private long _lastModified;
 
-        private int _contentLength;
+        private long _contentLength;
 
-        HeadRequestResponse( String mimeType, String versionId, long lastModified, int contentLength )
+        HeadRequestResponse( String mimeType, String versionId, long lastModified, long contentLength )
         {
             _mimeType = mimeType;
             _versionId = versionId;
@@ -213,7 +434,7 @@ abstract public class DownloadResponse
         {
             // Set header information
             response.setContentType( _mimeType );
-            response.setContentLength( _contentLength );
+            setContentLength( response, _contentLength );
             if ( _versionId != null )
             {
                 response.setHeader( HEADER_JNLP_VERSION, _versionId );
@@ -252,6 +473,14 @@ abstract public class DownloadResponse
             pw.println( _message );
         }
 
+        /**
+         * @return the error code followed by its description
+         */
+        String getMessage()
+        {
+            return _message;
+        }
+
         ;
 
         public String toString()
@@ -271,6 +500,9 @@ abstract public class DownloadResponse
 
         private String _fileName;
 
+        // Request headers the content depends on
+        String _vary = DownloadRequest.ACCEPT_ENCODING;
+
         FileDownloadResponse( String mimeType, String versionId, long lastModified )
         {
             _mimeType = mimeType;
@@ -306,47 +538,68 @@ abstract public class DownloadResponse
             return _lastModified;
         }
 
-        abstract int getContentLength()
+        String getEncoding()
+        {
+            return _fileName == null ? null : getContentEncoding( _fileName );
+        }
+
+        abstract long getContentLength()
                 throws IOException;
 
         abstract InputStream getContent()
                 throws IOException;
 
+        /**
+         * Content as a channel. Subclasses backed by a file return a FileChannel.
+         */
+        ReadableByteChannel getChannel()
+                throws IOException
+        {
+            return Channels.newChannel( getContent() );
+        }
+
         /**
          * Post information to an HttpResponse
          */
         public void sendRespond( HttpServletResponse response )
                 throws IOException
         {
-            // Set header information
-            response.setContentType( getMimeType() );
-            response.setContentLength( getContentLength() );
-            if ( getVersionId() != null )
-            {
-                response.setHeader( HEADER_JNLP_VERSION, getVersionId() );
-            }
-            if ( getLastModified() != 0 )
-            {
-                response.setDateHeader( HEADER_LASTMOD, getLastModified() );
-            }
-            if ( _fileName != null )
-            {
+            sendHeaders( response );
+            sendContent( response, null );
+        }
 
-                if ( _fileName.endsWith( ".pack.gz" ) )
-                {
-                    response.setHeader( CONTENT_ENCODING, PACK200_GZIP_ENCODING );
-                }
-                else if ( _fileName.endsWith( ".gz" ) )
-                {
-                    response.setHeader( CONTENT_ENCODING, GZIP_ENCODING );
-                }
-                else
-                {
-                    response.setHeader( CONTENT_ENCODING, null );
-                }
-            }
+        void sendRespond( HttpServletResponse response, AccessLog.Record record )
+                throws IOException
+        {
+            sendHeaders( response );
+            complete( record, sendContent( response, record ) );
+        }
 
-            // Send contents
+        void sendRespondAsync( HttpServletRequest request, HttpServletResponse response, Logger log,
+                               AccessLog.Record record )
+                throws IOException
+        {
+            sendHeaders( response );
+            AsyncDownload.start( request, response, getChannel(), log, record );
+        }
+
+        void sendRespond( HttpServletRequest request, HttpServletResponse response, DownloadExecutor executor,
+                          AccessLog.Record record )
+                throws IOException
+        {
+            executor.submit( this, request, response, record );
+        }
+
+        /**
+         * Send contents
+         *
+         * @param record access log record counting the bytes written, may be null
+         * @return the number of bytes sent
+         */
+        long sendContent( HttpServletResponse response, AccessLog.Record record )
+                throws IOException
+        {
+            long total = 0;
             InputStream in = getContent();
             OutputStream out = response.getOutputStream();
             try
@@ -356,6 +609,8 @@ abstract public class DownloadResponse
                 while ( ( read = in.read( bytes ) ) != -1 )
                 {
                     out.write( bytes, 0, read );
+                    sent( record, read );
+                    total += read;
                 }
             }
             finally
@@ -365,6 +620,28 @@ abstract public class DownloadResponse
                     in.close();
                 }
             }
+            return total;
+        }
+
+        void sendHeaders( HttpServletResponse response )
+                throws IOException
+        {
+            // Set header information
+            response.setContentType( getMimeType() );
+            setContentLength( response, getContentLength() );
+            if ( getVersionId() != null )
+            {
+                response.setHeader( HEADER_JNLP_VERSION, getVersionId() );
+            }
+            if ( getLastModified() != 0 )
+            {
+                response.setDateHeader( HEADER_LASTMOD, getLastModified() );
+            }
+            if ( _fileName != null )
+            {
+                response.setHeader( CONTENT_ENCODING, getContentEncoding( _fileName ) );
+                response.setHeader( HEADER_VARY, _vary );
+            }
         }
 
         protected String getArgString()
@@ -386,13 +663,14 @@ abstract public class DownloadResponse
     {
         private byte[] _content;
 
-        ByteArrayFileDownloadResponse( byte[] content, String mimeType, String versionId, long lastModified )
+        ByteArrayFileDownloadResponse( byte[] content, String mimeType, String versionId, long lastModified,
+                                       String fileName )
         {
-            super( mimeType, versionId, lastModified );
+            super( mimeType, versionId, lastModified, fileName );
             _content = content;
         }
 
-        int getContentLength()
+        long getContentLength()
         {
             return _content.length;
         }
@@ -413,15 +691,23 @@ abstract public class DownloadResponse
     {
         URL _url;
 
-        ResourceFileDownloadResponse( URL url, String mimeType, String versionId, long lastModified )
+        long _contentLength;
+
+        ResourceFileDownloadResponse( URL url, String mimeType, String versionId, long lastModified,
+                                      long contentLength )
         {
             super( mimeType, versionId, lastModified, url.toString() );
             _url = url;
+            _contentLength = contentLength;
         }
 
-        int getContentLength()
+        long getContentLength()
                 throws IOException
         {
+            if ( _contentLength >= 0 )
+            {
+                return _contentLength;
+            }
             return _url.openConnection().getContentLength();
         }
 
@@ -431,6 +717,21 @@ abstract public class DownloadResponse
             return _url.openConnection().getInputStream();
         }
 
+        ReadableByteChannel getChannel()
+                throws IOException
+        {
+            if ( "file".equals( _url.getProtocol() ) )
+            {
+                try
+                {
+                    return new FileInputStream( new File( _url.toURI() ) ).getChannel();
+                }
+                catch ( URISyntaxException e )
+                { /* fall back to the stream */ }
+            }
+            return super.getChannel();
+        }
+
         public String toString()
         {
             return super.toString() + "[ " + getArgString() + "]";
@@ -448,10 +749,10 @@ abstract public class DownloadResponse
             _file = file;
         }
 
-        int getContentLength()
+        long getContentLength()
                 throws IOException
         {
-            return (int) _file.length();
+            return _file.length();
         }
 
         InputStream getContent()
@@ -460,12 +761,164 @@ abstract public class DownloadResponse
             return new BufferedInputStream( new FileInputStream( _file ) );
         }
 
+        ReadableByteChannel getChannel()
+                throws IOException
+        {
+            return new FileInputStream( _file ).getChannel();
+        }
+
         public String toString()
         {
             return super.toString() + "[ " + getArgString() + "]";
         }
     }
-}
 
+    static private class OpenFileDownloadResponse
+            extends FileDownloadResponse
+    {
+        private final FileInputStream _in;
+
+        private final long _length;
+
+        OpenFileDownloadResponse( File file, FileInputStream in, String mimeType, String versionId,
+                                  long lastModified )
+                throws IOException
+        {
+            super( mimeType, versionId, lastModified, file.getName() );
+            _in = in;
+            // From the open file, as the file may no longer exist under its name
+            _length = in.getChannel().size();
+        }
+
+        long getContentLength()
+        {
+            return _length;
+        }
+
+        InputStream getContent()
+        {
+            return new BufferedInputStream( _in );
+        }
 
+        ReadableByteChannel getChannel()
+        {
+            return _in.getChannel();
+        }
 
+        public String toString()
+        {
+            return super.toString() + "[ " + getArgString() + "]";
+        }
+    }
+
+    static private class MemoryFileDownloadResponse
+            extends FileDownloadResponse
+    {
+        private final ByteBuffer _content;
+
+        private final String _contentEncoding;
+
+        private final String _lastModifiedHeader;
+
+        MemoryFileDownloadResponse( ByteBuffer content, String mimeType, String versionId, long lastModified,
+                                    String fileName, String lastModifiedHeader )
+        {
+            super( mimeType, versionId, lastModified, fileName );
+            _content = content;
+            _contentEncoding = getContentEncoding( fileName );
+            _lastModifiedHeader = lastModifiedHeader;
+        }
+
+        long getContentLength()
+        {
+            return _content.remaining();
+        }
+
+        InputStream getContent()
+        {
+            return Channels.newInputStream( getChannel() );
+        }
+
+        /**
+         * Each reader gets its own view of the shared content
+         */
+        ReadableByteChannel getChannel()
+        {
+            final ByteBuffer content = _content.duplicate();
+            return new ReadableByteChannel()
+            {
+                private boolean _open = true;
+
+                public int read( ByteBuffer dst )
+                {
+                    if ( !content.hasRemaining() )
+                    {
+                        return -1;
+                    }
+                    int n = Math.min( dst.remaining(), content.remaining() );
+                    ByteBuffer slice = content.slice();
+                    // Through Buffer, as the ByteBuffer overrides only exist from Java 9
+                    ( (Buffer) slice ).limit( n );
+                    dst.put( slice );
+                    ( (Buffer) content ).position( content.position() + n );
+                    return n;
+                }
+
+                public boolean isOpen()
+                {
+                    return _open;
+                }
+
+                public void close()
+                {
+                    _open = false;
+                }
+            };
+        }
+
+        void sendHeaders( HttpServletResponse response )
+        {
+            response.setContentType( getMimeType() );
+            setContentLength( response, _content.remaining() );
+            if ( getVersionId() != null )
+            {
+                response.setHeader( HEADER_JNLP_VERSION, getVersionId() );
+            }
+            if ( _lastModifiedHeader != null )
+            {
+                response.setHeader( HEADER_LASTMOD, _lastModifiedHeader );
+            }
+            response.setHeader( CONTENT_ENCODING, _contentEncoding );
+            response.setHeader( HEADER_VARY, DownloadRequest.ACCEPT_ENCODING );
+        }
+
+        long sendContent( HttpServletResponse response, AccessLog.Record record )
+                throws IOException
+        {
+            OutputStream out = response.getOutputStream();
+            if ( _content.hasArray() )
+            {
+                out.write( _content.array(), _content.arrayOffset() + _content.position(), _content.remaining() );
+                sent( record, _content.remaining() );
+            }
+            else
+            {
+                ByteBuffer content = _content.duplicate();
+                byte[] bytes = new byte[Math.min( 32 * 1024, content.remaining() )];
+                while ( content.hasRemaining() )
+                {
+                    int n = Math.min( bytes.length, content.remaining() );
+                    content.get( bytes, 0, n );
+                    out.write( bytes, 0, n );
+                    sent( record, n );
+                }
+            }
+            return _content.remaining();
+        }
+
+        public String toString()
+        {
+            return super.toString() + "[ " + getArgString() + "]";
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+
+/**
+ * Registry of the precompressed variants a resource may have next to it in
+ * the Web Archive, such as <code>app.jar.gz</code> for <code>app.jar</code>.
+ * <p>
+ * The default variants are pack200-gzip (<code>.pack.gz</code>, for jar files
+ * only), Brotli (<code>.br</code>), Zstandard (<code>.zst</code>) and gzip
+ * (<code>.gz</code>). The <code>encoding-variants</code> init parameter
+ * replaces them with a comma separated list of <code>coding=suffix</code>
+ * pairs, such as <code>br=.br, gzip=.gz</code>.
+ */
+final class EncodingVariant
+{
+    // Accepted variants are passed around as a bit mask
+    private static final int MAX_VARIANTS = 31;
+
+    private static final EncodingVariant[] DEFAULT_VARIANTS =
+            { new EncodingVariant( DownloadResponse.PACK200_GZIP_ENCODING, ".pack.gz" ),
+                    new EncodingVariant( "br", ".br" ), new EncodingVariant( "zstd", ".zst" ),
+                    new EncodingVariant( DownloadResponse.GZIP_ENCODING, ".gz" ) };
+
+    private static volatile EncodingVariant[] _variants = DEFAULT_VARIANTS;
+
+    private final String _encoding;
+
+    private final String _suffix;
+
+    private EncodingVariant( String encoding, String suffix )
+    {
+        _encoding = encoding;
+        _suffix = suffix;
+    }
+
+    /**
+     * Sets the registered variants
+     *
+     * @param spec comma separated list of coding=suffix pairs, or null for the defaults
+     */
+    static void setVariants( String spec )
+    {
+        if ( spec == null || spec.trim().length() == 0 )
+        {
+            _variants = DEFAULT_VARIANTS;
+        }
+        else
+        {
+            List<EncodingVariant> variants = new ArrayList<>();
+            StringTokenizer st = new StringTokenizer( spec, "," );
+            while ( st.hasMoreTokens() && variants.size() < MAX_VARIANTS )
+            {
+                String pair = st.nextToken().trim();
+                int idx = pair.indexOf( '=' );
+                if ( idx > 0 && idx < pair.length() - 1 )
+                {
+                    String suffix = pair.substring( idx + 1 ).trim();
+                    if ( !suffix.startsWith( "." ) )
+                    {
+                        suffix = "." + suffix;
+                    }
+                    variants.add( new EncodingVariant( pair.substring( 0, idx ).trim().toLowerCase( Locale.ENGLISH ),
+                                                       suffix ) );
+                }
+            }
+            _variants = variants.toArray( new EncodingVariant[variants.size()] );
+        }
+        AcceptEncoding.clearCache();
+    }
+
+    /**
+     * @return the registered variants, in order of preference when their sizes are equal
+     */
+    static EncodingVariant[] getVariants()
+    {
+        return _variants;
+    }
+
+    /**
+     * Returns the variant a file is, from its name
+     *
+     * @param fileName name or path of the file
+     * @return the variant with the longest matching suffix, or null for an unencoded file
+     */
+    static EncodingVariant forFileName( String fileName )
+    {
+        EncodingVariant found = null;
+        for ( EncodingVariant variant : _variants )
+        {
+            if ( fileName.endsWith( variant._suffix ) &&
+                    ( found == null || variant._suffix.length() > found._suffix.length() ) )
+            {
+                found = variant;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the content coding, as sent in the Content-Encoding header
+     */
+    String getEncoding()
+    {
+        return _encoding;
+    }
+
+    String getSuffix()
+    {
+        return _suffix;
+    }
+
+    /**
+     * Pack200 only applies to jar files
+     *
+     * @param mimeType mime type of the unencoded resource
+     * @return false if the variant cannot encode resources of this type
+     */
+    boolean appliesTo( String mimeType )
+    {
+        return !DownloadResponse.PACK200_GZIP_ENCODING.equals( _encoding ) || JnlpResource.isJarMimeType( mimeType );
+    }
+
+    /**
+     * @return the response type recorded in the access log
+     */
+    String getLogType()
+    {
+        if ( DownloadResponse.PACK200_GZIP_ENCODING.equals( _encoding ) )
+        {
+            return AccessLog.TYPE_PACK;
+        }
+        if ( DownloadResponse.GZIP_ENCODING.equals( _encoding ) )
+        {
+            return AccessLog.TYPE_GZIP;
+        }
+        return _encoding;
+    }
+
+    public String toString()
+    {
+        return _encoding + "=" + _suffix;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, such as durations in nanoseconds.
+ * <p>
+ * Values are counted in buckets of powers of two, so recording is a handful of
+ * atomic increments and percentiles are accurate to within a factor of two,
+ * which is enough to notice a regression.
+ */
+class Histogram
+{
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray( BUCKETS );
+
+    private final AtomicLong _count = new AtomicLong();
+
+    private final AtomicLong _sum = new AtomicLong();
+
+    private final AtomicLong _max = new AtomicLong();
+
+    void record( long value )
+    {
+        if ( value < 0 )
+        {
+            value = 0;
+        }
+        _buckets.incrementAndGet( value == 0 ? 0 : BUCKETS - 1 - Long.numberOfLeadingZeros( value ) );
+        _count.incrementAndGet();
+        _sum.addAndGet( value );
+        long max = _max.get();
+        while ( value > max && !_max.compareAndSet( max, value ) )
+        {
+            max = _max.get();
+        }
+    }
+
+    long getCount()
+    {
+        return _count.get();
+    }
+
+    long getSum()
+    {
+        return _sum.get();
+    }
+
+    long getMax()
+    {
+        return _max.get();
+    }
+
+    long getMean()
+    {
+        long count = _count.get();
+        return count == 0 ? 0 : _sum.get() / count;
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the recorded values
+     *
+     * @param percentile between 0 and 100
+     * @return the bound of the bucket holding the percentile, at most the largest value, or 0 if none
+     */
+    long getPercentile( double percentile )
+    {
+        long count = _count.get();
+        if ( count == 0 )
+        {
+            return 0;
+        }
+        long threshold = (long) Math.ceil( count * percentile / 100 );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += _buckets.get( i );
+            if ( seen >= threshold )
+            {
+                // Bucket i holds the values in [2^i, 2^(i+1))
+                long bound = i >= BUCKETS - 2 ? Long.MAX_VALUE : ( 1L << ( i + 1 ) ) - 1;
+                return Math.min( bound, _max.get() );
+            }
+        }
+        return _max.get();
+    }
+}
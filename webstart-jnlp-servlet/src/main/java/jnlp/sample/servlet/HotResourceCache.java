@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+
+import javax.servlet.ServletConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opt-in cache of small, frequently requested files, served from memory
+ * with precomputed headers.
+ * <p>
+ * It is enabled by the <code>hot-cache-size</code> init parameter, giving the
+ * number of bytes the cache may hold, with an optional <code>k</code> or
+ * <code>m</code> suffix. Files larger than <code>hot-cache-max-entry</code>
+ * (256k by default) are never cached, and a file is only cached from its
+ * second request, so that one-off downloads do not push hot ones out. When
+ * <code>hot-cache-offheap</code> is <code>true</code>, contents are held in
+ * direct buffers outside the Java heap.
+ * <p>
+ * Entries are keyed on the path and returned version of the resource, and
+ * dropped as soon as the resource has a different modification time. When
+ * the cache is full, the least recently requested entries make room.
+ */
+class HotResourceCache
+{
+    // Configuration parameters
+    private static final String PARAM_SIZE = "hot-cache-size";
+
+    private static final String PARAM_MAX_ENTRY = "hot-cache-max-entry";
+
+    private static final String PARAM_OFFHEAP = "hot-cache-offheap";
+
+    private static final long DEFAULT_MAX_ENTRY = 256 * 1024;
+
+    // Requests needed before a file is cached
+    private static final int ADMIT_AFTER = 2;
+
+    // Number of candidate paths whose requests are counted
+    private static final int CANDIDATE_LIMIT = 1024;
+
+    private static final int TOO_LARGE = Integer.MIN_VALUE;
+
+    private final long _budget;
+
+    private final long _maxEntry;
+
+    private final boolean _offHeap;
+
+    private final Logger _log;
+
+    private final DownloadMetrics _metrics;
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<>();
+
+    private final BoundedCache<String, AtomicInteger> _candidates = new BoundedCache<>( CANDIDATE_LIMIT );
+
+    // Guarded by this
+    private long _used = 0;
+
+    private static class Entry
+    {
+        private final long _lastModified;
+
+        private final int _size;
+
+        private final DownloadResponse _response;
+
+        // Time of the last request served from the entry, in nanoseconds
+        private volatile long _lastUsed = System.nanoTime();
+
+        Entry( long lastModified, int size, DownloadResponse response )
+        {
+            _lastModified = lastModified;
+            _size = size;
+            _response = response;
+        }
+    }
+
+    /**
+     * Creates the cache configured for the servlet
+     *
+     * @param config  the servlet configuration, with the hot cache init parameters
+     * @param log     logger of the servlet
+     * @param metrics metrics to count cache hits, misses and evictions in
+     * @return the cache, or null if it is not enabled
+     */
+    static HotResourceCache create( ServletConfig config, Logger log, DownloadMetrics metrics )
+    {
+        long budget = parseSize( config.getInitParameter( PARAM_SIZE ), 0 );
+        if ( budget <= 0 )
+        {
+            return null;
+        }
+        long maxEntry = parseSize( config.getInitParameter( PARAM_MAX_ENTRY ), DEFAULT_MAX_ENTRY );
+        boolean offHeap = Boolean.parseBoolean( config.getInitParameter( PARAM_OFFHEAP ) );
+        log.addDebug( "Hot resource cache of {0} bytes, entries up to {1} bytes", budget, maxEntry );
+        return new HotResourceCache( budget, Math.min( maxEntry, budget ), offHeap, log, metrics );
+    }
+
+    private HotResourceCache( long budget, long maxEntry, boolean offHeap, Logger log, DownloadMetrics metrics )
+    {
+        _budget = budget;
+        _maxEntry = maxEntry;
+        _offHeap = offHeap;
+        _log = log;
+        _metrics = metrics;
+    }
+
+    /**
+     * Returns a response serving the resource from memory
+     *
+     * @param jr the resource to return
+     * @return the response, or null if the resource is not cached
+     * @throws IOException if the resource cannot be read into the cache
+     */
+    DownloadResponse getResponse( JnlpResource jr )
+            throws IOException
+    {
+        String path = jr.getPath();
+        if ( path == null || jr.getResource() == null )
+        {
+            return null;
+        }
+        String key = jr.getReturnVersionId() == null ? path : path + '\n' + jr.getReturnVersionId();
+
+        Entry entry = _entries.get( key );
+        if ( entry != null )
+        {
+            if ( entry._lastModified == jr.getLastModified() )
+            {
+                entry._lastUsed = System.nanoTime();
+                _metrics.hotCacheHit();
+                return entry._response;
+            }
+            remove( key, entry );
+        }
+        _metrics.hotCacheMiss();
+
+        if ( !admit( key ) )
+        {
+            return null;
+        }
+
+        long contentLength = jr.getContentLength();
+        if ( contentLength < 0 || contentLength > _maxEntry )
+        {
+            _candidates.put( key, new AtomicInteger( TOO_LARGE ) );
+            return null;
+        }
+
+        // Read the contents
+        int length = (int) contentLength;
+        byte[] bytes = new byte[length];
+        InputStream in = jr.getResource().openStream();
+        try
+        {
+            int offset = 0;
+            while ( offset < length )
+            {
+                int read = in.read( bytes, offset, length - offset );
+                if ( read == -1 )
+                {
+                    // Changed while reading, try again on a later request
+                    return null;
+                }
+                offset += read;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        ByteBuffer content;
+        if ( _offHeap )
+        {
+            content = ByteBuffer.allocateDirect( length );
+            content.put( bytes );
+            // Buffer.flip(), as ByteBuffer.flip() only exists from Java 9
+            ( (Buffer) content ).flip();
+        }
+        else
+        {
+            content = ByteBuffer.wrap( bytes );
+        }
+
+        String lastModifiedHeader = null;
+        if ( jr.getLastModified() != 0 )
+        {
+            SimpleDateFormat format = new SimpleDateFormat( "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+            format.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+            lastModifiedHeader = format.format( new Date( jr.getLastModified() ) );
+        }
+        DownloadResponse response =
+                DownloadResponse.getMemoryDownloadResponse( content, jr.getMimeType(), jr.getLastModified(),
+                                                            jr.getReturnVersionId(), path, lastModifiedHeader );
+        put( key, new Entry( jr.getLastModified(), length, response ) );
+        _candidates.remove( key );
+        return response;
+    }
+
+    /**
+     * Counts a request for a file not in the cache, and tells whether it
+     * is now worth caching
+     */
+    private boolean admit( String key )
+    {
+        AtomicInteger count = _candidates.get( key );
+        if ( count == null )
+        {
+            AtomicInteger existing = _candidates.putIfAbsent( key, count = new AtomicInteger() );
+            if ( existing != null )
+            {
+                count = existing;
+            }
+        }
+        return count.incrementAndGet() >= ADMIT_AFTER;
+    }
+
+    private synchronized void put( String key, Entry entry )
+    {
+        Entry previous = _entries.remove( key );
+        if ( previous != null )
+        {
+            _used -= previous._size;
+        }
+        // Make room by dropping the least recently used entries
+        while ( _used + entry._size > _budget )
+        {
+            if ( !evictLeastRecentlyUsed() )
+            {
+                break;
+            }
+        }
+        if ( _used + entry._size <= _budget )
+        {
+            _entries.put( key, entry );
+            _used += entry._size;
+        }
+    }
+
+    private synchronized void remove( String key, Entry entry )
+    {
+        if ( _entries.remove( key, entry ) )
+        {
+            _used -= entry._size;
+        }
+    }
+
+    private boolean evictLeastRecentlyUsed()
+    {
+        String oldestKey = null;
+        Entry oldest = null;
+        for ( Map.Entry<String, Entry> e : _entries.entrySet() )
+        {
+            if ( oldest == null || e.getValue()._lastUsed - oldest._lastUsed < 0 )
+            {
+                oldestKey = e.getKey();
+                oldest = e.getValue();
+            }
+        }
+        if ( oldest == null )
+        {
+            return false;
+        }
+        _log.addDebug( "Evicting {0} from the hot resource cache", oldestKey );
+        _entries.remove( oldestKey );
+        _used -= oldest._size;
+        _metrics.hotCacheEviction();
+        return true;
+    }
+
+    /**
+     * Parses a number of bytes, with an optional k or m suffix
+     */
+    static long parseSize( String value, long defaultValue )
+    {
+        if ( value == null || value.trim().length() == 0 )
+        {
+            return defaultValue;
+        }
+        String size = value.trim().toLowerCase( Locale.ENGLISH );
+        long unit = 1;
+        if ( size.endsWith( "k" ) )
+        {
+            unit = 1024;
+            size = size.substring( 0, size.length() - 1 );
+        }
+        else if ( size.endsWith( "m" ) )
+        {
+            unit = 1024 * 1024;
+            size = size.substring( 0, size.length() - 1 );
+        }
+        try
+        {
+            return Long.parseLong( size.trim() ) * unit;
+        }
+        catch ( NumberFormatException nfe )
+        {
+            return defaultValue;
+        }
+    }
+}
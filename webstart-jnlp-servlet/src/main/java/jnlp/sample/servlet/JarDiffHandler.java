@@ -47,8 +47,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
 * A class that generates and caches information about JarDiff files
@@ -62,10 +63,23 @@ public class JarDiffHandler
     // Default JARDiff mime type
     private static final String JARDIFF_MIMETYPE = "application/x-java-archive-diff";
 
+    // The format of a JARDiff depends on what the client asked for
+    private static final String JARDIFF_VARY =
+            DownloadRequest.ACCEPT_ENCODING + ", " + DownloadRequest.HEADER_JARDIFF_VERSION;
+
+    // Size returned for a JarDiff that was not generated yet
+    static final long UNKNOWN_SIZE = -2;
+
     /**
      * List of all generated JARDiffs
      */
-    private HashMap _jarDiffEntries = null;
+    private ConcurrentHashMap<JarDiffKey, JarDiffEntry> _jarDiffEntries = null;
+
+    /**
+     * Serializes JARDiff generation. A lock is used rather than a monitor, so that
+     * threads waiting on a generation in progress do not pin a carrier thread.
+     */
+    private final Lock _generationLock = new ReentrantLock();
 
     /**
      * Reference to ServletContext and logger object
@@ -76,6 +90,8 @@ public class JarDiffHandler
 
     private String _jarDiffMimeType = null;
 
+    private DownloadMetrics _metrics = null;
+
     /* Contains information about a particular JARDiff entry */
     private static class JarDiffKey
             implements Comparable
@@ -88,15 +104,18 @@ public class JarDiffHandler
 
         private boolean _minimal;       // True if this is a minimal jardiff
 
+        private int _version;           // Format of the jardiff
+
         /**
          * Constructor used to generate a query object
          */
-        public JarDiffKey( String name, String fromVersionId, String toVersionId, boolean minimal )
+        public JarDiffKey( String name, String fromVersionId, String toVersionId, boolean minimal, int version )
         {
             _name = name;
             _fromVersionId = fromVersionId;
             _toVersionId = toVersionId;
             _minimal = minimal;
+            _version = version;
         }
 
         // Query methods
@@ -120,6 +139,11 @@ public class JarDiffHandler
             return _minimal;
         }
 
+        public int getVersion()
+        {
+            return _version;
+        }
+
         // Collection framework interface methods
 
         public int compareTo( Object o )
@@ -148,6 +172,11 @@ public class JarDiffHandler
                 return -1;
             }
 
+            if ( _version != other.getVersion() )
+            {
+                return _version < other.getVersion() ? -1 : 1;
+            }
+
             return _toVersionId.compareTo( other.getToVersionId() );
         }
 
@@ -166,15 +195,23 @@ public class JarDiffHandler
     {
         private File _jardiffFile;    // Location of JARDiff file
 
-        public JarDiffEntry( File jarDiffFile )
+        private long _bytesSaved;     // Size of the full JAR file minus size of the JARDiff
+
+        public JarDiffEntry( File jarDiffFile, long bytesSaved )
         {
             _jardiffFile = jarDiffFile;
+            _bytesSaved = bytesSaved;
         }
 
         public File getJarDiffFile()
         {
             return _jardiffFile;
         }
+
+        public long getBytesSaved()
+        {
+            return _bytesSaved;
+        }
     }
 
     /**
@@ -185,9 +222,22 @@ public class JarDiffHandler
      */
     public JarDiffHandler( ServletContext servletContext, Logger log )
     {
-        _jarDiffEntries = new HashMap();
+        this( servletContext, log, new DownloadMetrics() );
+    }
+
+    /**
+     * Initialize JarDiff handler
+     *
+     * @param log            logger of the servlet
+     * @param servletContext context of the web application serving the jars
+     * @param metrics        metrics to count JarDiff cache hits and bytes saved in
+     */
+    public JarDiffHandler( ServletContext servletContext, Logger log, DownloadMetrics metrics )
+    {
+        _jarDiffEntries = new ConcurrentHashMap<>();
         _servletContext = servletContext;
         _log = log;
+        _metrics = metrics;
 
         _jarDiffMimeType = _servletContext.getMimeType( "xyz.jardiff" );
         if ( _jarDiffMimeType == null )
@@ -204,100 +254,129 @@ public class JarDiffHandler
      * @param res     TODO
      * @return TODO
      */
-    public synchronized DownloadResponse getJarDiffEntry( ResourceCatalog catalog, DownloadRequest dreq,
+    public DownloadResponse getJarDiffEntry( ResourceCatalog catalog, DownloadRequest dreq,
                                                           JnlpResource res )
     {
-        if ( dreq.getCurrentVersionId() == null )
-        {
-            return null;
-        }
-
-        // check whether the request is from javaws 1.0/1.0.1
-        // do not generate minimal jardiff if it is from 1.0/1.0.1
-        boolean doJarDiffWorkAround = isJavawsVersion( dreq, "1.0*" );
-
-        // First do a lookup to find a match
-        JarDiffKey key =
-                new JarDiffKey( res.getName(), dreq.getCurrentVersionId(), res.getReturnVersionId(), !doJarDiffWorkAround );
-
-        JarDiffEntry entry = (JarDiffEntry) _jarDiffEntries.get( key );
-        // If entry is not found, then the querty has not been made.
-        if ( entry == null )
-        {
-            if ( _log.isInformationalLevel() )
-            {
-                _log.addInformational( "servlet.log.info.jardiff.gen", res.getName(), dreq.getCurrentVersionId(),
-                                       res.getReturnVersionId() );
-            }
-            File f = generateJarDiff( catalog, dreq, res, doJarDiffWorkAround );
-            if ( f == null )
-            {
-                _log.addWarning( "servlet.log.warning.jardiff.failed", res.getName(), dreq.getCurrentVersionId(),
-                                 res.getReturnVersionId() );
-            }
-            // Store entry in table
-            entry = new JarDiffEntry( f );
-            _jarDiffEntries.put( key, entry );
-        }
+        JarDiffEntry entry = lookupEntry( catalog, dreq, res );
 
         // Check for no JarDiff to return
-        if ( entry.getJarDiffFile() == null )
+        if ( entry == null || entry.getJarDiffFile() == null )
         {
             return null;
         }
         else
         {
+            _metrics.jarDiffSent( entry.getBytesSaved() );
             return DownloadResponse.getFileDownloadResponse( entry.getJarDiffFile(), _jarDiffMimeType,
                                                              entry.getJarDiffFile().lastModified(),
-                                                             res.getReturnVersionId() );
+                                                             res.getReturnVersionId(), JARDIFF_VARY );
         }
     }
 
-
-    public static boolean isJavawsVersion( DownloadRequest dreq, String version )
+    /**
+     * Returns the size of the JarDiff for the given request, generating it if needed
+     *
+     * @param catalog catalog to find the version the client has in
+     * @param dreq    the request, with the version the client has
+     * @param res     the version of the resource to return
+     * @return the size, or -1 if no JarDiff is returned for the request
+     */
+    long getJarDiffSize( ResourceCatalog catalog, DownloadRequest dreq, JnlpResource res )
     {
-        String javawsAgent = "javaws";
-        String jwsVer = dreq.getHttpRequest().getHeader( "User-Agent" );
+        JarDiffEntry entry = lookupEntry( catalog, dreq, res );
+        return entry == null || entry.getJarDiffFile() == null ? -1 : entry.getJarDiffFile().length();
+    }
 
-        // check the request is coming from javaws
-        if ( !jwsVer.startsWith( "javaws-" ) )
+    /**
+     * Returns the size of the JarDiff for the given request, if it was already generated. Unlike a download, this
+     * never generates a JarDiff.
+     *
+     * @param dreq the request, with the version the client has
+     * @param res  the version of the resource that would be returned
+     * @return the size, -1 if no JarDiff is returned for the request, or {@link #UNKNOWN_SIZE} if it was not
+     *         generated yet
+     */
+    long getCachedJarDiffSize( DownloadRequest dreq, JnlpResource res )
+    {
+        if ( dreq.getCurrentVersionId() == null )
         {
-            // this is the new style User-Agent string
-            // User-Agent: JNLP/1.0.1 javaws/1.4.2 (b28) J2SE/1.4.2
-            StringTokenizer st = new StringTokenizer( jwsVer );
-            while ( st.hasMoreTokens() )
-            {
-                String verString = st.nextToken();
-                int index = verString.indexOf( javawsAgent );
-                if ( index != -1 )
-                {
-                    verString = verString.substring( index + javawsAgent.length() + 1 );
-                    return VersionString.contains( version, verString );
-                }
-            }
-            return false;
+            return -1;
+        }
+        JarDiffEntry entry = _jarDiffEntries.get( createKey( dreq, res ) );
+        if ( entry == null )
+        {
+            return UNKNOWN_SIZE;
         }
+        return entry.getJarDiffFile() == null ? -1 : entry.getJarDiffFile().length();
+    }
 
-        // extract the version id from the download request
-        int startIndex = jwsVer.indexOf( "-" );
+    private static JarDiffKey createKey( DownloadRequest dreq, JnlpResource res )
+    {
+        // check whether the request is from javaws 1.0/1.0.1
+        // do not generate minimal jardiff if it is from 1.0/1.0.1
+        boolean doJarDiffWorkAround = dreq.getClientInfo().needsJarDiffWorkaround();
+        return new JarDiffKey( res.getName(), dreq.getCurrentVersionId(), res.getReturnVersionId(),
+                               !doJarDiffWorkAround, dreq.getJarDiffVersion() );
+    }
 
-        if ( startIndex == -1 )
+    private JarDiffEntry lookupEntry( ResourceCatalog catalog, DownloadRequest dreq, JnlpResource res )
+    {
+        if ( dreq.getCurrentVersionId() == null )
         {
-            return false;
+            return null;
         }
 
-        int endIndex = jwsVer.indexOf( "/" );
+        // First do a lookup to find a match
+        JarDiffKey key = createKey( dreq, res );
 
-        if ( endIndex == -1 || endIndex < startIndex )
+        JarDiffEntry entry = _jarDiffEntries.get( key );
+        // If entry is not found, then the querty has not been made.
+        if ( entry == null )
         {
-            return false;
+            _metrics.jarDiffCacheMiss();
+            _generationLock.lock();
+            try
+            {
+                // Another thread may have generated it while we were waiting
+                entry = _jarDiffEntries.get( key );
+                if ( entry == null )
+                {
+                    if ( _log.isInformationalLevel() )
+                    {
+                        _log.addInformational( "servlet.log.info.jardiff.gen", res.getName(),
+                                               dreq.getCurrentVersionId(), res.getReturnVersionId() );
+                    }
+                    entry = generateJarDiff( catalog, dreq, res, !key.isMinimal(), key.getVersion() );
+                    if ( entry.getJarDiffFile() == null )
+                    {
+                        _log.addWarning( "servlet.log.warning.jardiff.failed", res.getName(),
+                                         dreq.getCurrentVersionId(), res.getReturnVersionId() );
+                    }
+                    // Store entry in table
+                    _jarDiffEntries.put( key, entry );
+                }
+            }
+            finally
+            {
+                _generationLock.unlock();
+            }
         }
+        else
+        {
+            _metrics.jarDiffCacheHit();
+        }
+        return entry;
+    }
 
-        String verId = jwsVer.substring( startIndex + 1, endIndex );
 
-        // check whether the versionString contains the versionId
-        return VersionString.contains( version, verId );
+    public static boolean isJavawsVersion( DownloadRequest dreq, String version )
+    {
+        return isJavawsVersion( dreq, VersionString.valueOf( version ) );
+    }
 
+    public static boolean isJavawsVersion( DownloadRequest dreq, VersionString version )
+    {
+        return dreq.getClientInfo().isJavawsVersion( version );
     }
 
     /**
@@ -326,8 +405,8 @@ public class JarDiffHandler
                 totalRead += read;
             }
 
-            _log.addDebug( "total read: " + totalRead );
-            _log.addDebug( "Wrote URL " + target.toString() + " to file " + file );
+            _log.addDebug( "total read: {0}", totalRead );
+            _log.addDebug( "Wrote URL {0} to file {1}", target, file );
 
         }
         catch ( IOException ioe )
@@ -400,9 +479,11 @@ public class JarDiffHandler
     }
 
 
-    private File generateJarDiff( ResourceCatalog catalog, DownloadRequest dreq, JnlpResource res,
-                                  boolean doJarDiffWorkAround )
+    private JarDiffEntry generateJarDiff( ResourceCatalog catalog, DownloadRequest dreq, JnlpResource res,
+                                          boolean doJarDiffWorkAround, int version )
     {
+        JarDiffEntry noJarDiff = new JarDiffEntry( null, 0 );
+
         boolean del_old = false;
         boolean del_new = false;
 
@@ -437,7 +518,7 @@ public class JarDiffHandler
 
             if ( newFilePath == null || oldFilePath == null )
             {
-                return null;
+                return noJarDiff;
             }
 
             // Create temp. file to store JarDiff file in
@@ -446,23 +527,26 @@ public class JarDiffHandler
             // fix for 4653036: JarDiffHandler() should use javax.servlet.context.tempdir to store the jardiff
             File outputFile = File.createTempFile( "jnlp", ".jardiff", tempDir );
 
-            _log.addDebug(
-                    "Generating Jardiff between " + oldFilePath + " and " + newFilePath + " Store in " + outputFile );
+            _log.addDebug( "Generating Jardiff between {0} and {1} Store in {2}", oldFilePath, newFilePath,
+                           outputFile );
 
             // Generate JarDiff
+            long start = System.nanoTime();
             OutputStream os = new FileOutputStream( outputFile );
 
-            JarDiff.createPatch( oldFilePath, newFilePath, os, !doJarDiffWorkAround );
+            JarDiff.createPatch( oldFilePath, newFilePath, os, !doJarDiffWorkAround, version );
             os.close();
+            _metrics.jarDiffGenerated( System.nanoTime() - start );
 
             try
             {
 
                 // Check that Jardiff is smaller, or return null
-                if ( outputFile.length() >= ( new File( newFilePath ).length() ) )
+                long fullLength = new File( newFilePath ).length();
+                if ( outputFile.length() >= fullLength )
                 {
                     _log.addDebug( "JarDiff discarded - since it is bigger" );
-                    return null;
+                    return noJarDiff;
                 }
 
                 // Check that Jardiff is smaller than the packed version of
@@ -470,17 +554,17 @@ public class JarDiffHandler
                 File newFilePacked = new File( newFilePath + ".pack.gz" );
                 if ( newFilePacked.exists() )
                 {
-                    _log.addDebug( "generated jardiff size: " + outputFile.length() );
-                    _log.addDebug( "packed requesting file size: " + newFilePacked.length() );
+                    _log.addDebug( "generated jardiff size: {0}", outputFile.length() );
+                    _log.addDebug( "packed requesting file size: {0}", newFilePacked.length() );
                     if ( outputFile.length() >= newFilePacked.length() )
                     {
                         _log.addDebug( "JarDiff discarded - packed version of requesting file is smaller" );
-                        return null;
+                        return noJarDiff;
                     }
                 }
 
                 _log.addDebug( "JarDiff generation succeeded" );
-                return outputFile;
+                return new JarDiffEntry( outputFile, fullLength - outputFile.length() );
 
             }
             finally
@@ -500,12 +584,12 @@ public class JarDiffHandler
         catch ( IOException ioe )
         {
             _log.addDebug( "Failed to genereate jardiff", ioe );
-            return null;
+            return noJarDiff;
         }
         catch ( ErrorResponseException ere )
         {
             _log.addDebug( "Failed to genereate jardiff", ere );
-            return null;
+            return noJarDiff;
         }
     }
 }
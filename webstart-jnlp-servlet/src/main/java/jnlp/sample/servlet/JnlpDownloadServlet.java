@@ -36,6 +36,7 @@
 
 package jnlp.sample.servlet;
 
+import javax.management.JMException;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -58,6 +59,50 @@ import java.util.ResourceBundle;
  * <li><code>current-version-id</code>,</li>
  * <li><code>known-platforms</code></li>
  * </ul>
+ * <p>
+ * Resources are returned as the smallest precompressed variant the client accepts, according to the
+ * quality values of its Accept-Encoding header. See {@link EncodingVariant} for the variants and the
+ * <code>encoding-variants</code> init parameter.
+ * <p>
+ * Setting the <code>async-downloads</code> init parameter to <code>true</code> makes the servlet
+ * write file contents from an asynchronous request, so that slow downloads do not hold a container
+ * thread. This needs a Servlet 3.1 container, and the servlet to be declared as async-supported.
+ * <p>
+ * Alternatively, the <code>download-executor</code> init parameter hands the blocking copy of file
+ * contents to a dedicated executor: either <code>virtual</code>, for one virtual thread per download
+ * where the JVM supports them, or a number of platform threads. This needs a Servlet 3.0 container.
+ * <p>
+ * The <code>accessLogPath</code> init parameter enables a structured access log, with one JSON line
+ * per request recording the requested and returned versions, the response type, the bytes sent and
+ * the time spent in each stage of the request.
+ * <p>
+ * Request counts by response type, cache statistics, JarDiff generation, in-flight downloads and
+ * log events dropped or delayed by a full log queue are collected in {@link DownloadMetrics},
+ * registered as an MBean unless the <code>metrics</code> init parameter is <code>false</code>. The
+ * <code>metrics-path</code> init parameter, such as <code>/metrics.txt</code>, also serves them as
+ * text, provided the path is mapped to the servlet.
+ * <p>
+ * Small, frequently requested files can be served from memory by setting the
+ * <code>hot-cache-size</code> init parameter, see {@link HotResourceCache}. Setting
+ * <code>compress-on-the-fly</code> to <code>true</code> gzip compresses JNLP files, and resources
+ * without a precompressed variant in the background, see {@link CompressionCache}.
+ * <p>
+ * The <code>manifest-path</code> init parameter, such as <code>/manifest.json</code>, enables a
+ * batch endpoint resolving many resources in one request, with their sizes, hashes and available
+ * JarDiffs, see {@link ManifestHandler}.
+ * <p>
+ * The entries of a version.xml file are read from the binary index next to it when the index is up to
+ * date, see {@link VersionIndex}. Setting the <code>version-index</code> init parameter to
+ * <code>write</code> makes the servlet write the index of the files it parses, and setting it to
+ * <code>false</code> ignores existing indexes.
+ * <p>
+ * The <code>warm-up</code> init parameter lists directories to scan, and whose version.xml files
+ * and JNLP templates to read, while the servlet is initialized rather than on their first request,
+ * see {@link WarmUp}.
+ * <p>
+ * JarDiffs are sent in the format of version 1.0 of the JNLP specification, unless the client asks
+ * for version 2, whose modified entries are sent as binary deltas against their old contents, with
+ * the <code>jardiff-version</code> argument or the <code>x-java-jardiff-version</code> header.
  *
  * @version 1.8 01/23/03
  */
@@ -73,6 +118,20 @@ public class JnlpDownloadServlet
 
     private static final String PARAM_JAR_EXTENSION = "jar-extension";
 
+    private static final String PARAM_ENCODING_VARIANTS = "encoding-variants";
+
+    private static final String PARAM_ASYNC_DOWNLOADS = "async-downloads";
+
+    private static final String PARAM_DOWNLOAD_EXECUTOR = "download-executor";
+
+    private static final String PARAM_METRICS = "metrics";
+
+    private static final String PARAM_METRICS_PATH = "metrics-path";
+
+    private static final String PARAM_MANIFEST_PATH = "manifest-path";
+
+    private static final String PARAM_VERSION_INDEX = "version-index";
+
     // Servlet configuration
     private Logger _log = null;
 
@@ -82,6 +141,24 @@ public class JnlpDownloadServlet
 
     private ResourceCatalog _resourceCatalog = null;
 
+    private boolean _asyncDownloads = false;
+
+    private DownloadExecutor _downloadExecutor = null;
+
+    private AccessLog _accessLog = null;
+
+    private DownloadMetrics _metrics = null;
+
+    private String _metricsPath = null;
+
+    private String _manifestPath = null;
+
+    private ManifestHandler _manifestHandler = null;
+
+    private HotResourceCache _hotResourceCache = null;
+
+    private CompressionCache _compressionCache = null;
+
     /**
      * Initialize servlet
      */
@@ -97,10 +174,70 @@ public class JnlpDownloadServlet
         // Get extension from Servlet configuration, or use default
         JnlpResource.setDefaultExtensions( config.getInitParameter( PARAM_JNLP_EXTENSION ),
                                            config.getInitParameter( PARAM_JAR_EXTENSION ) );
+        EncodingVariant.setVariants( config.getInitParameter( PARAM_ENCODING_VARIANTS ) );
 
-        _jnlpFileHandler = new JnlpFileHandler( config.getServletContext(), _log );
-        _jarDiffHandler = new JarDiffHandler( config.getServletContext(), _log );
-        _resourceCatalog = new ResourceCatalog( config.getServletContext(), _log );
+        _metrics = new DownloadMetrics();
+        _metrics.setLogger( _log );
+        if ( !"false".equalsIgnoreCase( config.getInitParameter( PARAM_METRICS ) ) )
+        {
+            try
+            {
+                _metrics.register( config.getServletContext().getContextPath(), config.getServletName() );
+            }
+            catch ( JMException jme )
+            {
+                _log.addWarning( "servlet.log.warning.metrics", jme.toString() );
+            }
+        }
+        _metricsPath = config.getInitParameter( PARAM_METRICS_PATH );
+
+        _jnlpFileHandler = new JnlpFileHandler( config.getServletContext(), _log, _metrics );
+        _jarDiffHandler = new JarDiffHandler( config.getServletContext(), _log, _metrics );
+        _resourceCatalog = new ResourceCatalog( config.getServletContext(), _log, _metrics );
+        String versionIndex = config.getInitParameter( PARAM_VERSION_INDEX );
+        _resourceCatalog.setVersionIndex( !"false".equalsIgnoreCase( versionIndex ),
+                                          "write".equalsIgnoreCase( versionIndex ) );
+        _manifestPath = config.getInitParameter( PARAM_MANIFEST_PATH );
+        if ( _manifestPath != null )
+        {
+            _manifestHandler = new ManifestHandler( _resourceCatalog, _jarDiffHandler, _log );
+        }
+
+        _asyncDownloads = Boolean.parseBoolean( config.getInitParameter( PARAM_ASYNC_DOWNLOADS ) );
+        if ( !_asyncDownloads )
+        {
+            _downloadExecutor = DownloadExecutor.create( config.getInitParameter( PARAM_DOWNLOAD_EXECUTOR ), _log );
+        }
+
+        _accessLog = AccessLog.create( config, _metrics );
+        _hotResourceCache = HotResourceCache.create( config, _log, _metrics );
+        _compressionCache = CompressionCache.create( config, _log );
+        _jnlpFileHandler.setCompress( _compressionCache != null );
+
+        WarmUp.run( config, _log, _resourceCatalog, _jnlpFileHandler, _jarDiffHandler );
+    }
+
+    public void destroy()
+    {
+        if ( _downloadExecutor != null )
+        {
+            _downloadExecutor.shutdown();
+        }
+        if ( _compressionCache != null )
+        {
+            _compressionCache.shutdown();
+        }
+        _accessLog.close();
+        try
+        {
+            _metrics.unregister();
+        }
+        catch ( JMException jme )
+        {
+            _log.addWarning( "servlet.log.warning.metrics", jme.toString() );
+        }
+        _log.close();
+        super.destroy();
     }
 
     public static synchronized ResourceBundle getResourceBundle()
@@ -128,9 +265,25 @@ public class JnlpDownloadServlet
         handleRequest( request, response, false );
     }
 
+    /**
+     * Only the manifest accepts POST requests, with the list of resources as body
+     */
+    public void doPost( HttpServletRequest request, HttpServletResponse response )
+            throws ServletException, IOException
+    {
+        DownloadRequest dreq = new DownloadRequest( getServletContext(), request );
+        if ( _manifestHandler != null && _manifestPath.equals( dreq.getPath() ) )
+        {
+            _manifestHandler.sendManifest( request, response, dreq );
+            return;
+        }
+        super.doPost( request, response );
+    }
+
     private void handleRequest( HttpServletRequest request, HttpServletResponse response, boolean isHead )
             throws IOException
     {
+        long startTime = System.nanoTime();
         String requestStr = request.getRequestURI();
         if ( request.getQueryString() != null )
         {
@@ -139,6 +292,19 @@ public class JnlpDownloadServlet
 
         // Parse HTTP request
         DownloadRequest dreq = new DownloadRequest( getServletContext(), request );
+        if ( _metricsPath != null && _metricsPath.equals( dreq.getPath() ) )
+        {
+            response.setContentType( "text/plain;charset=UTF-8" );
+            response.setHeader( "Cache-Control", "no-cache" );
+            response.getWriter().write( _metrics.toText() );
+            return;
+        }
+        if ( _manifestHandler != null && _manifestPath.equals( dreq.getPath() ) )
+        {
+            _manifestHandler.sendManifest( request, response, dreq );
+            return;
+        }
+        AccessLog.Record record = _accessLog.startRecord( dreq, startTime );
         if ( _log.isInformationalLevel() )
         {
             _log.addInformational( "servlet.log.info.request", requestStr );
@@ -159,7 +325,8 @@ public class JnlpDownloadServlet
 
             // Decide what resource to return
             JnlpResource jnlpres = locateResource( dreq );
-            _log.addDebug( "JnlpResource: " + jnlpres );
+            _log.addDebug( "JnlpResource: {0}", jnlpres );
+            record.resourceLocated( jnlpres );
 
             if ( _log.isInformationalLevel() )
             {
@@ -171,11 +338,12 @@ public class JnlpDownloadServlet
             if ( isHead )
             {
 
-                int cl = jnlpres.getResource().openConnection().getContentLength();
+                long cl = jnlpres.getContentLength();
 
                 // head request response
                 dres = DownloadResponse.getHeadRequestResponse( jnlpres.getMimeType(), jnlpres.getVersionId(),
                                                                 jnlpres.getLastModified(), cl );
+                record.setType( AccessLog.TYPE_HEAD );
 
             }
             else if ( ifModifiedSince != -1 && ( ifModifiedSince / 1000 ) >= ( jnlpres.getLastModified() / 1000 ) )
@@ -189,16 +357,38 @@ public class JnlpDownloadServlet
                 // return 304 not modified if possible
                 _log.addDebug( "return 304 Not modified" );
                 dres = DownloadResponse.getNotModifiedResponse();
+                record.setType( AccessLog.TYPE_NOT_MODIFIED );
 
             }
             else
             {
 
                 // Return selected resource
-                dres = constructResponse( jnlpres, dreq );
+                dres = constructResponse( jnlpres, dreq, record );
             }
 
-            dres.sendRespond( response );
+            record.startTransfer();
+            try
+            {
+                if ( _asyncDownloads )
+                {
+                    dres.sendRespondAsync( request, response, _log, record );
+                }
+                else if ( _downloadExecutor != null )
+                {
+                    dres.sendRespond( request, response, _downloadExecutor, record );
+                }
+                else
+                {
+                    dres.sendRespond( response, record );
+                }
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                // A no-op if the record was already completed by the thread sending the content
+                record.abort();
+                throw e;
+            }
 
         }
         catch ( ErrorResponseException ere )
@@ -212,11 +402,25 @@ public class JnlpDownloadServlet
                 _log.addDebug( "Response: " + ere.toString() );
             }
             // Return response from exception
-            ere.getDownloadResponse().sendRespond( response );
+            record.setType( DownloadResponse.isNotModifiedResponse( ere.getDownloadResponse() )
+                                    ? AccessLog.TYPE_NOT_MODIFIED
+                                    : AccessLog.TYPE_ERROR );
+            record.startTransfer();
+            try
+            {
+                ere.getDownloadResponse().sendRespond( response, record );
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                record.abort();
+                throw e;
+            }
         }
         catch ( Throwable e )
         {
             _log.addFatal( "servlet.log.fatal.internalerror", e );
+            record.setType( AccessLog.TYPE_ERROR );
+            record.complete( 0 );
             response.sendError( HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
         }
     }
@@ -262,7 +466,7 @@ public class JnlpDownloadServlet
             throw new ErrorResponseException( DownloadResponse.getNoContentResponse() );
         }
         // Lookup resource
-        JnlpResource jnlpres = new JnlpResource( getServletContext(), dreq.getPath() );
+        JnlpResource jnlpres = _resourceCatalog.getResource( dreq.getPath() );
         if ( !jnlpres.exists() )
         {
             throw new ErrorResponseException( DownloadResponse.getNoContentResponse() );
@@ -281,49 +485,82 @@ public class JnlpDownloadServlet
      * Given a DownloadPath and a DownloadRequest, it constructs the data stream to return
      * to the requester
      */
-    private DownloadResponse constructResponse( JnlpResource jnlpres, DownloadRequest dreq )
+    private DownloadResponse constructResponse( JnlpResource jnlpres, DownloadRequest dreq, AccessLog.Record record )
             throws IOException
     {
         String path = jnlpres.getPath();
         if ( jnlpres.isJnlpFile() )
         {
             // It is a JNLP file. It need to be macro-expanded, so it is handled differently
-            boolean supportQuery = JarDiffHandler.isJavawsVersion( dreq, "1.5+" );
-            _log.addDebug( "SupportQuery in Href: " + supportQuery );
+            boolean supportQuery = dreq.getClientInfo().supportsQueryInHref();
+            _log.addDebug( "SupportQuery in Href: {0}", supportQuery );
 
             // only support query string in href for 1.5 and above
+            long start = System.nanoTime();
+            DownloadResponse response;
             if ( supportQuery )
             {
-                return _jnlpFileHandler.getJnlpFileEx( jnlpres, dreq );
+                response = _jnlpFileHandler.getJnlpFileEx( jnlpres, dreq );
             }
             else
             {
-                return _jnlpFileHandler.getJnlpFile( jnlpres, dreq );
+                response = _jnlpFileHandler.getJnlpFile( jnlpres, dreq );
+            }
+            record.addTemplateTime( System.nanoTime() - start );
+            if ( DownloadResponse.GZIP_ENCODING.equals( DownloadResponse.getResponseEncoding( response ) ) )
+            {
+                record.setType( AccessLog.TYPE_GZIP );
             }
+            return response;
         }
 
         // Check if a JARDiff can be returned
         if ( dreq.getCurrentVersionId() != null && jnlpres.isJarFile() )
         {
+            long start = System.nanoTime();
             DownloadResponse response = _jarDiffHandler.getJarDiffEntry( _resourceCatalog, dreq, jnlpres );
+            record.addDiffTime( System.nanoTime() - start );
             if ( response != null )
             {
                 _log.addInformational( "servlet.log.info.jardiff.response" );
+                record.setType( AccessLog.TYPE_JARDIFF );
                 return response;
             }
         }
 
-        // check and see if we can use pack resource
-        JnlpResource jr =
-                new JnlpResource( getServletContext(), jnlpres.getName(), jnlpres.getVersionId(), jnlpres.getOSList(),
-                                  jnlpres.getArchList(), jnlpres.getLocaleList(), jnlpres.getPath(),
-                                  jnlpres.getReturnVersionId(), dreq.getEncoding() );
+        // check and see if we can use a precompressed variant
+        JnlpResource jr = _resourceCatalog.getEncodedResource( jnlpres, dreq.getEncoding() );
 
-        _log.addDebug( "Real resource returned: " + jr );
+        _log.addDebug( "Real resource returned: {0}", jr );
+        EncodingVariant variant = jr.getPath() == null ? null : EncodingVariant.forFileName( jr.getPath() );
+        if ( variant != null )
+        {
+            record.setType( variant.getLogType() );
+        }
+
+        if ( _compressionCache != null && variant == null )
+        {
+            DownloadResponse compressed =
+                    _compressionCache.getResponse( jr, AcceptEncoding.valueOf( dreq.getEncoding() ) );
+            if ( compressed != null )
+            {
+                record.setType( AccessLog.TYPE_GZIP );
+                return compressed;
+            }
+        }
+
+        if ( _hotResourceCache != null )
+        {
+            DownloadResponse cached = _hotResourceCache.getResponse( jr );
+            if ( cached != null )
+            {
+                return cached;
+            }
+        }
 
         // Return WAR file resource
         return DownloadResponse.getFileDownloadResponse( jr.getResource(), jr.getMimeType(), jr.getLastModified(),
-                                                         jr.getReturnVersionId() );
+                                                         jr.getReturnVersionId(), jr.getContentLength() );
     }
 }
 
@@ -52,15 +52,16 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
-import java.net.URL;
 import java.net.URLConnection;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
 /* The JNLP file handler implements a class that keeps
  * track of JNLP files and their specializations
@@ -71,11 +72,21 @@ public class JnlpFileHandler
 
     private static final String HEADER_LASTMOD = "Last-Modified";
 
+    // Smaller JNLP files are not worth compressing
+    private static final int MIN_COMPRESS_SIZE = 512;
+
     private ServletContext _servletContext;
 
     private Logger _log = null;
 
-    private HashMap _jnlpFiles = null;
+    private ConcurrentHashMap<String, JnlpFileEntry> _jnlpFiles = null;
+
+    // Templates by path, so that specializing them for another URL does not read them again
+    private final ConcurrentHashMap<String, JnlpTemplate> _templates = new ConcurrentHashMap<>();
+
+    private DownloadMetrics _metrics = null;
+
+    private boolean _compress = false;
 
     /**
      * Initialize JnlpFileHandler for the specific ServletContext
@@ -84,10 +95,64 @@ public class JnlpFileHandler
      * @param servletContext TODO
      */
     public JnlpFileHandler( ServletContext servletContext, Logger log )
+    {
+        this( servletContext, log, new DownloadMetrics() );
+    }
+
+    /**
+     * Initialize JnlpFileHandler for the specific ServletContext
+     *
+     * @param log            logger of the servlet
+     * @param servletContext context of the web application serving the JNLP files
+     * @param metrics        metrics to count JNLP file cache hits and misses in
+     */
+    public JnlpFileHandler( ServletContext servletContext, Logger log, DownloadMetrics metrics )
     {
         _servletContext = servletContext;
         _log = log;
-        _jnlpFiles = new HashMap();
+        _metrics = metrics;
+        _jnlpFiles = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets whether specialized JNLP files are also kept gzip compressed, for
+     * the clients that accept it
+     *
+     * @param compress true to keep a gzip compressed copy of each specialized JNLP file
+     */
+    void setCompress( boolean compress )
+    {
+        _compress = compress;
+    }
+
+    /**
+     * A JNLP template as read from the Web Archive, with its timestamp
+     */
+    private static class JnlpTemplate
+    {
+        private final String _text;
+
+        private final long _timeStamp;
+
+        // Last modified time of the file it was read from
+        private final long _lastModified;
+
+        JnlpTemplate( String text, long timeStamp, long lastModified )
+        {
+            _text = text;
+            _timeStamp = timeStamp;
+            _lastModified = lastModified;
+        }
+
+        String getText()
+        {
+            return _text;
+        }
+
+        long getTimeStamp()
+        {
+            return _timeStamp;
+        }
     }
 
     private static class JnlpFileEntry
@@ -95,13 +160,17 @@ public class JnlpFileHandler
         // Response
         DownloadResponse _response;
 
+        // Gzip compressed response, or null
+        DownloadResponse _gzipResponse;
+
         // Keeps track of cache is out of date
         private long _lastModified;
 
         // Constructor
-        JnlpFileEntry( DownloadResponse response, long lastmodfied )
+        JnlpFileEntry( DownloadResponse response, DownloadResponse gzipResponse, long lastmodfied )
         {
             _response = response;
+            _gzipResponse = gzipResponse;
             _lastModified = lastmodfied;
         }
 
@@ -110,6 +179,19 @@ public class JnlpFileHandler
             return _response;
         }
 
+        /**
+         * Returns the compressed response if the client accepts it
+         */
+        DownloadResponse getResponse( DownloadRequest dreq )
+        {
+            if ( _gzipResponse != null &&
+                    AcceptEncoding.valueOf( dreq.getEncoding() ).getQuality( DownloadResponse.GZIP_ENCODING ) > 0 )
+            {
+                return _gzipResponse;
+            }
+            return _response;
+        }
+
         long getLastModified()
         {
             return _lastModified;
@@ -117,14 +199,16 @@ public class JnlpFileHandler
     }
 
     /* Main method to lookup an entry */
-    public synchronized DownloadResponse getJnlpFile( JnlpResource jnlpres, DownloadRequest dreq )
+    public DownloadResponse getJnlpFile( JnlpResource jnlpres, DownloadRequest dreq )
             throws IOException
     {
         String path = jnlpres.getPath();
-        URL resource = jnlpres.getResource();
         long lastModified = jnlpres.getLastModified();
 
-        _log.addDebug( "lastModified: " + lastModified + " " + new Date( lastModified ) );
+        if ( _log.isDebugLevel() )
+        {
+            _log.addDebug( "lastModified: " + lastModified + " " + new Date( lastModified ) );
+        }
         if ( lastModified == 0 )
         {
             _log.addWarning( "servlet.log.warning.nolastmodified", path );
@@ -135,66 +219,48 @@ public class JnlpFileHandler
         String reqUrl = HttpUtils.getRequestURL( dreq.getHttpRequest() ).toString();
 
         // Check if entry already exist in HashMap
-        JnlpFileEntry jnlpFile = (JnlpFileEntry) _jnlpFiles.get( reqUrl );
+        JnlpFileEntry jnlpFile = _jnlpFiles.get( reqUrl );
 
         if ( jnlpFile != null && jnlpFile.getLastModified() == lastModified )
         {
             // Entry found in cache, so return it
-            return jnlpFile.getResponse();
+            _metrics.jnlpCacheHit();
+            return jnlpFile.getResponse( dreq );
         }
+        _metrics.jnlpCacheMiss( jnlpFile != null );
 
-        // Read information from WAR file
-        long timeStamp = lastModified;
+        // Read information from WAR file, unless the template was read before
+        JnlpTemplate template = getTemplate( jnlpres );
+        long timeStamp = template.getTimeStamp();
         String mimeType = _servletContext.getMimeType( path );
         if ( mimeType == null )
         {
             mimeType = JNLP_MIME_TYPE;
         }
 
-        StringBuilder jnlpFileTemplate = new StringBuilder();
-        URLConnection conn = resource.openConnection();
-        BufferedReader br = new BufferedReader( new InputStreamReader( conn.getInputStream(), "UTF-8" ) );
-        String line = br.readLine();
-        if ( line != null && line.startsWith( "TS:" ) )
-        {
-            timeStamp = parseTimeStamp( line.substring( 3 ) );
-            _log.addDebug( "Timestamp: " + timeStamp + " " + new Date( timeStamp ) );
-            if ( timeStamp == 0 )
-            {
-                _log.addWarning( "servlet.log.warning.notimestamp", path );
-                timeStamp = lastModified;
-            }
-            line = br.readLine();
-        }
-        while ( line != null )
-        {
-            jnlpFileTemplate.append( line );
-            line = br.readLine();
-        }
-
-        String jnlpFileContent = specializeJnlpTemplate( dreq.getHttpRequest(), path, jnlpFileTemplate.toString() );
+        String jnlpFileContent = specializeJnlpTemplate( dreq.getHttpRequest(), path, template.getText() );
 
         // Convert to bytes as a UTF-8 encoding
         byte[] byteContent = jnlpFileContent.getBytes( "UTF-8" );
 
         // Create entry
-        DownloadResponse resp =
-                DownloadResponse.getFileDownloadResponse( byteContent, mimeType, timeStamp, jnlpres.getReturnVersionId() );
-        jnlpFile = new JnlpFileEntry( resp, lastModified );
+        jnlpFile = createEntry( byteContent, mimeType, timeStamp, jnlpres, lastModified );
         _jnlpFiles.put( reqUrl, jnlpFile );
 
-        return resp;
+        return jnlpFile.getResponse( dreq );
     }
 
     /* Main method to lookup an entry (NEW for JavaWebStart 1.5+) */
-    public synchronized DownloadResponse getJnlpFileEx( JnlpResource jnlpres, DownloadRequest dreq )
+    public DownloadResponse getJnlpFileEx( JnlpResource jnlpres, DownloadRequest dreq )
             throws IOException
     {
         String path = jnlpres.getPath();
-        URL resource = jnlpres.getResource();
         long lastModified = jnlpres.getLastModified();
 
-        _log.addDebug( "lastModified: " + lastModified + " " + new Date( lastModified ) );
+        if ( _log.isDebugLevel() )
+        {
+            _log.addDebug( "lastModified: " + lastModified + " " + new Date( lastModified ) );
+        }
         if ( lastModified == 0 )
         {
             _log.addWarning( "servlet.log.warning.nolastmodified", path );
@@ -210,51 +276,33 @@ public class JnlpFileHandler
         }
 
         // Check if entry already exist in HashMap
-        JnlpFileEntry jnlpFile = (JnlpFileEntry) _jnlpFiles.get( reqUrl );
+        JnlpFileEntry jnlpFile = _jnlpFiles.get( reqUrl );
 
         if ( jnlpFile != null && jnlpFile.getLastModified() == lastModified )
         {
             // Entry found in cache, so return it
-            return jnlpFile.getResponse();
+            _metrics.jnlpCacheHit();
+            return jnlpFile.getResponse( dreq );
         }
+        _metrics.jnlpCacheMiss( jnlpFile != null );
 
-        // Read information from WAR file
-        long timeStamp = lastModified;
+        // Read information from WAR file, unless the template was read before
+        JnlpTemplate template = getTemplate( jnlpres );
+        long timeStamp = template.getTimeStamp();
         String mimeType = _servletContext.getMimeType( path );
         if ( mimeType == null )
         {
             mimeType = JNLP_MIME_TYPE;
         }
 
-        StringBuilder jnlpFileTemplate = new StringBuilder();
-        URLConnection conn = resource.openConnection();
-        BufferedReader br = new BufferedReader( new InputStreamReader( conn.getInputStream(), "UTF-8" ) );
-        String line = br.readLine();
-        if ( line != null && line.startsWith( "TS:" ) )
-        {
-            timeStamp = parseTimeStamp( line.substring( 3 ) );
-            _log.addDebug( "Timestamp: " + timeStamp + " " + new Date( timeStamp ) );
-            if ( timeStamp == 0 )
-            {
-                _log.addWarning( "servlet.log.warning.notimestamp", path );
-                timeStamp = lastModified;
-            }
-            line = br.readLine();
-        }
-        while ( line != null )
-        {
-            jnlpFileTemplate.append( line );
-            line = br.readLine();
-        }
-
-        String jnlpFileContent = specializeJnlpTemplate( dreq.getHttpRequest(), path, jnlpFileTemplate.toString() );
+        String jnlpFileContent = specializeJnlpTemplate( dreq.getHttpRequest(), path, template.getText() );
 
         /* SQE: We need to add query string back to href in jnlp file. We also need to handle JRE requirement for
        * the test. We reconstruct the xml DOM object, modify the value, then regenerate the jnlpFileContent.
        */
         String query = dreq.getQuery();
         String testJRE = dreq.getTestJRE();
-        _log.addDebug( "Double check query string: " + query );
+        _log.addDebug( "Double check query string: {0}", query );
         // For backward compatibility: Always check if the href value exists.
         // Bug 4939273: We will retain the jnlp template structure and will NOT add href value. Above old
         // approach to always check href value caused some test case not run.
@@ -300,12 +348,12 @@ public class JnlpFileHandler
                     StreamResult result = new StreamResult( sw );
                     transformer.transform( source, result );
                     jnlpFileContent = sw.toString();
-                    _log.addDebug( "Converted jnlpFileContent: " + jnlpFileContent );
+                    _log.addDebug( "Converted jnlpFileContent: {0}", jnlpFileContent );
                     // Since we modified the file on the fly, we always update the timestamp value with current time
                     if ( modified )
                     {
                         timeStamp = new java.util.Date().getTime();
-                        _log.addDebug( "Last modified on the fly:  " + timeStamp );
+                        _log.addDebug( "Last modified on the fly:  {0}", timeStamp );
                     }
                 }
             }
@@ -319,12 +367,123 @@ public class JnlpFileHandler
         byte[] byteContent = jnlpFileContent.getBytes( "UTF-8" );
 
         // Create entry
-        DownloadResponse resp =
-                DownloadResponse.getFileDownloadResponse( byteContent, mimeType, timeStamp, jnlpres.getReturnVersionId() );
-        jnlpFile = new JnlpFileEntry( resp, lastModified );
+        jnlpFile = createEntry( byteContent, mimeType, timeStamp, jnlpres, lastModified );
         _jnlpFiles.put( reqUrl, jnlpFile );
 
-        return resp;
+        return jnlpFile.getResponse( dreq );
+    }
+
+    /**
+     * Reads a JNLP template ahead of the first request for it
+     *
+     * @param jnlpres the JNLP file to read
+     * @throws IOException if the file cannot be read
+     */
+    void preloadTemplate( JnlpResource jnlpres )
+            throws IOException
+    {
+        getTemplate( jnlpres );
+    }
+
+    /**
+     * Loads the XML parser and transformer used to specialize JNLP files with a
+     * query string, ahead of the first request needing them
+     */
+    void preloadXmlFactories()
+    {
+        try
+        {
+            DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            TransformerFactory.newInstance().newTransformer();
+        }
+        catch ( Exception e )
+        {
+            _log.addDebug( e.toString(), e );
+        }
+    }
+
+    /**
+     * Returns the template of a JNLP file, reading it if it was modified since it was last read
+     */
+    private JnlpTemplate getTemplate( JnlpResource jnlpres )
+            throws IOException
+    {
+        String path = jnlpres.getPath();
+        long lastModified = jnlpres.getLastModified();
+        JnlpTemplate template = _templates.get( path );
+        if ( template != null && template._lastModified == lastModified )
+        {
+            return template;
+        }
+
+        long timeStamp = lastModified;
+        StringBuilder jnlpFileTemplate = new StringBuilder();
+        URLConnection conn = jnlpres.getResource().openConnection();
+        BufferedReader br = new BufferedReader( new InputStreamReader( conn.getInputStream(), "UTF-8" ) );
+        try
+        {
+            String line = br.readLine();
+            if ( line != null && line.startsWith( "TS:" ) )
+            {
+                timeStamp = parseTimeStamp( line.substring( 3 ) );
+                if ( _log.isDebugLevel() )
+                {
+                    _log.addDebug( "Timestamp: " + timeStamp + " " + new Date( timeStamp ) );
+                }
+                if ( timeStamp == 0 )
+                {
+                    _log.addWarning( "servlet.log.warning.notimestamp", path );
+                    timeStamp = lastModified;
+                }
+                line = br.readLine();
+            }
+            while ( line != null )
+            {
+                jnlpFileTemplate.append( line );
+                line = br.readLine();
+            }
+        }
+        finally
+        {
+            br.close();
+        }
+        template = new JnlpTemplate( jnlpFileTemplate.toString(), timeStamp, lastModified );
+        _templates.put( path, template );
+        return template;
+    }
+
+    /**
+     * Creates the cache entry of a specialized JNLP file, compressing it if enabled
+     */
+    private JnlpFileEntry createEntry( byte[] byteContent, String mimeType, long timeStamp, JnlpResource jnlpres,
+                                       long lastModified )
+            throws IOException
+    {
+        if ( !_compress )
+        {
+            return new JnlpFileEntry(
+                    DownloadResponse.getFileDownloadResponse( byteContent, mimeType, timeStamp,
+                                                              jnlpres.getReturnVersionId() ), null, lastModified );
+        }
+        // Both responses name the file, so that they send Vary: Accept-Encoding
+        DownloadResponse resp =
+                DownloadResponse.getFileDownloadResponse( byteContent, mimeType, timeStamp, jnlpres.getReturnVersionId(),
+                                                          jnlpres.getPath() );
+        DownloadResponse gzipResp = null;
+        if ( byteContent.length >= MIN_COMPRESS_SIZE )
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream( byteContent.length / 2 );
+            GZIPOutputStream gzos = new GZIPOutputStream( bos );
+            gzos.write( byteContent );
+            gzos.close();
+            if ( bos.size() < byteContent.length )
+            {
+                gzipResp = DownloadResponse.getFileDownloadResponse( bos.toByteArray(), mimeType, timeStamp,
+                                                                     jnlpres.getReturnVersionId(),
+                                                                     jnlpres.getPath() + ".gz" );
+            }
+        }
+        return new JnlpFileEntry( resp, gzipResp, lastModified );
     }
 
     /**
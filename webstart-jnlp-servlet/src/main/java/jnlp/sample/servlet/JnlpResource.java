@@ -37,10 +37,7 @@
 package jnlp.sample.servlet;
 
 import javax.servlet.ServletContext;
-import java.io.File;
-import java.io.IOException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.Date;
 
 /**
@@ -103,18 +100,20 @@ public class JnlpResource
 
     private String[] _localeList; // List of locales for which the resource should be returned
 
-    /* Information used for reply */
-    private String _path;            // Path to resource in WAR file (unique)
+    private long _osMask;         // Lists compiled by PlatformPrefixes, 0 if they have no mask
 
-    private URL _resource;        // URL to resource in WAR file (unique - same as above really)
+    private long _archMask;
 
-    private long _lastModified;    // Last modified in WAR file
+    private long _localeMask;
 
-    private String _mimeType;        // Mime-type for resource
+    /* Information used for reply */
+    private String _path;            // Path to resource in WAR file (unique)
 
     private String _returnVersionId; // Version Id to return
 
-    private String _encoding;        // Accept encoding
+    private volatile ResourceMetadata _metadata; // Resolved location of the resource, null until first used
+
+    private final ResourceMetadataCache _metadataCache; // Resolves the metadata, if it is not resolved yet
 
     public JnlpResource( ServletContext context, String path )
     {
@@ -129,131 +128,70 @@ public class JnlpResource
 
     public JnlpResource( ServletContext context, String name, String versionId, String[] osList, String[] archList,
                          String[] localeList, String path, String returnVersionId, String encoding )
+    {
+        /* Check for existance and get last modified timestamp */
+        this( name, versionId, osList, archList, localeList, returnVersionId,
+              ResourceMetadata.resolve( context, path, AcceptEncoding.valueOf( encoding ).getAcceptedVariants() ) );
+    }
+
+    /**
+     * Creates a resource with the given matching arguments, found as described by the metadata
+     */
+    JnlpResource( String name, String versionId, String[] osList, String[] archList, String[] localeList,
+                  String returnVersionId, ResourceMetadata metadata )
+    {
+        this( name, versionId, osList, archList, localeList, metadata.getPath(), returnVersionId, metadata, null );
+    }
+
+    /**
+     * Creates a resource with the given matching arguments, known to exist at the given
+     * path. Its metadata is resolved through the cache when the resource is first used.
+     */
+    JnlpResource( String name, String versionId, String[] osList, String[] archList, String[] localeList,
+                  String path, String returnVersionId, ResourceMetadataCache metadataCache )
+    {
+        this( name, versionId, osList, archList, localeList, path, returnVersionId, null, metadataCache );
+    }
+
+    private JnlpResource( String name, String versionId, String[] osList, String[] archList, String[] localeList,
+                          String path, String returnVersionId, ResourceMetadata metadata,
+                          ResourceMetadataCache metadataCache )
     {
         // Matching arguments
-        _encoding = encoding;
         _name = name;
         _versionId = versionId;
         _osList = osList;
         _archList = archList;
         _localeList = localeList;
+        _osMask = PlatformPrefixes.OS.compile( osList );
+        _archMask = PlatformPrefixes.ARCH.compile( archList );
+        _localeMask = PlatformPrefixes.LOCALE.compile( localeList );
 
         _returnVersionId = returnVersionId;
 
-        /* Check for existance and get last modified timestamp */
-        try
-        {
-            String orig_path = path.trim();
-            String search_path = orig_path;
-            _resource = context.getResource( orig_path );
-            _mimeType = getMimeType( context, orig_path );
-            if ( _resource != null )
-            {
-
-                boolean found = false;
-                // pack200 compression
-                if ( encoding != null && _mimeType != null &&
-                        ( _mimeType.compareTo( JAR_MIME_TYPE ) == 0 || _mimeType.compareTo( JAR_MIME_TYPE_NEW ) == 0 ) &&
-                        encoding.toLowerCase().contains( DownloadResponse.PACK200_GZIP_ENCODING ) )
-                {
-                    search_path = orig_path + ".pack.gz";
-                    _resource = context.getResource( search_path );
-                    // Get last modified time
-                    if ( _resource != null )
-                    {
-                        _lastModified = getLastModified( context, _resource, search_path );
-                        if ( _lastModified != 0 )
-                        {
-                            _path = search_path;
-                            found = true;
-                        }
-                        else
-                        {
-                            _resource = null;
-                        }
-                    }
-                }
-
-                // gzip compression
-                if ( !found && encoding != null &&
-                        encoding.toLowerCase().contains( DownloadResponse.GZIP_ENCODING ) )
-                {
-                    search_path = orig_path + ".gz";
-                    _resource = context.getResource( search_path );
-                    // Get last modified time
-                    if ( _resource != null )
-                    {
-                        _lastModified = getLastModified( context, _resource, search_path );
-                        if ( _lastModified != 0 )
-                        {
-                            _path = search_path;
-                            found = true;
-                        }
-                        else
-                        {
-                            _resource = null;
-                        }
-                    }
-                }
-
-                if ( !found )
-                {
-                    // no compression
-                    search_path = orig_path;
-                    _resource = context.getResource( search_path );
-                    // Get last modified time
-                    if ( _resource != null )
-                    {
-                        _lastModified = getLastModified( context, _resource, search_path );
-                        if ( _lastModified != 0 )
-                        {
-                            _path = search_path;
-                            found = true;
-                        }
-                        else
-                        {
-                            _resource = null;
-                        }
-                    }
-                }
-            }
-        }
-        catch ( IOException ioe )
-        {
-            _resource = null;
-        }
+        _path = path;
+        _metadata = metadata;
+        _metadataCache = metadataCache;
     }
 
-    long getLastModified( ServletContext context, URL resource, String path )
+    private ResourceMetadata getMetadata()
     {
-        long lastModified = 0;
-        URLConnection conn;
-        try
+        ResourceMetadata metadata = _metadata;
+        if ( metadata == null )
         {
-            // Get last modified time
-            conn = resource.openConnection();
-            lastModified = conn.getLastModified();
-        }
-        catch ( Exception e )
-        {
-            // do nothing
+            // Threads racing here resolve equivalent metadata
+            metadata = _metadataCache.get( _path, null );
+            _metadata = metadata;
         }
+        return metadata;
+    }
 
-        if ( lastModified == 0 )
-        {
-            // Arguably a bug in the JRE will not set the lastModified for file URLs, and
-            // always return 0. This is a workaround for that problem.
-            String filepath = context.getRealPath( path );
-            if ( filepath != null )
-            {
-                File f = new File( filepath );
-                if ( f.exists() )
-                {
-                    lastModified = f.lastModified();
-                }
-            }
-        }
-        return lastModified;
+    /**
+     * Tells whether the metadata of the resource was resolved
+     */
+    boolean isResolved()
+    {
+        return _metadata != null;
     }
 
     /* Get resource specific attributes */
@@ -264,22 +202,31 @@ public class JnlpResource
 
     public URL getResource()
     {
-        return _resource;
+        return getMetadata().getResource();
     }
 
     public String getMimeType()
     {
-        return _mimeType;
+        return getMetadata().getMimeType();
     }
 
     public long getLastModified()
     {
-        return _lastModified;
+        return getMetadata().getLastModified();
+    }
+
+    /**
+     * Returns the length of the resource, or -1 if unknown. It is resolved once,
+     * without reading the resource where the WAR file is expanded.
+     */
+    public long getContentLength()
+    {
+        return getMetadata().getContentLength();
     }
 
     public boolean exists()
     {
-        return _resource != null;
+        return getResource() != null;
     }
 
     public boolean isJnlpFile()
@@ -318,12 +265,32 @@ public class JnlpResource
         return _localeList;
     }
 
+    long getOSMask()
+    {
+        return _osMask;
+    }
+
+    long getArchMask()
+    {
+        return _archMask;
+    }
+
+    long getLocaleMask()
+    {
+        return _localeMask;
+    }
+
     public String getReturnVersionId()
     {
         return _returnVersionId;
     }
 
-    private String getMimeType( ServletContext context, String path )
+    static boolean isJarMimeType( String mimeType )
+    {
+        return JAR_MIME_TYPE.equals( mimeType ) || JAR_MIME_TYPE_NEW.equals( mimeType );
+    }
+
+    static String getMimeType( ServletContext context, String path )
     {
         String mimeType = context.getMimeType( path );
         if ( mimeType != null )
@@ -346,8 +313,9 @@ public class JnlpResource
      */
     public String toString()
     {
-        return "JnlpResource[WAR Path: " + _path + showEntry( " versionId=", _versionId ) +
-                showEntry( " name=", _name ) + " lastModified=" + new Date( _lastModified ) +
+        ResourceMetadata metadata = _metadata;
+        return "JnlpResource[WAR Path: " + _path + showEntry( " versionId=", _versionId ) + showEntry( " name=", _name ) +
+                ( metadata == null ? "" : " lastModified=" + new Date( metadata.getLastModified() ) ) +
                 showEntry( " osList=", _osList ) + showEntry( " archList=", _archList ) +
                 showEntry( " localeList=", _localeList ) + "]" + showEntry( " returnVersionId=", _returnVersionId ) + "]";
 
@@ -38,12 +38,10 @@ package jnlp.sample.servlet;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.text.MessageFormat;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 /* A loging object used by the servlets */
 public class Logger
@@ -74,6 +72,10 @@ public class Logger
 
     private final static String LOG_PATH = "logPath";
 
+    private final static String LOG_QUEUE_SIZE = "logQueueSize";
+
+    private final static String LOG_OVERFLOW = "logOverflow";
+
     private int _loggingLevel = FATAL;
 
     private ServletContext _servletContext = null;
@@ -82,13 +84,22 @@ public class Logger
 
     private String _servletName = null;
 
+    private AsyncLogWriter _logWriter = null;
+
     // Localization
     ResourceBundle _resources = null;
 
+    // Compiled message formats, per resource key
+    private final ConcurrentHashMap<String, MessageFormat> _formats = new ConcurrentHashMap<>();
+
 
     /**
      * Initialize logging object. It reads the logLevel and pathLevel init parameters.
      * Default is logging level FATAL, and logging using the ServletContext.log
+     * <p>
+     * When a logPath is given, events are written to it from a background thread.
+     * At most logQueueSize events are queued; beyond that, events are dropped, or
+     * the caller waits for room when logOverflow is set to <code>block</code>.
      *
      * @param config    TODO
      * @param resources TODO
@@ -107,6 +118,22 @@ public class Logger
                 _logFile = null;
             }
         }
+        if ( _logFile != null )
+        {
+            int queueSize = AsyncLogWriter.DEFAULT_QUEUE_SIZE;
+            String queueSizeParam = config.getInitParameter( LOG_QUEUE_SIZE );
+            if ( queueSizeParam != null )
+            {
+                try
+                {
+                    queueSize = Integer.parseInt( queueSizeParam.trim() );
+                }
+                catch ( NumberFormatException nfe )
+                { /* keep default */ }
+            }
+            _logWriter = new AsyncLogWriter( _logFile, _servletName, _servletContext, queueSize,
+                                             config.getInitParameter( LOG_OVERFLOW ) );
+        }
         String level = config.getInitParameter( LOG_LEVEL );
         if ( level != null )
         {
@@ -162,7 +189,10 @@ public class Logger
 
     public void addInformational( String key )
     {
-        logEvent( INFORMATIONAL, getString( key ), null );
+        if ( isInformationalLevel() )
+        {
+            logEvent( INFORMATIONAL, getString( key ), null );
+        }
     }
 
     public void addInformational( String key, String arg )
@@ -186,6 +216,65 @@ public class Logger
         logEvent( DEBUG, msg, throwable );
     }
 
+    /**
+     * Logs a debug message built from a pattern, where <code>{0}</code> is replaced
+     * by arg. The message is only built if the debug level is enabled, so callers
+     * can pass objects with an expensive toString.
+     *
+     * @param pattern the message, with <code>{0}</code> where arg goes
+     * @param arg     the argument, formatted only if the message is logged
+     */
+    public void addDebug( String pattern, Object arg )
+    {
+        if ( isDebugLevel() )
+        {
+            logEvent( DEBUG, formatDebug( pattern, new Object[]{arg} ), null );
+        }
+    }
+
+    public void addDebug( String pattern, Object arg1, Object arg2 )
+    {
+        if ( isDebugLevel() )
+        {
+            logEvent( DEBUG, formatDebug( pattern, new Object[]{arg1, arg2} ), null );
+        }
+    }
+
+    public void addDebug( String pattern, Object arg1, Object arg2, Object arg3 )
+    {
+        if ( isDebugLevel() )
+        {
+            logEvent( DEBUG, formatDebug( pattern, new Object[]{arg1, arg2, arg3} ), null );
+        }
+    }
+
+    /**
+     * Writes the pending events, and releases the log file
+     */
+    public void close()
+    {
+        if ( _logWriter != null )
+        {
+            _logWriter.close();
+        }
+    }
+
+    /**
+     * @return the number of events dropped because the log queue was full
+     */
+    long getDroppedEvents()
+    {
+        return _logWriter == null ? 0 : _logWriter.getDroppedCount();
+    }
+
+    /**
+     * @return the number of events whose caller waited because the log queue was full
+     */
+    long getBlockedEvents()
+    {
+        return _logWriter == null ? 0 : _logWriter.getBlockedCount();
+    }
+
     // Query to test for level
     boolean isNoneLevel()
     {
@@ -227,20 +316,29 @@ public class Logger
 
     private void logL10N( int level, String key, String arg, Throwable e )
     {
-        Object[] messageArguments = {arg};
-        logEvent( level, applyPattern( key, messageArguments ), e );
+        if ( level <= _loggingLevel )
+        {
+            Object[] messageArguments = {arg};
+            logEvent( level, applyPattern( key, messageArguments ), e );
+        }
     }
 
     private void logL10N( int level, String key, String arg1, String arg2 )
     {
-        Object[] messageArguments = {arg1, arg2};
-        logEvent( level, applyPattern( key, messageArguments ), null );
+        if ( level <= _loggingLevel )
+        {
+            Object[] messageArguments = {arg1, arg2};
+            logEvent( level, applyPattern( key, messageArguments ), null );
+        }
     }
 
     private void logL10N( int level, String key, String arg1, String arg2, String arg3 )
     {
-        Object[] messageArguments = {arg1, arg2, arg3};
-        logEvent( level, applyPattern( key, messageArguments ), null );
+        if ( level <= _loggingLevel )
+        {
+            Object[] messageArguments = {arg1, arg2, arg3};
+            logEvent( level, applyPattern( key, messageArguments ), null );
+        }
     }
 
     /**
@@ -248,14 +346,50 @@ public class Logger
      */
     private String applyPattern( String key, Object[] messageArguments )
     {
-        String message = getString( key );
-//        MessageFormat formatter = new MessageFormat( message );
-        String output = MessageFormat.format( message, messageArguments );
-        return output;
+        MessageFormat formatter = _formats.get( key );
+        if ( formatter == null )
+        {
+            formatter = new MessageFormat( getString( key ) );
+            _formats.put( key, formatter );
+        }
+        // MessageFormat is not thread safe
+        synchronized ( formatter )
+        {
+            return formatter.format( messageArguments );
+        }
+    }
+
+    /**
+     * Replaces <code>{n}</code> in pattern by the n'th argument. Unlike MessageFormat,
+     * arguments are inserted as is, and quotes have no special meaning.
+     */
+    private static String formatDebug( String pattern, Object[] args )
+    {
+        StringBuilder sb = new StringBuilder( pattern.length() + 32 * args.length );
+        int start = 0;
+        int open;
+        while ( ( open = pattern.indexOf( '{', start ) ) != -1 )
+        {
+            int close = pattern.indexOf( '}', open );
+            if ( close == open + 2 && Character.isDigit( pattern.charAt( open + 1 ) ) &&
+                    pattern.charAt( open + 1 ) - '0' < args.length )
+            {
+                sb.append( pattern, start, open );
+                sb.append( args[pattern.charAt( open + 1 ) - '0'] );
+            }
+            else
+            {
+                sb.append( pattern, start, open + 1 );
+                close = open;
+            }
+            start = close + 1;
+        }
+        sb.append( pattern, start, pattern.length() );
+        return sb.toString();
     }
 
     // The method that actually does the logging */
-    private synchronized void logEvent( int level, String string, Throwable throwable )
+    private void logEvent( int level, String string, Throwable throwable )
     {
         // Check if the event should be logged
         if ( level > _loggingLevel )
@@ -263,27 +397,14 @@ public class Logger
             return;
         }
 
-        if ( _logFile != null )
+        if ( _logWriter != null )
         {
-            // No logfile specified, log using servlet context
-            PrintWriter pw = null;
-            try
+            // Do a return here. A closed writer will cause a fall through to
+            // do _servletContex logging API
+            if ( _logWriter.offer( _servletName + "(" + level + "): " + string, throwable ) )
             {
-                pw = new PrintWriter( new FileWriter( _logFile, true ) );
-                pw.println( _servletName + "(" + level + "): " + string );
-                if ( throwable != null )
-                {
-                    throwable.printStackTrace( pw );
-                }
-                pw.close();
-                // Do a return here. An exception will cause a fall through to
-                // do _servletContex logging API
                 return;
             }
-            catch ( IOException ioe )
-            {
-                /* just ignore */
-            }
         }
 
         // Otherwise, write to servlet context log
@@ -297,4 +418,3 @@ public class Logger
         }
     }
 }
-
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+
+/**
+ * Resolves many resources in one request, for launchers that would
+ * otherwise send one request per jar.
+ * <p>
+ * The request lists one resource per line, in the body of a POST or in
+ * <code>resource</code> parameters: its path, and optionally its version-id
+ * and current-version-id, separated by spaces. The <code>os</code>,
+ * <code>arch</code> and <code>locale</code> parameters of the request apply to
+ * all of them. Each resource is matched as a download request would be, and
+ * the response is a JSON object with, for each of them in order, either the
+ * error a download would get, or the version to return, its size, SHA-256 hash
+ * and modification time, and the size of the JarDiff from the current version
+ * if one would be returned and was already generated.
+ * <p>
+ * Only JAR and JNLP files are listed; other paths, and anything under
+ * <code>WEB-INF</code> or <code>META-INF</code>, are reported as not found. No
+ * JarDiff is generated for a manifest, so a request cannot make the server
+ * compute many of them at once.
+ */
+class ManifestHandler
+{
+    private static final String PARAM_RESOURCE = "resource";
+
+    private static final String JSON_MIME_TYPE = "application/json;charset=UTF-8";
+
+    // Maximum number of resources in one request
+    private static final int MAX_RESOURCES = 1024;
+
+    private static final int DIGEST_CACHE_SIZE = 4096;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ResourceCatalog _resourceCatalog;
+
+    private final JarDiffHandler _jarDiffHandler;
+
+    private final Logger _log;
+
+    // SHA-256 of resources, keyed on path and modification time
+    private final BoundedCache<String, String> _digests = new BoundedCache<>( DIGEST_CACHE_SIZE );
+
+    ManifestHandler( ResourceCatalog resourceCatalog, JarDiffHandler jarDiffHandler, Logger log )
+    {
+        _resourceCatalog = resourceCatalog;
+        _jarDiffHandler = jarDiffHandler;
+        _log = log;
+    }
+
+    /**
+     * Sends the manifest of the resources listed in the request
+     *
+     * @param request  the request, listing the resources in its body or resource parameters
+     * @param response the response, to write the JSON manifest to
+     * @param dreq     the request, for its client and platform arguments
+     * @throws IOException if the request cannot be read or the manifest cannot be written
+     */
+    void sendManifest( HttpServletRequest request, HttpServletResponse response, DownloadRequest dreq )
+            throws IOException
+    {
+        List<String[]> entries = readEntries( request );
+        if ( entries == null )
+        {
+            response.sendError( HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE );
+            return;
+        }
+        _log.addDebug( "Manifest of {0} resources", entries.size() );
+
+        StringBuilder sb = new StringBuilder( 256 * entries.size() + 32 );
+        sb.append( "{\"resources\":[" );
+        for ( int i = 0; i < entries.size(); i++ )
+        {
+            String[] entry = entries.get( i );
+            if ( i > 0 )
+            {
+                sb.append( ',' );
+            }
+            sb.append( "{\"index\":" ).append( i );
+            AccessLog.appendString( sb, "path", entry[0] );
+            AccessLog.appendString( sb, "version", entry[1] );
+            AccessLog.appendString( sb, "currentVersion", entry[2] );
+            appendResolution( sb, dreq.getResourceRequest( entry[0], entry[1], entry[2] ) );
+            sb.append( '}' );
+        }
+        sb.append( "]}" );
+
+        response.setContentType( JSON_MIME_TYPE );
+        response.setHeader( "Cache-Control", "no-cache" );
+        response.getWriter().write( sb.toString() );
+    }
+
+    private void appendResolution( StringBuilder sb, DownloadRequest dreq )
+    {
+        try
+        {
+            JnlpResource jnlpres = locateResource( dreq );
+            AccessLog.appendString( sb, "returnVersion", jnlpres.getReturnVersionId() );
+            AccessLog.appendString( sb, "resourcePath", jnlpres.getPath() );
+            sb.append( ",\"size\":" ).append( jnlpres.getContentLength() );
+            sb.append( ",\"lastModified\":" ).append( jnlpres.getLastModified() );
+            AccessLog.appendString( sb, "sha256", getDigest( jnlpres ) );
+            if ( dreq.getCurrentVersionId() != null && jnlpres.isJarFile() )
+            {
+                long jarDiffSize = _jarDiffHandler.getCachedJarDiffSize( dreq, jnlpres );
+                if ( jarDiffSize != JarDiffHandler.UNKNOWN_SIZE )
+                {
+                    sb.append( ",\"jarDiff\":" ).append( jarDiffSize >= 0 );
+                }
+                if ( jarDiffSize >= 0 )
+                {
+                    sb.append( ",\"jarDiffSize\":" ).append( jarDiffSize );
+                }
+            }
+        }
+        catch ( ErrorResponseException ere )
+        {
+            DownloadResponse dres = ere.getDownloadResponse();
+            AccessLog.appendString( sb, "error", dres instanceof DownloadResponse.JnlpErrorResponse
+                    ? ( (DownloadResponse.JnlpErrorResponse) dres ).getMessage()
+                    : "not found" );
+        }
+        catch ( IOException ioe )
+        {
+            _log.addDebug( "Failed to resolve " + dreq.getPath(), ioe );
+            AccessLog.appendString( sb, "error", ioe.toString() );
+        }
+    }
+
+    /**
+     * Same lookup as for a download request, limited to the JAR and JNLP files the servlet serves
+     */
+    private JnlpResource locateResource( DownloadRequest dreq )
+            throws ErrorResponseException
+    {
+        if ( !isServedPath( dreq.getPath() ) )
+        {
+            throw new ErrorResponseException( DownloadResponse.getNoContentResponse() );
+        }
+        JnlpResource jnlpres;
+        if ( dreq.getVersion() == null )
+        {
+            if ( dreq.getPath().endsWith( "/" ) )
+            {
+                throw new ErrorResponseException( DownloadResponse.getNoContentResponse() );
+            }
+            jnlpres = _resourceCatalog.getResource( dreq.getPath() );
+            if ( !jnlpres.exists() )
+            {
+                throw new ErrorResponseException( DownloadResponse.getNoContentResponse() );
+            }
+        }
+        else
+        {
+            jnlpres = _resourceCatalog.lookupResource( dreq );
+        }
+        if ( !( jnlpres.isJarFile() || jnlpres.isJnlpFile() ) || !isServedPath( jnlpres.getPath() ) )
+        {
+            throw new ErrorResponseException( DownloadResponse.getNoContentResponse() );
+        }
+        return jnlpres;
+    }
+
+    /**
+     * Returns false for paths into WEB-INF or META-INF, or going up a directory
+     */
+    private static boolean isServedPath( String path )
+    {
+        String upper = path.replace( '\\', '/' ).toUpperCase( Locale.ENGLISH );
+        return !upper.startsWith( "/WEB-INF/" ) && !upper.startsWith( "/META-INF/" ) && !upper.contains( "/../" )
+                && !upper.endsWith( "/.." ) && !upper.contains( "//" ) && !upper.contains( "/./" );
+    }
+
+    /**
+     * Returns the SHA-256 hash of a resource, as hexadecimal digits
+     */
+    private String getDigest( JnlpResource jnlpres )
+            throws IOException
+    {
+        String key = jnlpres.getPath() + '\n' + jnlpres.getLastModified();
+        String digest = _digests.get( key );
+        if ( digest == null )
+        {
+            MessageDigest md;
+            try
+            {
+                md = MessageDigest.getInstance( "SHA-256" );
+            }
+            catch ( NoSuchAlgorithmException nsae )
+            {
+                return null;
+            }
+            InputStream in = jnlpres.getResource().openStream();
+            try
+            {
+                byte[] bytes = new byte[32 * 1024];
+                int read;
+                while ( ( read = in.read( bytes ) ) != -1 )
+                {
+                    md.update( bytes, 0, read );
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            byte[] hash = md.digest();
+            char[] hex = new char[hash.length * 2];
+            for ( int i = 0; i < hash.length; i++ )
+            {
+                hex[2 * i] = HEX[( hash[i] >> 4 ) & 0xf];
+                hex[2 * i + 1] = HEX[hash[i] & 0xf];
+            }
+            digest = new String( hex );
+            _digests.put( key, digest );
+        }
+        return digest;
+    }
+
+    /**
+     * Reads the resources listed in the request
+     *
+     * @return the path, version-id and current-version-id of each resource, or null if there are too many
+     */
+    private List<String[]> readEntries( HttpServletRequest request )
+            throws IOException
+    {
+        List<String[]> entries = new ArrayList<>();
+        if ( "POST".equals( request.getMethod() ) )
+        {
+            BufferedReader reader = request.getReader();
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                if ( !addEntry( entries, line ) )
+                {
+                    return null;
+                }
+            }
+        }
+        else
+        {
+            String[] lines = request.getParameterValues( PARAM_RESOURCE );
+            if ( lines != null )
+            {
+                for ( String line : lines )
+                {
+                    if ( !addEntry( entries, line ) )
+                    {
+                        return null;
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static boolean addEntry( List<String[]> entries, String line )
+    {
+        StringTokenizer st = new StringTokenizer( line );
+        if ( !st.hasMoreTokens() )
+        {
+            return true;
+        }
+        if ( entries.size() >= MAX_RESOURCES )
+        {
+            return false;
+        }
+        String[] entry = new String[3];
+        for ( int i = 0; i < entry.length && st.hasMoreTokens(); i++ )
+        {
+            entry[i] = st.nextToken();
+        }
+        if ( !entry[0].startsWith( "/" ) )
+        {
+            entry[0] = "/" + entry[0];
+        }
+        entries.add( entry );
+        return true;
+    }
+}
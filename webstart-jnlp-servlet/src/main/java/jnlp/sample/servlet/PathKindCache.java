@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+
+/**
+ * Remembers which request paths are directories of the web application, so
+ * that a {@link DownloadRequest} does not probe the file system each time it
+ * decides whether to append <code>launch.jnlp</code> to its path.
+ * <p>
+ * There is one cache per servlet context, kept as one of its attributes.
+ * Entries expire after a few seconds, so that directories created or removed
+ * while the application runs are noticed.
+ */
+class PathKindCache
+{
+    private static final String ATTRIBUTE = PathKindCache.class.getName();
+
+    // Time an entry is trusted, in nanoseconds
+    private static final long TTL = 5L * 1000L * 1000L * 1000L;
+
+    private static final int CACHE_LIMIT = 4096;
+
+    private final ServletContext _servletContext;
+
+    private final BoundedCache<String, Entry> _entries = new BoundedCache<>( CACHE_LIMIT );
+
+    private static class Entry
+    {
+        private final boolean _directory;
+
+        private final long _expires;
+
+        Entry( boolean directory, long expires )
+        {
+            _directory = directory;
+            _expires = expires;
+        }
+    }
+
+    private PathKindCache( ServletContext servletContext )
+    {
+        _servletContext = servletContext;
+    }
+
+    /**
+     * Returns the cache of a servlet context, creating it if needed
+     *
+     * @param servletContext context of the web application
+     * @return the cache, kept as an attribute of the context
+     */
+    static PathKindCache getInstance( ServletContext servletContext )
+    {
+        Object cache = servletContext.getAttribute( ATTRIBUTE );
+        if ( cache instanceof PathKindCache )
+        {
+            return (PathKindCache) cache;
+        }
+        // Two requests may race to create it, and then briefly use distinct caches
+        PathKindCache created = new PathKindCache( servletContext );
+        servletContext.setAttribute( ATTRIBUTE, created );
+        return created;
+    }
+
+    /**
+     * Tells whether a path is a directory of the web application
+     *
+     * @param path path in the web application, not ending with '/'
+     * @return true if the path is a directory, as seen up to five seconds ago
+     */
+    boolean isDirectory( String path )
+    {
+        long now = System.nanoTime();
+        Entry entry = _entries.get( path );
+        if ( entry != null && now - entry._expires < 0 )
+        {
+            return entry._directory;
+        }
+
+        boolean directory = false;
+        String realPath = _servletContext.getRealPath( path );
+        // fix for 4474021 - getRealPath might returns NULL
+        if ( realPath != null )
+        {
+            directory = new File( realPath ).isDirectory();
+        }
+        _entries.put( path, new Entry( directory, now + TTL ) );
+        return directory;
+    }
+}
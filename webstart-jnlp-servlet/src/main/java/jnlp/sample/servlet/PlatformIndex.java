@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.VersionID;
+import jnlp.sample.util.VersionString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The platform entries of a version.xml file, by name, from the newest
+ * version to the oldest.
+ * <p>
+ * A platform request is answered by the first entry of its name matching
+ * the requested versions and platform, which is also the newest matching
+ * one, instead of going through all the entries of the file.
+ */
+class PlatformIndex
+{
+    private final Map<String, Candidate[]> _byName = new HashMap<>();
+
+    private static final class Candidate
+    {
+        private final JnlpResource _resource;
+
+        private final VersionID _versionId;
+
+        Candidate( JnlpResource resource )
+        {
+            _resource = resource;
+            _versionId = VersionID.valueOf( resource.getVersionId() );
+        }
+    }
+
+    // Newest first; the sort is stable, so equal versions keep the order of the file
+    private static final Comparator<Candidate> NEWEST_FIRST = new Comparator<Candidate>()
+    {
+        public int compare( Candidate a, Candidate b )
+        {
+            return b._versionId.compareTo( a._versionId );
+        }
+    };
+
+    PlatformIndex( List platformList )
+    {
+        Map<String, List<Candidate>> byName = new HashMap<>();
+        for ( Object entry : platformList )
+        {
+            JnlpResource res = (JnlpResource) entry;
+            List<Candidate> candidates = byName.get( res.getName() );
+            if ( candidates == null )
+            {
+                candidates = new ArrayList<>();
+                byName.put( res.getName(), candidates );
+            }
+            candidates.add( new Candidate( res ) );
+        }
+        for ( Map.Entry<String, List<Candidate>> entry : byName.entrySet() )
+        {
+            List<Candidate> candidates = entry.getValue();
+            Collections.sort( candidates, NEWEST_FIRST );
+            _byName.put( entry.getKey(), candidates.toArray( new Candidate[candidates.size()] ) );
+        }
+    }
+
+    /**
+     * Finds the newest platform matching a request, with the same result as
+     * {@link ResourceCatalog#findMatch(List, String, DownloadRequest, JnlpResource[])}
+     *
+     * @param catalog the catalog matching each candidate against the request
+     * @param name    name of the platform
+     * @param dreq    the request, with the wanted version and the client's platform
+     * @param result  array with room for one element, receiving the match
+     * @return DownloadResponse.STS_00_OK, or the most specific error code
+     */
+    int findMatch( ResourceCatalog catalog, String name, DownloadRequest dreq, JnlpResource[] result )
+    {
+        Candidate[] candidates = _byName.get( name );
+        if ( candidates == null )
+        {
+            return DownloadResponse.ERR_10_NO_RESOURCE;
+        }
+        int error = DownloadResponse.ERR_10_NO_RESOURCE;
+        VersionString vs = VersionString.valueOf( dreq.getVersion() );
+        for ( Candidate candidate : candidates )
+        {
+            int sts = catalog.matchEntry( name, vs, dreq, candidate._resource, candidate._versionId );
+            if ( sts == DownloadResponse.STS_00_OK )
+            {
+                result[0] = candidate._resource;
+                return sts;
+            }
+            error = Math.max( error, sts );
+        }
+        return error;
+    }
+
+    /**
+     * Tells whether the platform is one of those the client said it already knows
+     *
+     * @param res  the platform matching the request
+     * @param dreq the request, with the known-platforms of the client
+     * @return true if the client already has this version of the platform
+     */
+    static boolean isKnownPlatform( JnlpResource res, DownloadRequest dreq )
+    {
+        String[] knownPlatforms = dreq.getKnownPlatforms();
+        if ( knownPlatforms == null )
+        {
+            return false;
+        }
+        VersionID versionId = VersionID.valueOf( res.getVersionId() );
+        VersionID productVersionId = VersionID.valueOf( res.getReturnVersionId() );
+        for ( String knownPlatform : knownPlatforms )
+        {
+            VersionID known = VersionID.valueOf( knownPlatform );
+            if ( known.equals( versionId ) || known.equals( productVersionId ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
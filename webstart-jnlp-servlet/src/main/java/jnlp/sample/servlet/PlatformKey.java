@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+
+/**
+ * The <code>os</code>, <code>arch</code> and <code>locale</code> arguments of
+ * a request, split into lists.
+ * <p>
+ * Clients send the same few combinations of arguments, so keys are shared
+ * between requests: {@link #valueOf(String, String, String)} returns the same
+ * instance for the same arguments, as long as it stays in its bounded cache.
+ * Keys can then be compared by identity, and their lists are never modified.
+ */
+final class PlatformKey
+{
+    private static final int CACHE_LIMIT = 256;
+
+    private static final BoundedCache<String, PlatformKey> KEYS = new BoundedCache<>( CACHE_LIMIT );
+
+    private static final BoundedCache<String, String[]> LISTS = new BoundedCache<>( CACHE_LIMIT );
+
+    static final PlatformKey NONE = new PlatformKey( null, null, null );
+
+    private final String[] _os;
+
+    private final String[] _arch;
+
+    private final String[] _locale;
+
+    // Masks of the values against the prefixes of the catalog, see PlatformPrefixes
+    private volatile Masks _masks = null;
+
+    static final class Masks
+    {
+        private final long _os;
+
+        private final long _arch;
+
+        private final long _locale;
+
+        private final int _osSize;
+
+        private final int _archSize;
+
+        private final int _localeSize;
+
+        private Masks( PlatformKey key )
+        {
+            // Sizes first, so that prefixes added meanwhile compute the masks again
+            _osSize = PlatformPrefixes.OS.size();
+            _archSize = PlatformPrefixes.ARCH.size();
+            _localeSize = PlatformPrefixes.LOCALE.size();
+            _os = PlatformPrefixes.OS.match( key._os );
+            _arch = PlatformPrefixes.ARCH.match( key._arch );
+            _locale = PlatformPrefixes.LOCALE.match( key._locale );
+        }
+
+        private boolean isCurrent()
+        {
+            return _osSize == PlatformPrefixes.OS.size() && _archSize == PlatformPrefixes.ARCH.size() &&
+                    _localeSize == PlatformPrefixes.LOCALE.size();
+        }
+
+        long getOS()
+        {
+            return _os;
+        }
+
+        long getArch()
+        {
+            return _arch;
+        }
+
+        long getLocale()
+        {
+            return _locale;
+        }
+    }
+
+    private PlatformKey( String[] os, String[] arch, String[] locale )
+    {
+        _os = os;
+        _arch = arch;
+        _locale = locale;
+    }
+
+    /**
+     * Returns the key for the given arguments
+     *
+     * @param os     value of the os argument, may be null
+     * @param arch   value of the arch argument, may be null
+     * @param locale value of the locale argument, may be null
+     * @return the shared key, NONE if all the arguments are null
+     */
+    static PlatformKey valueOf( String os, String arch, String locale )
+    {
+        if ( os == null && arch == null && locale == null )
+        {
+            return NONE;
+        }
+        // Null and empty arguments both give null lists, ' ' is not in a trimmed argument
+        String spec = ( os == null ? "" : os ) + '\n' + ( arch == null ? "" : arch ) + '\n' +
+                ( locale == null ? "" : locale );
+        PlatformKey key = KEYS.get( spec );
+        if ( key == null )
+        {
+            key = new PlatformKey( getList( os ), getList( arch ), getList( locale ) );
+            PlatformKey existing = KEYS.putIfAbsent( spec, key );
+            if ( existing != null )
+            {
+                key = existing;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns a space separated argument split into a list, shared with
+     * other requests sending the same argument
+     *
+     * @param value trimmed value of the argument, may be null
+     * @return the list, or null if it is empty
+     */
+    static String[] getList( String value )
+    {
+        if ( value == null || value.length() == 0 )
+        {
+            return null;
+        }
+        String[] list = LISTS.get( value );
+        if ( list == null )
+        {
+            list = DownloadRequest.getStringList( value );
+            if ( list == null )
+            {
+                return null;
+            }
+            for ( int i = 0; i < list.length; i++ )
+            {
+                list[i] = list[i].intern();
+            }
+            LISTS.put( value, list );
+        }
+        return list;
+    }
+
+    /**
+     * Returns the masks of the arguments, computed once for all the resources
+     * matched against them
+     */
+    Masks getMasks()
+    {
+        Masks masks = _masks;
+        if ( masks == null || !masks.isCurrent() )
+        {
+            masks = new Masks( this );
+            _masks = masks;
+        }
+        return masks;
+    }
+
+    String[] getOS()
+    {
+        return _os;
+    }
+
+    String[] getArch()
+    {
+        return _arch;
+    }
+
+    String[] getLocale()
+    {
+        return _locale;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The distinct os, arch or locale prefixes of the resources of the catalog,
+ * each given one bit of a mask, so that matching a request against a
+ * resource is a bitwise AND instead of comparing their lists of strings.
+ * <p>
+ * A resource's mask has the bits of its prefixes. A request's mask has the
+ * bits of the known prefixes its values start with. They match when they have
+ * a bit in common, as with {@link ResourceCatalog#prefixMatchLists(String[], String[])}.
+ * Prefixes only get a bit while there are less than 64 of them; resources
+ * with other prefixes have no mask, and are matched on their strings.
+ */
+final class PlatformPrefixes
+{
+    static final PlatformPrefixes OS = new PlatformPrefixes();
+
+    static final PlatformPrefixes ARCH = new PlatformPrefixes();
+
+    static final PlatformPrefixes LOCALE = new PlatformPrefixes();
+
+    private static final int MAX_PREFIXES = 64;
+
+    private final ConcurrentMap<String, Integer> _ids = new ConcurrentHashMap<>();
+
+    // Prefixes by bit, replaced when one is added
+    private volatile String[] _prefixes = new String[0];
+
+    private PlatformPrefixes()
+    {
+    }
+
+    /**
+     * Number of prefixes given a bit so far; masks of requests computed with
+     * fewer prefixes must be computed again
+     */
+    int size()
+    {
+        return _prefixes.length;
+    }
+
+    /**
+     * Returns the mask of the prefixes of a resource
+     *
+     * @param prefixes os, arch or locale list of a resource, may be null
+     * @return the mask, or 0 if the list is null or empty or some prefix has no bit
+     */
+    long compile( String[] prefixes )
+    {
+        if ( prefixes == null )
+        {
+            return 0;
+        }
+        long mask = 0;
+        for ( String prefix : prefixes )
+        {
+            int id = getId( prefix );
+            if ( id < 0 )
+            {
+                return 0;
+            }
+            mask |= 1L << id;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the mask of the values of a request
+     *
+     * @param keys os, arch or locale values of the request, may be null
+     * @return the bits of all the prefixes of the values
+     */
+    long match( String[] keys )
+    {
+        if ( keys == null )
+        {
+            return 0;
+        }
+        String[] prefixes = _prefixes;
+        long mask = 0;
+        for ( int i = 0; i < prefixes.length; i++ )
+        {
+            for ( String key : keys )
+            {
+                if ( key.startsWith( prefixes[i] ) )
+                {
+                    mask |= 1L << i;
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private int getId( String prefix )
+    {
+        Integer id = _ids.get( prefix );
+        if ( id != null )
+        {
+            return id;
+        }
+        synchronized ( this )
+        {
+            id = _ids.get( prefix );
+            if ( id != null )
+            {
+                return id;
+            }
+            String[] prefixes = _prefixes;
+            if ( prefixes.length >= MAX_PREFIXES )
+            {
+                return -1;
+            }
+            String[] added = new String[prefixes.length + 1];
+            System.arraycopy( prefixes, 0, added, 0, prefixes.length );
+            added[prefixes.length] = prefix;
+            // The prefix gets its bit before any resource uses it
+            _prefixes = added;
+            _ids.put( prefix, prefixes.length );
+            return prefixes.length;
+        }
+    }
+}
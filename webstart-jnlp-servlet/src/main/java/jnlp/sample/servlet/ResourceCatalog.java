@@ -36,19 +36,23 @@
 
 package jnlp.sample.servlet;
 
+import jnlp.sample.util.BoundedCache;
 import jnlp.sample.util.VersionID;
 import jnlp.sample.util.VersionString;
-import org.w3c.dom.Document;
 import org.xml.sax.SAXParseException;
 
 import javax.servlet.ServletContext;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ResourceCatalog
 {
@@ -58,7 +62,18 @@ public class ResourceCatalog
 
     private ServletContext _servletContext = null;
 
-    private HashMap _entries;
+    private ConcurrentHashMap<String, PathEntries> _entries;
+
+    private DownloadMetrics _metrics = null;
+
+    private ResourceMetadataCache _metadataCache = null;
+
+    private boolean _readVersionIndex = true;
+
+    private boolean _writeVersionIndex = false;
+
+    // Number of remembered matches per directory
+    private static final int MATCH_CACHE_LIMIT = 256;
 
     /**
      * Class to contain the information we know
@@ -69,18 +84,29 @@ public class ResourceCatalog
         /* Version-based entries at this particular path */
         private List _versionXmlList;
 
-        private List _directoryList;
+        private volatile List _directoryList;
 
         private List _platformList;
 
+        private final PlatformIndex _platformIndex;
+
         /* Last time this entry was updated */
         private long _lastModified; // Last modified time of entry;
 
-        public PathEntries( List versionXmlList, List directoryList, List platformList, long lastModified )
+        /* Resources found for previous requests, until the directory is scanned again */
+        private final BoundedCache<MatchKey, JnlpResource> _matches = new BoundedCache<>( MATCH_CACHE_LIMIT );
+
+        /* Resources read from version.xml, by entry, kept when it is read again */
+        private final Map<String, JnlpResource> _versionXmlResources;
+
+        public PathEntries( List versionXmlList, List directoryList, List platformList,
+                            Map<String, JnlpResource> versionXmlResources, long lastModified )
         {
             _versionXmlList = versionXmlList;
+            _versionXmlResources = versionXmlResources;
             _directoryList = directoryList;
             _platformList = platformList;
+            _platformIndex = new PlatformIndex( platformList );
             _lastModified = lastModified;
         }
 
@@ -88,6 +114,22 @@ public class ResourceCatalog
         public void setDirectoryList( List dirList )
         {
             _directoryList = dirList;
+            _matches.clear();
+        }
+
+        JnlpResource getVersionXmlResource( String key )
+        {
+            return _versionXmlResources.get( key );
+        }
+
+        JnlpResource getMatch( MatchKey key )
+        {
+            return _matches.get( key );
+        }
+
+        void putMatch( MatchKey key, JnlpResource jnlpres )
+        {
+            _matches.put( key, jnlpres );
         }
 
         public List getVersionXmlList()
@@ -105,17 +147,110 @@ public class ResourceCatalog
             return _platformList;
         }
 
+        PlatformIndex getPlatformIndex()
+        {
+            return _platformIndex;
+        }
+
         public long getLastModified()
         {
             return _lastModified;
         }
     }
 
+    /**
+     * What a lookup depends on, besides the entries of the directory. The
+     * platform arguments are shared keys, compared by identity.
+     */
+    static private final class MatchKey
+    {
+        private final String _name;
+
+        private final String _version;
+
+        private final PlatformKey _platformKey;
+
+        private final boolean _isPlatformRequest;
+
+        private final int _hashCode;
+
+        MatchKey( String name, DownloadRequest dreq )
+        {
+            _name = name;
+            _version = dreq.getVersion();
+            _platformKey = dreq.getPlatformKey();
+            _isPlatformRequest = dreq.isPlatformRequest();
+            int hashCode = _name.hashCode() * 31 + ( _version == null ? 0 : _version.hashCode() );
+            _hashCode = hashCode * 31 + _platformKey.hashCode();
+        }
+
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+
+        public boolean equals( Object o )
+        {
+            if ( !( o instanceof MatchKey ) )
+            {
+                return false;
+            }
+            MatchKey other = (MatchKey) o;
+            return _hashCode == other._hashCode && _platformKey == other._platformKey &&
+                    _isPlatformRequest == other._isPlatformRequest && _name.equals( other._name ) &&
+                    ( _version == null ? other._version == null : _version.equals( other._version ) );
+        }
+    }
+
     public ResourceCatalog( ServletContext servletContext, Logger log )
     {
-        _entries = new HashMap();
+        this( servletContext, log, new DownloadMetrics() );
+    }
+
+    public ResourceCatalog( ServletContext servletContext, Logger log, DownloadMetrics metrics )
+    {
+        _metrics = metrics;
+        _entries = new ConcurrentHashMap<>();
         _servletContext = servletContext;
         _log = log;
+        _metadataCache = new ResourceMetadataCache( servletContext );
+    }
+
+    /**
+     * Sets how the binary index kept next to version.xml files is used, see {@link VersionIndex}
+     *
+     * @param read  true to read version.xml entries from an up to date index
+     * @param write true to write the index of the version.xml files parsed
+     */
+    public void setVersionIndex( boolean read, boolean write )
+    {
+        _readVersionIndex = read;
+        _writeVersionIndex = write;
+    }
+
+    /**
+     * Returns the resource at the given path, for the basic protocol
+     *
+     * @param path path of the resource in the web application
+     * @return the resource, which does not exist if nothing is found at the path
+     */
+    public JnlpResource getResource( String path )
+    {
+        return new JnlpResource( null, null, null, null, null, null, _metadataCache.get( path, null ) );
+    }
+
+    /**
+     * Returns the given resource, in the encoding best accepted by the client
+     *
+     * @param jnlpres  the resource matched for the request
+     * @param encoding Accept-Encoding of the request, may be null
+     * @return the same resource, with the path and metadata of the variant to send
+     */
+    public JnlpResource getEncodedResource( JnlpResource jnlpres, String encoding )
+    {
+        return new JnlpResource( jnlpres.getName(), jnlpres.getVersionId(), jnlpres.getOSList(),
+                                 jnlpres.getArchList(), jnlpres.getLocaleList(), jnlpres.getReturnVersionId(),
+                                 _metadataCache.get( jnlpres.getPath(), encoding ) );
     }
 
 
@@ -125,7 +260,7 @@ public class ResourceCatalog
         // Split request up into path and name
         String path = dreq.getPath();
         String name = null;
-        String dir = null;
+        String dir = "/";
         int idx = path.lastIndexOf( '/' );
         if ( idx == -1 )
         {
@@ -137,20 +272,14 @@ public class ResourceCatalog
             dir = path.substring( 0, idx + 1 ); // Include '/'
         }
 
-        // Lookup up already parsed entries, and san directory for entries if neccesary
-        PathEntries pentries = (PathEntries) _entries.get( dir );
-        JnlpResource xmlVersionResPath = new JnlpResource( _servletContext, dir + VERSION_XML_FILENAME );
-        if ( pentries == null ||
-                ( xmlVersionResPath.exists() && xmlVersionResPath.getLastModified() > pentries.getLastModified() ) )
+        PathEntries pentries = getPathEntries( dir, dreq );
+
+        // Same request as a previous one
+        MatchKey matchKey = new MatchKey( name, dreq );
+        JnlpResource match = pentries.getMatch( matchKey );
+        if ( match != null )
         {
-            _log.addInformational( "servlet.log.scandir", dir );
-            List dirList = scanDirectory( dir, dreq );
-            // Scan XML file
-            List versionList = new ArrayList();
-            List platformList = new ArrayList();
-            parseVersionXML( versionList, platformList, dir, xmlVersionResPath );
-            pentries = new PathEntries( versionList, dirList, platformList, xmlVersionResPath.getLastModified() );
-            _entries.put( dir, pentries );
+            return checkKnownPlatform( match, dreq );
         }
 
         // Search for a match
@@ -158,7 +287,7 @@ public class ResourceCatalog
 
         if ( dreq.isPlatformRequest() )
         {
-            int sts = findMatch( pentries.getPlatformList(), name, dreq, result );
+            int sts = pentries.getPlatformIndex().findMatch( this, name, dreq, result );
             if ( sts != DownloadResponse.STS_00_OK )
             {
                 throw new ErrorResponseException( DownloadResponse.getJnlpErrorResponse( sts ) );
@@ -177,6 +306,8 @@ public class ResourceCatalog
 
                     // fix for 4450104
                     // try rescan and see if it helps
+                    _metrics.directoryRescanned();
+                    _metadataCache.invalidate( dir );
                     pentries.setDirectoryList( scanDirectory( dir, dreq ) );
                     sts2 = findMatch( pentries.getDirectoryList(), name, dreq, result );
                     // try again after rescanning directory
@@ -189,7 +320,64 @@ public class ResourceCatalog
                 }
             }
         }
-        return result[0];
+        pentries.putMatch( matchKey, result[0] );
+        return checkKnownPlatform( result[0], dreq );
+    }
+
+    /**
+     * A client listing the matching platform among its known platforms already has it
+     */
+    private static JnlpResource checkKnownPlatform( JnlpResource match, DownloadRequest dreq )
+            throws ErrorResponseException
+    {
+        if ( dreq.isPlatformRequest() && PlatformIndex.isKnownPlatform( match, dreq ) )
+        {
+            throw new ErrorResponseException( DownloadResponse.getNotModifiedResponse() );
+        }
+        return match;
+    }
+
+    /**
+     * Scans a directory and reads its version.xml file ahead of the first
+     * request for one of its resources
+     *
+     * @param dir directory path, ending with '/'
+     * @return the resources read from version.xml
+     */
+    List preload( String dir )
+    {
+        return getPathEntries( dir, null ).getVersionXmlList();
+    }
+
+    /**
+     * Returns the entries of a directory, scanning it if it was not yet, or if
+     * its version.xml file was modified since
+     *
+     * @param dreq the request for a resource of the directory, or null when preloading it
+     */
+    private PathEntries getPathEntries( String dir, DownloadRequest dreq )
+    {
+        // Lookup up already parsed entries, and san directory for entries if neccesary
+        PathEntries pentries = _entries.get( dir );
+        // Checked on every lookup, so resolved through the metadata cache
+        JnlpResource xmlVersionResPath = getResource( dir + VERSION_XML_FILENAME );
+        if ( pentries == null ||
+                ( xmlVersionResPath.exists() && xmlVersionResPath.getLastModified() > pentries.getLastModified() ) )
+        {
+            _log.addInformational( "servlet.log.scandir", dir );
+            _metrics.directoryScanned();
+            _metadataCache.invalidate( dir );
+            List dirList = scanDirectory( dir, dreq );
+            // Scan XML file
+            List versionList = new ArrayList();
+            List platformList = new ArrayList();
+            Map<String, JnlpResource> versionXmlResources = new HashMap<>();
+            parseVersionXML( versionList, platformList, versionXmlResources, dir, xmlVersionResPath, pentries );
+            pentries = new PathEntries( versionList, dirList, platformList, versionXmlResources,
+                                        xmlVersionResPath.getLastModified() );
+            _entries.put( dir, pentries );
+        }
+        return pentries;
     }
 
     /**
@@ -219,12 +407,12 @@ public class ResourceCatalog
         // Setup return values
         VersionID bestVersionId = null;
         int error = DownloadResponse.ERR_10_NO_RESOURCE;
-        VersionString vs = new VersionString( dreq.getVersion() );
+        VersionString vs = VersionString.valueOf( dreq.getVersion() );
         // Iterate through entries
         for ( Object aList : list )
         {
             JnlpResource respath = (JnlpResource) aList;
-            VersionID vid = new VersionID( respath.getVersionId() );
+            VersionID vid = VersionID.valueOf( respath.getVersionId() );
             int sts = matchEntry( name, vs, dreq, respath, vid );
             if ( sts == DownloadResponse.STS_00_OK )
             {
@@ -252,21 +440,44 @@ public class ResourceCatalog
         {
             return DownloadResponse.ERR_11_NO_VERSION;
         }
-        if ( !prefixMatchLists( jnlpres.getOSList(), dreq.getOS() ) )
+        if ( jnlpres.getOSList() == null && jnlpres.getArchList() == null && jnlpres.getLocaleList() == null )
+        {
+            return DownloadResponse.STS_00_OK;
+        }
+        PlatformKey.Masks masks = dreq.getPlatformKey().getMasks();
+        if ( !prefixMatch( jnlpres.getOSList(), jnlpres.getOSMask(), dreq.getOS(), masks.getOS() ) )
         {
             return DownloadResponse.ERR_20_UNSUP_OS;
         }
-        if ( !prefixMatchLists( jnlpres.getArchList(), dreq.getArch() ) )
+        if ( !prefixMatch( jnlpres.getArchList(), jnlpres.getArchMask(), dreq.getArch(), masks.getArch() ) )
         {
             return DownloadResponse.ERR_21_UNSUP_ARCH;
         }
-        if ( !prefixMatchLists( jnlpres.getLocaleList(), dreq.getLocale() ) )
+        if ( !prefixMatch( jnlpres.getLocaleList(), jnlpres.getLocaleMask(), dreq.getLocale(),
+                           masks.getLocale() ) )
         {
             return DownloadResponse.ERR_22_UNSUP_LOCALE;
         }
         return DownloadResponse.STS_00_OK;
     }
 
+    /**
+     * Same as {@link #prefixMatchLists(String[], String[])}, with the masks of
+     * both lists when the prefixes have one
+     */
+    private boolean prefixMatch( String[] prefixes, long prefixMask, String[] keys, long keyMask )
+    {
+        if ( prefixes == null )
+        {
+            return true;
+        }
+        if ( prefixMask != 0 && keys != null )
+        {
+            return ( prefixMask & keyMask ) != 0;
+        }
+        return prefixMatchLists( prefixes, keys );
+    }
+
 
     private static boolean prefixMatchStringList( String[] prefixList, String target )
     {
@@ -407,6 +618,11 @@ public class ResourceCatalog
         // fix for 4474021
         if ( _servletContext.getRealPath( dirPath ) == null )
         {
+            if ( dreq == null )
+            {
+                // Nothing to look for yet
+                return null;
+            }
             String path = jnlpGetPath( dreq );
 
             String name = dreq.getPath().substring( path.lastIndexOf( "/" ) + 1 );
@@ -425,13 +641,15 @@ public class ResourceCatalog
             return list;
         }
         File dir = new File( _servletContext.getRealPath( dirPath ) );
-        _log.addDebug( "File directory: " + dir );
-        if ( dir.exists() && dir.isDirectory() )
+        _log.addDebug( "File directory: {0}", dir );
+        // Names only, most of which are skipped without parsing them
+        String[] names = dir.isDirectory() ? dir.list() : null;
+        if ( names != null )
         {
-            File[] entries = dir.listFiles();
-            for ( File entry : entries )
+            FileEntryParser parser = new FileEntryParser( _servletContext );
+            for ( String filename : names )
             {
-                JnlpResource jnlpres = parseFileEntry( dirPath, entry.getName() );
+                JnlpResource jnlpres = filename.indexOf( "__" ) == -1 ? null : parser.parse( dirPath, filename );
                 if ( jnlpres != null )
                 {
                     if ( _log.isDebugLevel() )
@@ -445,111 +663,166 @@ public class ResourceCatalog
         return list;
     }
 
-    private JnlpResource parseFileEntry( String dir, String filename )
+    /**
+     * Parses the version-based file names of a directory. The lists of options
+     * are reused from one name to the next, and the name is only cut where
+     * the parts of the resource start.
+     */
+    static final class FileEntryParser
     {
-        int idx = filename.indexOf( "__" );
-        if ( idx == -1 )
-        {
-            return null;
-        }
+        private final ServletContext _servletContext;
 
-        // Cut out name
-        String name = filename.substring( 0, idx );
-        String rest = filename.substring( idx );
+        private final List<String> _osList = new ArrayList<>();
 
-        // Cut out extension
-        idx = rest.lastIndexOf( '.' );
-        String extension = "";
-        if ( idx != -1 )
+        private final List<String> _archList = new ArrayList<>();
+
+        private final List<String> _localeList = new ArrayList<>();
+
+        FileEntryParser( ServletContext servletContext )
         {
-            extension = rest.substring( idx );
-            rest = rest.substring( 0, idx );
+            _servletContext = servletContext;
         }
 
-        // Parse options
-        String versionId = null;
-        ArrayList osList = new ArrayList();
-        ArrayList archList = new ArrayList();
-        ArrayList localeList = new ArrayList();
-        while ( rest.length() > 0 )
+        /**
+         * Returns the resource named by a file, or null if the name is not version-based or is malformed
+         */
+        JnlpResource parse( String dir, String filename )
         {
-            /* Must start with __ at this point */
-            if ( !rest.startsWith( "__" ) )
-            {
-                return null;
-            }
-            rest = rest.substring( 2 );
-            // Get option and argument
-            char option = rest.charAt( 0 );
-            idx = rest.indexOf( "__" );
-            String arg = null;
+            int idx = filename.indexOf( "__" );
             if ( idx == -1 )
             {
-                arg = rest.substring( 1 );
-                rest = "";
+                return null;
             }
-            else
+
+            // The extension starts at the last '.' after the name
+            int end = filename.lastIndexOf( '.' );
+            if ( end < idx )
             {
-                arg = rest.substring( 1, idx );
-                rest = rest.substring( idx );
+                end = filename.length();
             }
-            switch ( option )
+
+            // Parse options
+            String versionId = null;
+            _osList.clear();
+            _archList.clear();
+            _localeList.clear();
+            int pos = idx;
+            while ( pos < end )
             {
-                case 'V':
-                    versionId = arg;
-                    break;
-                case 'O':
-                    osList.add( arg );
-                    break;
-                case 'A':
-                    archList.add( arg );
-                    break;
-                case 'L':
-                    localeList.add( arg );
-                    break;
-                default:
-                    return null; // error
+                /* Must start with __ at this point, followed by an option */
+                if ( !filename.startsWith( "__", pos ) || pos + 2 >= end )
+                {
+                    return null;
+                }
+                pos += 2;
+                char option = filename.charAt( pos );
+                int next = filename.indexOf( "__", pos + 1 );
+                if ( next == -1 || next > end )
+                {
+                    next = end;
+                }
+                String arg = filename.substring( pos + 1, next );
+                pos = next;
+                switch ( option )
+                {
+                    case 'V':
+                        versionId = arg;
+                        break;
+                    case 'O':
+                        _osList.add( arg );
+                        break;
+                    case 'A':
+                        _archList.add( arg );
+                        break;
+                    case 'L':
+                        _localeList.add( arg );
+                        break;
+                    default:
+                        return null; // error
+                }
             }
-        }
 
-        return new JnlpResource( _servletContext, name + extension, /* Resource name in URL request */
-                                 versionId, listToStrings( osList ), listToStrings( archList ),
-                                 listToStrings( localeList ), dir + filename, /* Resource name in WAR file */
-                                 versionId );
+            String name = end == filename.length()
+                    ? filename.substring( 0, idx )
+                    : filename.substring( 0, idx ) + filename.substring( end );
+            return new JnlpResource( _servletContext, name, /* Resource name in URL request */
+                                     versionId, listToStrings( _osList ), listToStrings( _archList ),
+                                     listToStrings( _localeList ), dir + filename, /* Resource name in WAR file */
+                                     versionId );
+        }
     }
 
-    private String[] listToStrings( List list )
+    private static String[] listToStrings( List<String> list )
     {
         if ( list.size() == 0 )
         {
             return null;
         }
-        return (String[]) list.toArray( new String[list.size()] );
+        return list.toArray( new String[list.size()] );
     }
 
     // Returns false if parsing failed
-    private void parseVersionXML( final List versionList, final List platformList, final String dir,
-                                  final JnlpResource versionRes )
+    private void parseVersionXML( List versionList, List platformList, Map<String, JnlpResource> resources,
+                                  String dir, JnlpResource versionRes, PathEntries previous )
     {
         if ( !versionRes.exists() )
         {
             return;
         }
 
-        // Parse XML into a more understandable format
-        XMLNode root = null;
+        List<VersionXmlParser.Entry> resourceEntries;
+        List<VersionXmlParser.Entry> platformEntries;
         try
         {
-            DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-            Document doc = docBuilder.parse( new BufferedInputStream( versionRes.getResource().openStream() ) );
-            doc.getDocumentElement().normalize();
+            byte[] versionXml = readFully( versionRes );
+            long crc = VersionIndex.checksum( versionXml );
+            String realDir = _servletContext.getRealPath( dir );
+            File indexFile = realDir == null ? null : new File( realDir, VersionIndex.INDEX_FILENAME );
+
+            VersionIndex index = null;
+            if ( _readVersionIndex && indexFile != null && indexFile.isFile() )
+            {
+                // A bad index must not lose the entries of version.xml, which is parsed instead
+                try
+                {
+                    index = VersionIndex.read( indexFile, versionXml.length, crc );
+                    _log.addDebug( index == null ? "Stale index {0}" : "Read index {0}", indexFile );
+                }
+                catch ( IOException | RuntimeException e )
+                {
+                    _log.addWarning( "servlet.log.warning.version-index.read", indexFile.getPath(), e.toString() );
+                }
+            }
+            if ( index != null )
+            {
+                resourceEntries = index.getResources();
+                platformEntries = index.getPlatforms();
+            }
+            else
+            {
+                VersionXmlParser parser = new VersionXmlParser( _log, versionRes.getPath() );
+                parser.parse( new ByteArrayInputStream( versionXml ) );
+                // Check that root element is a <jnlp> tag
+                if ( !parser.isVersionsRoot() )
+                {
+                    _log.addWarning( "servlet.log.warning.xml.missing-jnlp", versionRes.getPath() );
+                    return;
+                }
+                resourceEntries = parser.getResources();
+                platformEntries = parser.getPlatforms();
 
-            // Convert document into an XMLNode structure, since we already got utility methods
-            //  to handle these. We should really use the data-binding stuff here - but that will come
-            //  later
-            //
-            root = XMLParsing.convert( doc.getDocumentElement() );
+                if ( _writeVersionIndex && indexFile != null )
+                {
+                    try
+                    {
+                        VersionIndex.write( indexFile, versionXml.length, crc, resourceEntries, platformEntries );
+                    }
+                    catch ( IOException ioe )
+                    {
+                        _log.addWarning( "servlet.log.warning.version-index", versionRes.getPath(), ioe.toString() );
+                    }
+                }
+            }
         }
         catch ( SAXParseException err )
         {
@@ -563,107 +836,85 @@ public class ResourceCatalog
             return;
         }
 
-        // Check that root element is a <jnlp> tag
-        if ( !root.getName().equals( "jnlp-versions" ) )
+        // One listing of the directory answers most existence checks
+        Set<String> dirPaths = _servletContext.getResourcePaths( dir );
+        addVersionXmlEntries( resourceEntries, versionList, resources, dir, dirPaths, versionRes, previous );
+        addVersionXmlEntries( platformEntries, platformList, resources, dir, dirPaths, versionRes, previous );
+    }
+
+    private static byte[] readFully( JnlpResource res )
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 16 * 1024 );
+        InputStream in = res.getResource().openStream();
+        try
         {
-            _log.addWarning( "servlet.log.warning.xml.missing-jnlp", versionRes.getPath() );
-            return;
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, read );
+            }
         }
-
-        // Visit all <resource> elements
-        XMLParsing.visitElements( root, "<resource>", new XMLParsing.ElementVisitor()
+        finally
         {
-            public void visitElement( XMLNode node )
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private void addVersionXmlEntries( List<VersionXmlParser.Entry> entries, List list,
+                                       Map<String, JnlpResource> resources, String dir, Set<String> dirPaths,
+                                       JnlpResource versionRes, PathEntries previous )
+    {
+        for ( VersionXmlParser.Entry entry : entries )
+        {
+            String path = dir + entry.getFile();
+            String key = entry.getKey();
+            JnlpResource res = previous == null ? null : previous.getVersionXmlResource( key );
+            // Resources not resolved yet are only known from the previous listing
+            boolean exists = res != null && res.isResolved() && !isModified( res );
+            if ( !exists )
             {
-                XMLNode pattern = XMLParsing.findElementPath( node, "<pattern>" );
-                if ( pattern == null )
+                if ( dirPaths != null && entry.getFile().indexOf( '/' ) == -1 )
                 {
-                    _log.addWarning( "servlet.log.warning.xml.missing-pattern", versionRes.getPath() );
+                    // Listed files exist, and are only resolved once a request matches them
+                    exists = dirPaths.contains( path );
+                    res = new JnlpResource( entry.getName(), entry.getVersionId(), entry.getOS(), entry.getArch(),
+                                            entry.getLocale(), path, entry.getReturnVersionId(), _metadataCache );
                 }
                 else
                 {
-                    // Parse pattern
-                    String name = XMLParsing.getElementContent( pattern, "<name>", "" );
-                    String versionId = XMLParsing.getElementContent( pattern, "<version-id>" );
-                    String[] os = XMLParsing.getMultiElementContent( pattern, "<os>" );
-                    String[] arch = XMLParsing.getMultiElementContent( pattern, "<arch>" );
-                    String[] locale = XMLParsing.getMultiElementContent( pattern, "<locale>" );
-                    // Get return request
-                    String file = XMLParsing.getElementContent( node, "<file>" );
-                    if ( versionId == null || file == null )
-                    {
-                        _log.addWarning( "servlet.log.warning.xml.missing-elems", versionRes.getPath() );
-                    }
-                    else
-                    {
-                        JnlpResource res =
-                                new JnlpResource( _servletContext, name, versionId, os, arch, locale, dir + file,
-                                                  versionId );
-                        if ( res.exists() )
-                        {
-                            versionList.add( res );
-                            if ( _log.isDebugLevel() )
-                            {
-                                _log.addDebug( "Read resource: " + res );
-                            }
-                        }
-                        else
-                        {
-                            _log.addWarning( "servlet.log.warning.missing-file", file, versionRes.getPath() );
-                        }
-                    }
+                    res = new JnlpResource( entry.getName(), entry.getVersionId(), entry.getOS(), entry.getArch(),
+                                            entry.getLocale(), entry.getReturnVersionId(),
+                                            _metadataCache.get( path, null ) );
+                    exists = res.exists();
                 }
             }
-        } );
-
-        // Visit all <resource> elements
-        XMLParsing.visitElements( root, "<platform>", new XMLParsing.ElementVisitor()
-        {
-            public void visitElement( XMLNode node )
+            if ( exists )
             {
-                XMLNode pattern = XMLParsing.findElementPath( node, "<pattern>" );
-                if ( pattern == null )
+                list.add( res );
+                resources.put( key, res );
+                if ( _log.isDebugLevel() )
                 {
-                    _log.addWarning( "servlet.log.warning.xml.missing-pattern", versionRes.getPath() );
-                }
-                else
-                {
-                    // Parse pattern
-                    String name = XMLParsing.getElementContent( pattern, "<name>", "" );
-                    String versionId = XMLParsing.getElementContent( pattern, "<version-id>" );
-                    String[] os = XMLParsing.getMultiElementContent( pattern, "<os>" );
-                    String[] arch = XMLParsing.getMultiElementContent( pattern, "<arch>" );
-                    String[] locale = XMLParsing.getMultiElementContent( pattern, "<locale>" );
-                    // Get return request
-                    String file = XMLParsing.getElementContent( node, "<file>" );
-                    String productId = XMLParsing.getElementContent( node, "<product-version-id>" );
-
-                    if ( versionId == null || file == null || productId == null )
-                    {
-                        _log.addWarning( "servlet.log.warning.xml.missing-elems2", versionRes.getPath() );
-                    }
-                    else
-                    {
-                        JnlpResource res =
-                                new JnlpResource( _servletContext, name, versionId, os, arch, locale, dir + file,
-                                                  productId );
-                        if ( res.exists() )
-                        {
-                            platformList.add( res );
-                            if ( _log.isDebugLevel() )
-                            {
-                                _log.addDebug( "Read platform resource: " + res );
-                            }
-                        }
-                        else
-                        {
-                            _log.addWarning( "servlet.log.warning.missing-file", file, versionRes.getPath() );
-                        }
-                    }
+                    _log.addDebug( "Read resource: " + res );
                 }
             }
-        } );
+            else
+            {
+                _log.addWarning( "servlet.log.warning.missing-file", entry.getFile(), versionRes.getPath() );
+            }
+        }
     }
-}
-
 
+    /**
+     * Tells whether the file of a resource kept from the previous reading of
+     * version.xml was replaced since. Resources not expanded to the file system
+     * are part of the Web Archive, and never change.
+     */
+    private boolean isModified( JnlpResource res )
+    {
+        String realPath = _servletContext.getRealPath( res.getPath() );
+        return realPath != null && new File( realPath ).lastModified() != res.getLastModified();
+    }
+}
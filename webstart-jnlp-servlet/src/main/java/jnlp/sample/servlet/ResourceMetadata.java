@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Where a resource of the Web Archive is found, in the encoding best
+ * accepted by the client, when it was last modified and how large it is.
+ * <p>
+ * Resolving it takes a lookup in the servlet context for each acceptable
+ * variant, each opening a connection to the resource, so it is cached by
+ * the {@link ResourceMetadataCache}.
+ */
+final class ResourceMetadata
+{
+    private static final long UNKNOWN_LENGTH = -2;
+
+    private final ServletContext _context;
+
+    private final String _path;
+
+    private final URL _resource;
+
+    private final String _mimeType;
+
+    private final long _lastModified;
+
+    // Resolved on first use, as only HEAD requests and downloads need it
+    private volatile long _contentLength = UNKNOWN_LENGTH;
+
+    private ResourceMetadata( ServletContext context, String path, URL resource, String mimeType, long lastModified )
+    {
+        _context = context;
+        _path = path;
+        _resource = resource;
+        _mimeType = mimeType;
+        _lastModified = lastModified;
+    }
+
+    /**
+     * Path of the resource in the WAR file, with the extension of its encoding,
+     * or null if it does not exist
+     */
+    String getPath()
+    {
+        return _path;
+    }
+
+    URL getResource()
+    {
+        return _resource;
+    }
+
+    String getMimeType()
+    {
+        return _mimeType;
+    }
+
+    long getLastModified()
+    {
+        return _lastModified;
+    }
+
+    /**
+     * Length of the resource, from the file system where the WAR is expanded,
+     * or else from the resource itself
+     *
+     * @return the length, or -1 if unknown
+     */
+    long getContentLength()
+    {
+        long length = _contentLength;
+        if ( length == UNKNOWN_LENGTH )
+        {
+            length = -1;
+            if ( _resource != null )
+            {
+                String filepath = _context.getRealPath( _path );
+                File f = filepath == null ? null : new File( filepath );
+                if ( f != null && f.isFile() )
+                {
+                    length = f.length();
+                }
+                else
+                {
+                    try
+                    {
+                        length = _resource.openConnection().getContentLength();
+                    }
+                    catch ( IOException ioe )
+                    { /* unknown */ }
+                }
+            }
+            _contentLength = length;
+        }
+        return length;
+    }
+
+    /**
+     * Looks up a resource in the servlet context, picking the smallest of its
+     * precompressed variants accepted by the client
+     *
+     * @param context          context of the web application holding the resource
+     * @param path             path of the resource in the web application
+     * @param acceptedVariants bit mask of the acceptable {@link EncodingVariant}s
+     * @return the metadata, whose resource is null if the path does not exist
+     */
+    static ResourceMetadata resolve( ServletContext context, String path, int acceptedVariants )
+    {
+        String orig_path = path.trim();
+        String mimeType = JnlpResource.getMimeType( context, orig_path );
+        try
+        {
+            if ( context.getResource( orig_path ) != null )
+            {
+                ResourceMetadata found = null;
+                EncodingVariant[] variants = EncodingVariant.getVariants();
+                for ( int i = 0; i < variants.length; i++ )
+                {
+                    if ( ( acceptedVariants & ( 1 << i ) ) != 0 && variants[i].appliesTo( mimeType ) )
+                    {
+                        ResourceMetadata variant = lookup( context, orig_path + variants[i].getSuffix(), mimeType );
+                        if ( variant != null && ( found == null || isSmaller( variant, found ) ) )
+                        {
+                            found = variant;
+                        }
+                    }
+                }
+
+                // no compression
+                if ( found == null )
+                {
+                    found = lookup( context, orig_path, mimeType );
+                }
+
+                if ( found != null )
+                {
+                    return found;
+                }
+            }
+        }
+        catch ( IOException ioe )
+        { /* not found */ }
+        return new ResourceMetadata( context, null, null, mimeType, 0 );
+    }
+
+    /**
+     * Compares lengths, an unknown length being larger than any known one
+     */
+    private static boolean isSmaller( ResourceMetadata a, ResourceMetadata b )
+    {
+        long lengthA = a.getContentLength();
+        long lengthB = b.getContentLength();
+        return lengthA >= 0 && ( lengthB < 0 || lengthA < lengthB );
+    }
+
+    private static ResourceMetadata lookup( ServletContext context, String search_path, String mimeType )
+            throws IOException
+    {
+        URL resource = context.getResource( search_path );
+        if ( resource != null )
+        {
+            // Get last modified time
+            long lastModified = getLastModified( context, resource, search_path );
+            if ( lastModified != 0 )
+            {
+                return new ResourceMetadata( context, search_path, resource, mimeType, lastModified );
+            }
+        }
+        return null;
+    }
+
+    static long getLastModified( ServletContext context, URL resource, String path )
+    {
+        long lastModified = 0;
+        URLConnection conn;
+        try
+        {
+            // Get last modified time
+            conn = resource.openConnection();
+            lastModified = conn.getLastModified();
+        }
+        catch ( Exception e )
+        {
+            // do nothing
+        }
+
+        if ( lastModified == 0 )
+        {
+            // Arguably a bug in the JRE will not set the lastModified for file URLs, and
+            // always return 0. This is a workaround for that problem.
+            String filepath = context.getRealPath( path );
+            if ( filepath != null )
+            {
+                File f = new File( filepath );
+                if ( f.exists() )
+                {
+                    lastModified = f.lastModified();
+                }
+            }
+        }
+        return lastModified;
+    }
+}
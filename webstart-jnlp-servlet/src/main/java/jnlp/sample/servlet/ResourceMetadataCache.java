@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.BoundedCache;
+
+import javax.servlet.ServletContext;
+import java.util.Iterator;
+
+/**
+ * Cache of {@link ResourceMetadata}, keyed on the path of a resource and
+ * the variants accepted by the client.
+ * <p>
+ * The {@link ResourceCatalog} invalidates the entries of a directory when it
+ * scans it again. Entries also expire after a short time, so that files
+ * replaced outside of a rescan are noticed.
+ */
+class ResourceMetadataCache
+{
+    // Time an entry is trusted, in nanoseconds
+    private static final long TTL = 1000L * 1000L * 1000L;
+
+    private static final int CACHE_LIMIT = 4096;
+
+    private final ServletContext _servletContext;
+
+    private final BoundedCache<String, Entry> _entries = new BoundedCache<>( CACHE_LIMIT );
+
+    private static class Entry
+    {
+        private final ResourceMetadata _metadata;
+
+        private final long _expires;
+
+        Entry( ResourceMetadata metadata, long expires )
+        {
+            _metadata = metadata;
+            _expires = expires;
+        }
+    }
+
+    ResourceMetadataCache( ServletContext servletContext )
+    {
+        _servletContext = servletContext;
+    }
+
+    /**
+     * Returns the metadata of a resource in the encoding best accepted by the client
+     *
+     * @param path     path of the resource in the web application
+     * @param encoding Accept-Encoding of the request, may be null
+     * @return the metadata, possibly cached for up to a second
+     */
+    ResourceMetadata get( String path, String encoding )
+    {
+        int acceptedVariants = AcceptEncoding.valueOf( encoding ).getAcceptedVariants();
+        // Only the accepted variants matter, not how the client spelled them
+        String key = path + '\n' + acceptedVariants;
+
+        long now = System.nanoTime();
+        Entry entry = _entries.get( key );
+        if ( entry != null && now - entry._expires < 0 )
+        {
+            return entry._metadata;
+        }
+
+        ResourceMetadata metadata = ResourceMetadata.resolve( _servletContext, path, acceptedVariants );
+        _entries.put( key, new Entry( metadata, now + TTL ) );
+        return metadata;
+    }
+
+    /**
+     * Drops the entries of the resources in the given directory
+     *
+     * @param dir directory path, ending with '/'
+     */
+    void invalidate( String dir )
+    {
+        for ( Iterator<String> it = _entries.keySet().iterator(); it.hasNext(); )
+        {
+            String key = it.next();
+            if ( key.startsWith( dir ) && key.indexOf( '/', dir.length() ) == -1 )
+            {
+                it.remove();
+            }
+        }
+    }
+}
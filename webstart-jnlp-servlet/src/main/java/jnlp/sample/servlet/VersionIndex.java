@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary form of the entries of a version.xml file, kept next to
+ * it, so that catalogs which only change at deploy time are not parsed again
+ * each time the servlet starts.
+ * <p>
+ * The index records the length and CRC-32 of the version.xml file it was
+ * built from, and is ignored when they no longer match. It holds a sorted
+ * table of the distinct strings of the file, followed by the entries in the
+ * order of the file, each referring to its strings by their position in the
+ * table:
+ * <pre>
+ * int      magic, int format
+ * long     length of version.xml, long CRC-32 of version.xml
+ * int      number of strings, then for each: int length, UTF-8 bytes
+ * int      number of entries, then for each:
+ *          byte platform, int name, int version-id, int file, int product-version-id,
+ *          the os, arch and locale lists, each as int count then int strings
+ * </pre>
+ * Absent strings are written as -1.
+ */
+final class VersionIndex
+{
+    static final String INDEX_FILENAME = "version.idx";
+
+    private static final int MAGIC = 0x4A564958; // "JVIX"
+
+    private static final int FORMAT = 1;
+
+    private static final String UTF8 = "UTF-8";
+
+    // Smallest size of an entry: platform flag, four strings and three empty lists
+    private static final int MIN_ENTRY_SIZE = 1 + 4 * 4 + 3 * 4;
+
+    private final List<VersionXmlParser.Entry> _resources;
+
+    private final List<VersionXmlParser.Entry> _platforms;
+
+    private VersionIndex( List<VersionXmlParser.Entry> resources, List<VersionXmlParser.Entry> platforms )
+    {
+        _resources = resources;
+        _platforms = platforms;
+    }
+
+    List<VersionXmlParser.Entry> getResources()
+    {
+        return _resources;
+    }
+
+    List<VersionXmlParser.Entry> getPlatforms()
+    {
+        return _platforms;
+    }
+
+    /**
+     * Computes the CRC-32 of the contents of a version.xml file, recorded in its index
+     */
+    static long checksum( byte[] versionXml )
+    {
+        CRC32 crc = new CRC32();
+        crc.update( versionXml, 0, versionXml.length );
+        return crc.getValue();
+    }
+
+    /**
+     * Reads an index by mapping it into memory
+     *
+     * @param file      the index file
+     * @param xmlLength length of the current version.xml file
+     * @param xmlCrc    CRC-32 of the current version.xml file
+     * @return the index, or null if it was built from another version.xml, or is not a valid index
+     * @throws IOException if the file cannot be read
+     */
+    static VersionIndex read( File file, long xmlLength, long xmlCrc )
+            throws IOException
+    {
+        ByteBuffer buffer;
+        FileInputStream in = new FileInputStream( file );
+        try
+        {
+            FileChannel channel = in.getChannel();
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        }
+        finally
+        {
+            in.close();
+        }
+        try
+        {
+            return read( buffer, xmlLength, xmlCrc );
+        }
+        catch ( RuntimeException re )
+        {
+            // Truncated or corrupt index
+            return null;
+        }
+    }
+
+    private static VersionIndex read( ByteBuffer buffer, long xmlLength, long xmlCrc )
+            throws IOException
+    {
+        if ( buffer.getInt() != MAGIC || buffer.getInt() != FORMAT || buffer.getLong() != xmlLength ||
+                buffer.getLong() != xmlCrc )
+        {
+            return null;
+        }
+
+        // Counts are checked against what is left of the file before allocating for them
+        int stringCount = buffer.getInt();
+        if ( stringCount < 0 || stringCount > buffer.remaining() / 4 )
+        {
+            return null;
+        }
+        String[] strings = new String[stringCount];
+        byte[] bytes = new byte[256];
+        for ( int i = 0; i < strings.length; i++ )
+        {
+            int length = buffer.getInt();
+            if ( length < 0 || length > buffer.remaining() )
+            {
+                return null;
+            }
+            if ( length > bytes.length )
+            {
+                bytes = new byte[length];
+            }
+            buffer.get( bytes, 0, length );
+            strings[i] = new String( bytes, 0, length, UTF8 );
+        }
+
+        int count = buffer.getInt();
+        if ( count < 0 || count > buffer.remaining() / MIN_ENTRY_SIZE )
+        {
+            return null;
+        }
+        List<VersionXmlParser.Entry> resources = new ArrayList<>( count );
+        List<VersionXmlParser.Entry> platforms = new ArrayList<>();
+        for ( int i = 0; i < count; i++ )
+        {
+            boolean platform = buffer.get() != 0;
+            String name = getString( buffer, strings );
+            String versionId = getString( buffer, strings );
+            String file = getString( buffer, strings );
+            String productVersionId = getString( buffer, strings );
+            String[] os = getStrings( buffer, strings );
+            String[] arch = getStrings( buffer, strings );
+            String[] locale = getStrings( buffer, strings );
+            VersionXmlParser.Entry entry =
+                    new VersionXmlParser.Entry( platform, name, versionId, os, arch, locale, file, productVersionId );
+            ( platform ? platforms : resources ).add( entry );
+        }
+        return new VersionIndex( resources, platforms );
+    }
+
+    private static String getString( ByteBuffer buffer, String[] strings )
+    {
+        int index = buffer.getInt();
+        return index < 0 ? null : strings[index];
+    }
+
+    private static String[] getStrings( ByteBuffer buffer, String[] strings )
+    {
+        int count = buffer.getInt();
+        if ( count == 0 )
+        {
+            return null;
+        }
+        if ( count < 0 || count > buffer.remaining() / 4 )
+        {
+            throw new IllegalStateException( "Invalid list length " + count );
+        }
+        String[] list = new String[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            list[i] = getString( buffer, strings );
+        }
+        return list;
+    }
+
+    /**
+     * Writes the index of the entries of a version.xml file. The index is
+     * written to a temporary file first, and then renamed, so that servlets
+     * never read a partial index.
+     *
+     * @param file      the index file
+     * @param xmlLength length of version.xml
+     * @param xmlCrc    CRC-32 of version.xml
+     * @param resources the resource entries of version.xml, in the order of the file
+     * @param platforms the platform entries of version.xml, in the order of the file
+     * @throws IOException if the index cannot be written or renamed
+     */
+    static void write( File file, long xmlLength, long xmlCrc, List<VersionXmlParser.Entry> resources,
+                       List<VersionXmlParser.Entry> platforms )
+            throws IOException
+    {
+        List<VersionXmlParser.Entry> entries = new ArrayList<>( resources.size() + platforms.size() );
+        entries.addAll( resources );
+        entries.addAll( platforms );
+
+        // Sorted table of the distinct strings
+        Map<String, Integer> table = new TreeMap<>();
+        for ( VersionXmlParser.Entry entry : entries )
+        {
+            addString( table, entry.getName() );
+            addString( table, entry.getVersionId() );
+            addString( table, entry.getFile() );
+            addString( table, entry.getProductVersionId() );
+            addStrings( table, entry.getOS() );
+            addStrings( table, entry.getArch() );
+            addStrings( table, entry.getLocale() );
+        }
+        int index = 0;
+        for ( Map.Entry<String, Integer> string : table.entrySet() )
+        {
+            string.setValue( index++ );
+        }
+
+        File tmp = File.createTempFile( INDEX_FILENAME, ".tmp", file.getParentFile() );
+        try
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+            try
+            {
+                out.writeInt( MAGIC );
+                out.writeInt( FORMAT );
+                out.writeLong( xmlLength );
+                out.writeLong( xmlCrc );
+                out.writeInt( table.size() );
+                for ( String string : table.keySet() )
+                {
+                    byte[] bytes = string.getBytes( UTF8 );
+                    out.writeInt( bytes.length );
+                    out.write( bytes );
+                }
+                out.writeInt( entries.size() );
+                for ( VersionXmlParser.Entry entry : entries )
+                {
+                    out.writeByte( entry.isPlatform() ? 1 : 0 );
+                    writeString( out, table, entry.getName() );
+                    writeString( out, table, entry.getVersionId() );
+                    writeString( out, table, entry.getFile() );
+                    writeString( out, table, entry.getProductVersionId() );
+                    writeStrings( out, table, entry.getOS() );
+                    writeStrings( out, table, entry.getArch() );
+                    writeStrings( out, table, entry.getLocale() );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+            if ( !tmp.renameTo( file ) && !( file.delete() && tmp.renameTo( file ) ) )
+            {
+                throw new IOException( "Cannot rename " + tmp + " to " + file );
+            }
+        }
+        finally
+        {
+            if ( tmp.exists() && !tmp.delete() )
+            {
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    private static void addString( Map<String, Integer> table, String string )
+    {
+        if ( string != null )
+        {
+            table.put( string, 0 );
+        }
+    }
+
+    private static void addStrings( Map<String, Integer> table, String[] strings )
+    {
+        if ( strings != null )
+        {
+            for ( String string : strings )
+            {
+                addString( table, string );
+            }
+        }
+    }
+
+    private static void writeString( DataOutputStream out, Map<String, Integer> table, String string )
+            throws IOException
+    {
+        out.writeInt( string == null ? -1 : table.get( string ) );
+    }
+
+    private static void writeStrings( DataOutputStream out, Map<String, Integer> table, String[] strings )
+            throws IOException
+    {
+        out.writeInt( strings == null ? 0 : strings.length );
+        if ( strings != null )
+        {
+            for ( String string : strings )
+            {
+                writeString( out, table, string );
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the entries of a version.xml file in a single pass, without building
+ * a document tree.
+ * <p>
+ * The file is expected to look like:
+ * <pre>
+ * &lt;jnlp-versions&gt;
+ *   &lt;resource&gt;
+ *     &lt;pattern&gt;
+ *       &lt;name&gt;...&lt;/name&gt;
+ *       &lt;version-id&gt;...&lt;/version-id&gt;
+ *       &lt;os&gt;...&lt;/os&gt; &lt;arch&gt;...&lt;/arch&gt; &lt;locale&gt;...&lt;/locale&gt;
+ *     &lt;/pattern&gt;
+ *     &lt;file&gt;...&lt;/file&gt;
+ *   &lt;/resource&gt;
+ *   &lt;platform&gt;
+ *     &lt;pattern&gt;...&lt;/pattern&gt;
+ *     &lt;file&gt;...&lt;/file&gt;
+ *     &lt;product-version-id&gt;...&lt;/product-version-id&gt;
+ *   &lt;/platform&gt;
+ * &lt;/jnlp-versions&gt;
+ * </pre>
+ * Incomplete entries are reported to the log and skipped. Whether the files
+ * exist is left to the caller.
+ */
+class VersionXmlParser
+        extends DefaultHandler
+{
+    private final Logger _log;
+
+    private final String _path;
+
+    private final List<Entry> _resources = new ArrayList<>();
+
+    private final List<Entry> _platforms = new ArrayList<>();
+
+    private boolean _versionsRoot = false;
+
+    // Element nesting, the root being at depth 1
+    private int _depth = 0;
+
+    // Entry being read, at depth 2
+    private Entry _entry = null;
+
+    private boolean _inPattern = false;
+
+    private boolean _hasPattern = false;
+
+    // Content of the current element at depth 3 or 4, if it is one we read
+    private StringBuilder _content = null;
+
+    private final List<String> _os = new ArrayList<>();
+
+    private final List<String> _arch = new ArrayList<>();
+
+    private final List<String> _locale = new ArrayList<>();
+
+    /**
+     * A resource or platform entry of the file
+     */
+    static final class Entry
+    {
+        private final boolean _platform;
+
+        private String _name;
+
+        private String _versionId;
+
+        private String[] _os;
+
+        private String[] _arch;
+
+        private String[] _locale;
+
+        private String _file;
+
+        private String _productVersionId;
+
+        private Entry( boolean platform )
+        {
+            _platform = platform;
+        }
+
+        Entry( boolean platform, String name, String versionId, String[] os, String[] arch, String[] locale,
+               String file, String productVersionId )
+        {
+            _platform = platform;
+            _name = name;
+            _versionId = versionId;
+            _os = os;
+            _arch = arch;
+            _locale = locale;
+            _file = file;
+            _productVersionId = productVersionId;
+        }
+
+        boolean isPlatform()
+        {
+            return _platform;
+        }
+
+        String getName()
+        {
+            return _name == null ? "" : _name;
+        }
+
+        String getVersionId()
+        {
+            return _versionId;
+        }
+
+        String[] getOS()
+        {
+            return _os;
+        }
+
+        String[] getArch()
+        {
+            return _arch;
+        }
+
+        String[] getLocale()
+        {
+            return _locale;
+        }
+
+        String getFile()
+        {
+            return _file;
+        }
+
+        String getProductVersionId()
+        {
+            return _productVersionId;
+        }
+
+        /**
+         * Version returned to the client: the product version of a platform,
+         * or else the version of the resource
+         */
+        String getReturnVersionId()
+        {
+            return _platform ? _productVersionId : _versionId;
+        }
+
+        /**
+         * Returns a string identifying the entry, equal for entries matching
+         * the same requests with the same file
+         */
+        String getKey()
+        {
+            StringBuilder sb = new StringBuilder( 128 );
+            sb.append( _platform ? 'P' : 'R' ).append( getName() ).append( '\n' ).append( _versionId );
+            appendList( sb, _os );
+            appendList( sb, _arch );
+            appendList( sb, _locale );
+            sb.append( '\n' ).append( _file ).append( '\n' ).append( getReturnVersionId() );
+            return sb.toString();
+        }
+
+        private static void appendList( StringBuilder sb, String[] list )
+        {
+            sb.append( '\n' );
+            if ( list != null )
+            {
+                for ( String s : list )
+                {
+                    sb.append( s ).append( '\t' );
+                }
+            }
+        }
+    }
+
+    VersionXmlParser( Logger log, String path )
+    {
+        _log = log;
+        _path = path;
+    }
+
+    /**
+     * Reads the entries of the file
+     *
+     * @param in contents of the file
+     * @throws IOException                  if the file cannot be read
+     * @throws SAXException                 if the file is not well formed
+     * @throws ParserConfigurationException if no SAX parser is available
+     */
+    void parse( InputStream in )
+            throws IOException, SAXException, ParserConfigurationException
+    {
+        SAXParserFactory.newInstance().newSAXParser().parse( in, this );
+    }
+
+    /**
+     * @return true if the root element was a &lt;jnlp-versions&gt; tag
+     */
+    boolean isVersionsRoot()
+    {
+        return _versionsRoot;
+    }
+
+    List<Entry> getResources()
+    {
+        return _resources;
+    }
+
+    List<Entry> getPlatforms()
+    {
+        return _platforms;
+    }
+
+    public void startElement( String uri, String localName, String qName, Attributes attributes )
+    {
+        _depth++;
+        _content = null;
+        if ( _depth == 1 )
+        {
+            _versionsRoot = "jnlp-versions".equals( qName );
+        }
+        else if ( !_versionsRoot || _depth > 4 )
+        {
+            return;
+        }
+        else if ( _depth == 2 )
+        {
+            if ( "resource".equals( qName ) || "platform".equals( qName ) )
+            {
+                _entry = new Entry( "platform".equals( qName ) );
+                _hasPattern = false;
+            }
+        }
+        else if ( _entry == null )
+        {
+            return;
+        }
+        else if ( _depth == 3 )
+        {
+            if ( "pattern".equals( qName ) )
+            {
+                // Only the first pattern counts
+                _inPattern = !_hasPattern;
+                _hasPattern = true;
+            }
+            else if ( ( "file".equals( qName ) && _entry._file == null ) ||
+                    ( "product-version-id".equals( qName ) && _entry._productVersionId == null ) )
+            {
+                _content = new StringBuilder();
+            }
+        }
+        else if ( _inPattern )
+        {
+            if ( ( "name".equals( qName ) && _entry._name == null ) ||
+                    ( "version-id".equals( qName ) && _entry._versionId == null ) || "os".equals( qName ) ||
+                    "arch".equals( qName ) || "locale".equals( qName ) )
+            {
+                _content = new StringBuilder();
+            }
+        }
+    }
+
+    public void characters( char[] ch, int start, int length )
+    {
+        if ( _content != null )
+        {
+            _content.append( ch, start, length );
+        }
+    }
+
+    public void endElement( String uri, String localName, String qName )
+    {
+        if ( _content != null )
+        {
+            // An empty element has no content
+            String value = _content.length() == 0 ? null : _content.toString();
+            _content = null;
+            if ( value != null )
+            {
+                setContent( qName, value );
+            }
+        }
+        else if ( _depth == 3 && _inPattern && "pattern".equals( qName ) )
+        {
+            _inPattern = false;
+            _entry._os = toArray( _os );
+            _entry._arch = toArray( _arch );
+            _entry._locale = toArray( _locale );
+        }
+        else if ( _depth == 2 && _entry != null )
+        {
+            addEntry();
+            _entry = null;
+        }
+        _depth--;
+    }
+
+    private void setContent( String qName, String value )
+    {
+        switch ( qName )
+        {
+            case "file":
+                _entry._file = value;
+                break;
+            case "product-version-id":
+                _entry._productVersionId = value;
+                break;
+            case "name":
+                _entry._name = value;
+                break;
+            case "version-id":
+                _entry._versionId = value;
+                break;
+            case "os":
+                _os.add( value );
+                break;
+            case "arch":
+                _arch.add( value );
+                break;
+            case "locale":
+                _locale.add( value );
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addEntry()
+    {
+        if ( !_hasPattern )
+        {
+            _log.addWarning( "servlet.log.warning.xml.missing-pattern", _path );
+        }
+        else if ( !_entry._platform )
+        {
+            if ( _entry._versionId == null || _entry._file == null )
+            {
+                _log.addWarning( "servlet.log.warning.xml.missing-elems", _path );
+            }
+            else
+            {
+                _resources.add( _entry );
+            }
+        }
+        else if ( _entry._versionId == null || _entry._file == null || _entry._productVersionId == null )
+        {
+            _log.addWarning( "servlet.log.warning.xml.missing-elems2", _path );
+        }
+        else
+        {
+            _platforms.add( _entry );
+        }
+    }
+
+    private static String[] toArray( List<String> list )
+    {
+        if ( list.isEmpty() )
+        {
+            return null;
+        }
+        String[] array = list.toArray( new String[list.size()] );
+        list.clear();
+        return array;
+    }
+}
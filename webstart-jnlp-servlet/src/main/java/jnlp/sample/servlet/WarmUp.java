@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import jnlp.sample.util.VersionID;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Prepares the servlet for its first requests while it is initialized, so
+ * that a restarted node does not make its first clients wait for directory
+ * scans, version.xml parsing and JNLP template loading.
+ * <p>
+ * It is enabled by the <code>warm-up</code> init parameter, listing the
+ * directories to prepare, separated by spaces or commas, such as
+ * <code>/ /apps/</code>. The directories are prepared in parallel, by
+ * <code>warm-up-threads</code> threads, one per processor by default. Setting
+ * <code>warm-up-jardiff</code> to <code>true</code> also generates the JarDiffs
+ * between consecutive versions of the jars listed in version.xml files.
+ */
+class WarmUp
+{
+    private static final String PARAM_WARM_UP = "warm-up";
+
+    private static final String PARAM_WARM_UP_THREADS = "warm-up-threads";
+
+    private static final String PARAM_WARM_UP_JARDIFF = "warm-up-jardiff";
+
+    private final ServletContext _servletContext;
+
+    private final Logger _log;
+
+    private final ResourceCatalog _resourceCatalog;
+
+    private final JnlpFileHandler _jnlpFileHandler;
+
+    private final JarDiffHandler _jarDiffHandler;
+
+    private final boolean _jarDiffs;
+
+    private WarmUp( ServletContext servletContext, Logger log, ResourceCatalog resourceCatalog,
+                    JnlpFileHandler jnlpFileHandler, JarDiffHandler jarDiffHandler, boolean jarDiffs )
+    {
+        _servletContext = servletContext;
+        _log = log;
+        _resourceCatalog = resourceCatalog;
+        _jnlpFileHandler = jnlpFileHandler;
+        _jarDiffHandler = jarDiffHandler;
+        _jarDiffs = jarDiffs;
+    }
+
+    /**
+     * Prepares the directories configured for the servlet, if any, and returns when they are ready
+     *
+     * @param config          the servlet configuration, listing the directories to prepare
+     * @param log             logger for the progress and the failures of the warm-up
+     * @param resourceCatalog catalog whose version.xml files are read
+     * @param jnlpFileHandler handler whose JNLP templates are read
+     * @param jarDiffHandler  handler generating the JarDiffs between successive versions
+     */
+    static void run( ServletConfig config, Logger log, ResourceCatalog resourceCatalog,
+                     JnlpFileHandler jnlpFileHandler, JarDiffHandler jarDiffHandler )
+    {
+        String dirs = config.getInitParameter( PARAM_WARM_UP );
+        if ( dirs == null )
+        {
+            return;
+        }
+        List<String> dirList = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer( dirs, " \t\r\n," );
+        while ( st.hasMoreTokens() )
+        {
+            String dir = st.nextToken();
+            dirList.add( dir.endsWith( "/" ) ? dir : dir + "/" );
+        }
+        if ( dirList.isEmpty() )
+        {
+            return;
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String threadsParam = config.getInitParameter( PARAM_WARM_UP_THREADS );
+        if ( threadsParam != null )
+        {
+            try
+            {
+                threads = Integer.parseInt( threadsParam.trim() );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // keep the default
+            }
+        }
+        threads = Math.max( 1, Math.min( threads, dirList.size() ) );
+
+        WarmUp warmUp = new WarmUp( config.getServletContext(), log, resourceCatalog, jnlpFileHandler, jarDiffHandler,
+                                    Boolean.parseBoolean( config.getInitParameter( PARAM_WARM_UP_JARDIFF ) ) );
+        warmUp.run( dirList, threads );
+    }
+
+    private void run( List<String> dirs, int threads )
+    {
+        long start = System.nanoTime();
+        _jnlpFileHandler.preloadXmlFactories();
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private int _count = 0;
+
+            public synchronized Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "jnlp-warm-up-" + ( ++_count ) );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        try
+        {
+            List<Callable<Void>> tasks = new ArrayList<>( dirs.size() );
+            for ( final String dir : dirs )
+            {
+                tasks.add( new Callable<Void>()
+                {
+                    public Void call()
+                            throws Exception
+                    {
+                        warmUp( dir );
+                        return null;
+                    }
+                } );
+            }
+            List<Future<Void>> results = executor.invokeAll( tasks );
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                try
+                {
+                    results.get( i ).get();
+                }
+                catch ( ExecutionException ee )
+                {
+                    _log.addWarning( "servlet.log.warning.warm-up", dirs.get( i ), ee.getCause() );
+                }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        _log.addDebug( "Warmed up {0} in {1} ms", dirs, ( System.nanoTime() - start ) / 1000000L );
+    }
+
+    /**
+     * Scans a directory, reads its version.xml file and JNLP templates, and
+     * generates its JarDiffs if enabled
+     */
+    private void warmUp( String dir )
+            throws Exception
+    {
+        List versionXmlList = _resourceCatalog.preload( dir );
+
+        Set<String> paths = _servletContext.getResourcePaths( dir );
+        if ( paths != null )
+        {
+            for ( String path : paths )
+            {
+                if ( !path.endsWith( "/" ) )
+                {
+                    JnlpResource jnlpres = _resourceCatalog.getResource( path );
+                    if ( jnlpres.exists() && jnlpres.isJnlpFile() )
+                    {
+                        _jnlpFileHandler.preloadTemplate( jnlpres );
+                    }
+                }
+            }
+        }
+
+        if ( _jarDiffs )
+        {
+            generateJarDiffs( dir, versionXmlList );
+        }
+    }
+
+    /**
+     * Generates the JarDiffs a client updating from one version of a jar to the next would get
+     */
+    private void generateJarDiffs( String dir, List versionXmlList )
+    {
+        // Versions of the same jar, for the same platforms
+        Map<String, List<JnlpResource>> jars = new LinkedHashMap<>();
+        for ( Object entry : versionXmlList )
+        {
+            JnlpResource res = (JnlpResource) entry;
+            if ( res.isJarFile() )
+            {
+                String key = res.getName() + '\n' + toString( res.getOSList() ) + '\n' +
+                        toString( res.getArchList() ) + '\n' + toString( res.getLocaleList() );
+                List<JnlpResource> versions = jars.get( key );
+                if ( versions == null )
+                {
+                    versions = new ArrayList<>();
+                    jars.put( key, versions );
+                }
+                versions.add( res );
+            }
+        }
+
+        for ( List<JnlpResource> versions : jars.values() )
+        {
+            Collections.sort( versions, new Comparator<JnlpResource>()
+            {
+                public int compare( JnlpResource a, JnlpResource b )
+                {
+                    return VersionID.valueOf( a.getVersionId() ).compareTo( VersionID.valueOf( b.getVersionId() ) );
+                }
+            } );
+            for ( int i = 1; i < versions.size(); i++ )
+            {
+                JnlpResource from = versions.get( i - 1 );
+                JnlpResource to = versions.get( i );
+                DownloadRequest dreq =
+                        new DownloadRequest( _servletContext, dir + to.getName(), to.getVersionId(), from.getVersionId(),
+                                             PlatformKey.valueOf( first( to.getOSList() ), first( to.getArchList() ),
+                                                                  first( to.getLocaleList() ) ) );
+                _jarDiffHandler.getJarDiffSize( _resourceCatalog, dreq, to );
+            }
+        }
+    }
+
+    private static String toString( String[] list )
+    {
+        return list == null ? "" : Arrays.asList( list ).toString();
+    }
+
+    /**
+     * Returns the first prefix of a list, as a request argument matching it
+     */
+    private static String first( String[] list )
+    {
+        return list == null || list.length == 0 ? null : list[0].replace( " ", "\\ " );
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map holding at most a given number of entries. It is meant
+ * for caches of values that are cheap to compute again: when the map is full
+ * and an entry is added, all the entries are dropped, which costs no
+ * bookkeeping on lookups and never lets the cache grow with the requests.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the cached values
+ */
+public final class BoundedCache<K, V>
+{
+    private final int _limit;
+
+    // Declared as a ConcurrentMap, so that keySet() does not bind to the Java 8 KeySetView
+    private final ConcurrentMap<K, V> _map = new ConcurrentHashMap<>();
+
+    /**
+     * @param limit the number of entries after which the cache is cleared
+     */
+    public BoundedCache( int limit )
+    {
+        _limit = limit;
+    }
+
+    /**
+     * @param key the key of the entry
+     * @return the cached value, or null if there is none
+     */
+    public V get( K key )
+    {
+        return _map.get( key );
+    }
+
+    /**
+     * Caches a value, first dropping all the entries if the cache is full
+     *
+     * @param key   the key of the entry
+     * @param value the value to cache
+     */
+    public void put( K key, V value )
+    {
+        makeRoom();
+        _map.put( key, value );
+    }
+
+    /**
+     * Caches a value unless another thread cached one for the same key,
+     * first dropping all the entries if the cache is full
+     *
+     * @param key   the key of the entry
+     * @param value the value to cache
+     * @return the value already cached, or null if value was added
+     */
+    public V putIfAbsent( K key, V value )
+    {
+        makeRoom();
+        return _map.putIfAbsent( key, value );
+    }
+
+    /**
+     * @param key the key of the entry to drop
+     */
+    public void remove( K key )
+    {
+        _map.remove( key );
+    }
+
+    /**
+     * @return a live view of the keys, whose iterator supports remove()
+     */
+    public Set<K> keySet()
+    {
+        return _map.keySet();
+    }
+
+    public int size()
+    {
+        return _map.size();
+    }
+
+    public void clear()
+    {
+        _map.clear();
+    }
+
+    private void makeRoom()
+    {
+        if ( _map.size() >= _limit )
+        {
+            _map.clear();
+        }
+    }
+}
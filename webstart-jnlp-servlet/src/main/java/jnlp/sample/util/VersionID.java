@@ -37,7 +37,6 @@
 package jnlp.sample.util;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -45,83 +44,134 @@ import java.util.List;
  * <p>
  * The VersionID also contains a prefix indicator that can
  * be used when stored with a VersionString
+ * <p>
+ * Instances are immutable. The numeric value of each tuple element is computed
+ * once at construction time, so that matching and ordering do not allocate.
+ * Use {@link #valueOf(String)} to obtain a shared instance from the intern cache.
  */
 public class VersionID
         implements Comparable
 {
-    private String[] _tuple;   // Array of Integer or String objects
+    // Maximum number of entries kept in the intern cache
+    private static final int CACHE_SIZE = 1024;
+
+    // Padding element used when comparing tuples of different length
+    private static final String PAD = "0";
+
+    private static final VersionID EMPTY = new VersionID( null );
+
+    private static final BoundedCache<String, VersionID> _cache = new BoundedCache<>( CACHE_SIZE );
+
+    private final String[] _tuple;   // Array of tuple elements
 
-    private boolean _usePrefixMatch;   // star (*) prefix
+    private final int[] _values;     // Numeric value of each tuple element, or -1 if not a number
 
-    private boolean _useGreaterThan;  // plus (+) greather-than
+    private final boolean _usePrefixMatch;   // star (*) prefix
 
-    private boolean _isCompound;       // and (&) operator
+    private final boolean _useGreaterThan;  // plus (+) greather-than
 
-    private VersionID _rest;            // remaining part after the &
+    private final boolean _isCompound;       // and (&) operator
+
+    private final VersionID _rest;            // remaining part after the &
 
     /**
-     * Creates a VersionID object
+     * Returns a shared VersionID for the given string. Instances are kept
+     * in a bounded cache, since the same handful of version-ids are matched
+     * over and over again.
      *
-     * @param str TODO
+     * @param str the version-id
+     * @return the VersionID for str
      */
-    public VersionID( String str )
+    public static VersionID valueOf( String str )
     {
-        _usePrefixMatch = false;
-        _useGreaterThan = false;
-        _isCompound = false;
         if ( str == null || str.length() == 0 )
         {
-            _tuple = new String[0];
-            return;
+            return EMPTY;
         }
+        VersionID vid = _cache.get( str );
+        if ( vid == null )
+        {
+            vid = new VersionID( str );
+            _cache.put( str, vid );
+        }
+        return vid;
+    }
 
-        // Check for compound
-        int amp = str.indexOf( "&" );
-        if ( amp >= 0 )
+    /**
+     * Creates a VersionID object
+     *
+     * @param str the version-id, possibly ending with * or +, or compound
+     */
+    public VersionID( String str )
+    {
+        boolean usePrefixMatch = false;
+        boolean useGreaterThan = false;
+        boolean isCompound = false;
+        VersionID rest = null;
+        String[] tuple;
+        if ( str == null || str.length() == 0 )
         {
-            _isCompound = true;
-            VersionID firstPart = new VersionID( str.substring( 0, amp ) );
-            _rest = new VersionID( str.substring( amp + 1 ) );
-            _tuple = firstPart._tuple;
-            _usePrefixMatch = firstPart._usePrefixMatch;
-            _useGreaterThan = firstPart._useGreaterThan;
+            tuple = new String[0];
         }
         else
         {
-            // Check for postfix
-            if ( str.endsWith( "+" ) )
+            // Check for compound
+            int amp = str.indexOf( "&" );
+            if ( amp >= 0 )
             {
-                _useGreaterThan = true;
-                str = str.substring( 0, str.length() - 1 );
+                isCompound = true;
+                VersionID firstPart = new VersionID( str.substring( 0, amp ) );
+                rest = new VersionID( str.substring( amp + 1 ) );
+                tuple = firstPart._tuple;
+                usePrefixMatch = firstPart._usePrefixMatch;
+                useGreaterThan = firstPart._useGreaterThan;
             }
-            else if ( str.endsWith( "*" ) )
+            else
             {
-                _usePrefixMatch = true;
-                str = str.substring( 0, str.length() - 1 );
-            }
+                // Check for postfix
+                if ( str.endsWith( "+" ) )
+                {
+                    useGreaterThan = true;
+                    str = str.substring( 0, str.length() - 1 );
+                }
+                else if ( str.endsWith( "*" ) )
+                {
+                    usePrefixMatch = true;
+                    str = str.substring( 0, str.length() - 1 );
+                }
 
-            List<String> list = new ArrayList<>();
-            int start = 0;
-            for ( int i = 0; i < str.length(); i++ )
-            {
-                // Split at each separator character
-                if ( ".-_".indexOf( str.charAt( i ) ) != -1 )
+                List<String> list = new ArrayList<>();
+                int start = 0;
+                for ( int i = 0; i < str.length(); i++ )
                 {
-                    if ( start < i )
+                    // Split at each separator character
+                    if ( ".-_".indexOf( str.charAt( i ) ) != -1 )
                     {
-                        String value = str.substring( start, i );
-                        list.add( value );
+                        if ( start < i )
+                        {
+                            String value = str.substring( start, i );
+                            list.add( value );
+                        }
+                        start = i + 1;
                     }
-                    start = i + 1;
                 }
+                if ( start < str.length() )
+                {
+                    list.add( str.substring( start, str.length() ) );
+                }
+                tuple = list.toArray( new String[list.size()] );
             }
-            if ( start < str.length() )
-            {
-                list.add( str.substring( start, str.length() ) );
-            }
-            _tuple = new String[list.size()];
-            _tuple = list.toArray( _tuple );
         }
+        _tuple = tuple;
+        _values = new int[tuple.length];
+        for ( int i = 0; i < tuple.length; i++ )
+        {
+            _values[i] = getValue( tuple[i] );
+        }
+        _usePrefixMatch = usePrefixMatch;
+        _useGreaterThan = useGreaterThan;
+        _isCompound = isCompound;
+        _rest = rest;
     }
 
     /**
@@ -192,16 +242,11 @@ public class VersionID
         }
         VersionID vid = (VersionID) o;
 
-        // Normalize arrays
-        String[] t1 = normalize( _tuple, vid._tuple.length );
-        String[] t2 = normalize( vid._tuple, _tuple.length );
-
-        // Check contents
-        for ( int i = 0; i < t1.length; i++ )
+        // Check contents, padding the shorter tuple with zeros
+        int length = Math.max( _tuple.length, vid._tuple.length );
+        for ( int i = 0; i < length; i++ )
         {
-            Object o1 = getValueAsObject( t1[i] );
-            Object o2 = getValueAsObject( t2[i] );
-            if ( !o1.equals( o2 ) )
+            if ( !elementEquals( vid, i ) )
             {
                 return false;
             }
@@ -209,18 +254,47 @@ public class VersionID
         return true;
     }
 
-    private Object getValueAsObject( String value )
+    /**
+     * Returns the numeric value of a tuple element, or -1 if it is not a number.
+     * Elements starting with a '-' are never treated as numbers.
+     */
+    private static int getValue( String value )
     {
         if ( value.length() > 0 && value.charAt( 0 ) != '-' )
         {
             try
             {
-                return Integer.valueOf( value );
+                return Integer.parseInt( value );
             }
             catch ( NumberFormatException nfe )
             { /* fall through */ }
         }
-        return value;
+        return -1;
+    }
+
+    private String getElement( int i )
+    {
+        return i < _tuple.length ? _tuple[i] : PAD;
+    }
+
+    private int getElementValue( int i )
+    {
+        return i < _values.length ? _values[i] : 0;
+    }
+
+    /**
+     * Compares the i'th element of 'this' and vid. Numbers are compared by value,
+     * everything else as strings.
+     */
+    private boolean elementEquals( VersionID vid, int i )
+    {
+        int v1 = getElementValue( i );
+        int v2 = vid.getElementValue( i );
+        if ( v1 >= 0 || v2 >= 0 )
+        {
+            return v1 == v2;
+        }
+        return getElement( i ).equals( vid.getElement( i ) );
     }
 
     public boolean isGreaterThan( VersionID vid )
@@ -250,30 +324,25 @@ public class VersionID
                 return false;
             }
         }
-        // Normalize the two strings
-        String[] t1 = normalize( _tuple, vid._tuple.length );
-        String[] t2 = normalize( vid._tuple, _tuple.length );
-
-        for ( int i = 0; i < t1.length; i++ )
+        int length = Math.max( _tuple.length, vid._tuple.length );
+        for ( int i = 0; i < length; i++ )
         {
             // Compare current element
-            Object e1 = getValueAsObject( t1[i] );
-            Object e2 = getValueAsObject( t2[i] );
-            if ( e1.equals( e2 ) )
+            if ( elementEquals( vid, i ) )
             {
                 // So far so good
             }
             else
             {
-                if ( e1 instanceof Integer && e2 instanceof Integer )
+                int v1 = getElementValue( i );
+                int v2 = vid.getElementValue( i );
+                if ( v1 >= 0 && v2 >= 0 )
                 {
-                    return (Integer) e1 > (Integer) e2;
+                    return v1 > v2;
                 }
                 else
                 {
-                    String s1 = t1[i];
-                    String s2 = t2[i];
-                    return s1.compareTo( s2 ) > 0;
+                    return getElement( i ).compareTo( vid.getElement( i ) ) > 0;
                 }
 
             }
@@ -298,18 +367,10 @@ public class VersionID
                 return false;
             }
         }
-        // Make sure that vid is at least as long as the prefix
-        String[] t2 = normalize( vid._tuple, _tuple.length );
-
+        // vid is padded to be at least as long as the prefix
         for ( int i = 0; i < _tuple.length; i++ )
         {
-            Object e1 = _tuple[i];
-            Object e2 = t2[i];
-            if ( e1.equals( e2 ) )
-            {
-                // So far so good
-            }
-            else
+            if ( !_tuple[i].equals( vid.getElement( i ) ) )
             {
                 // Not a prefix
                 return false;
@@ -318,29 +379,6 @@ public class VersionID
         return true;
     }
 
-    /**
-     * Normalize an array to a certain length
-     *
-     * @param list      TODO
-     * @param minlength TODO
-     * @return TODO
-     */
-    private String[] normalize( String[] list, int minlength )
-    {
-        if ( list.length < minlength )
-        {
-            // Need to do padding
-            String[] newlist = new String[minlength];
-            System.arraycopy( list, 0, newlist, 0, list.length );
-            Arrays.fill( newlist, list.length, newlist.length, "0" );
-            return newlist;
-        }
-        else
-        {
-            return list;
-        }
-    }
-
     @Override
     public int compareTo( Object o )
     {
@@ -372,4 +410,3 @@ public class VersionID
         return sb.toString();
     }
 }
-
@@ -46,10 +46,40 @@ import java.util.StringTokenizer;
  *
  *  (version-id ('+'?) ' ') *
  *
+ * A VersionString is immutable once constructed, so a compiled instance can
+ * be shared and matched against any number of version-ids.
  */
 public class VersionString
 {
-    private List<VersionID> _versionIds;
+    // Maximum number of entries kept in the cache of compiled version strings
+    private static final int CACHE_SIZE = 256;
+
+    private static final BoundedCache<String, VersionString> _cache = new BoundedCache<>( CACHE_SIZE );
+
+    private final VersionID[] _versionIds;
+
+    /**
+     * Returns a compiled VersionString for the given string. Instances are
+     * kept in a bounded cache, so callers matching against the same ranges
+     * over and over again only parse them once.
+     *
+     * @param vs the version string
+     * @return the compiled VersionString for vs
+     */
+    public static VersionString valueOf( String vs )
+    {
+        if ( vs == null )
+        {
+            return new VersionString( null );
+        }
+        VersionString compiled = _cache.get( vs );
+        if ( compiled == null )
+        {
+            compiled = new VersionString( vs );
+            _cache.put( vs, compiled );
+        }
+        return compiled;
+    }
 
     /**
      * Constructs a VersionString object from string
@@ -58,16 +88,17 @@ public class VersionString
      */
     public VersionString( String vs )
     {
-        _versionIds = new ArrayList<>();
+        List<VersionID> versionIds = new ArrayList<>();
         if ( vs != null )
         {
             StringTokenizer st = new StringTokenizer( vs, " ", false );
             while ( st.hasMoreElements() )
             {
                 // Note: The VersionID class takes care of a postfixed '+'
-                _versionIds.add( new VersionID( st.nextToken() ) );
+                versionIds.add( VersionID.valueOf( st.nextToken() ) );
             }
         }
+        _versionIds = versionIds.toArray( new VersionID[versionIds.size()] );
     }
 
     /**
@@ -78,9 +109,8 @@ public class VersionString
      */
     public boolean contains( VersionID m )
     {
-        for ( Object _versionId : _versionIds )
+        for ( VersionID vi : _versionIds )
         {
-            VersionID vi = (VersionID) _versionId;
             boolean check = vi.match( m );
             if ( check )
             {
@@ -98,7 +128,7 @@ public class VersionString
      */
     public boolean contains( String versionid )
     {
-        return contains( new VersionID( versionid ) );
+        return contains( VersionID.valueOf( versionid ) );
     }
 
     /**
@@ -109,9 +139,8 @@ public class VersionString
      */
     public boolean containsGreaterThan( VersionID m )
     {
-        for ( Object _versionId : _versionIds )
+        for ( VersionID vi : _versionIds )
         {
-            VersionID vi = (VersionID) _versionId;
             boolean check = vi.isGreaterThan( m );
             if ( check )
             {
@@ -129,7 +158,7 @@ public class VersionString
      */
     public boolean containsGreaterThan( String versionid )
     {
-        return containsGreaterThan( new VersionID( versionid ) );
+        return containsGreaterThan( VersionID.valueOf( versionid ) );
     }
 
     /**
@@ -141,14 +170,14 @@ public class VersionString
      */
     static public boolean contains( String vs, String vi )
     {
-        return ( new VersionString( vs ) ).contains( vi );
+        return valueOf( vs ).contains( vi );
     }
 
     @Override
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
-        for ( Object _versionId : _versionIds )
+        for ( VersionID _versionId : _versionIds )
         {
             sb.append( _versionId.toString() );
             sb.append( ' ' );
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.jardiff;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+public class BinaryDeltaTest
+        extends TestCase
+{
+    private final Random random = new Random( 42 );
+
+    public void testRoundTrip()
+            throws IOException
+    {
+        byte[] source = TestJars.contents( random, 64 * 1024 );
+        byte[] target = edit( source );
+
+        byte[] delta = BinaryDelta.create( source, target );
+        assertTrue( "delta of " + delta.length + " bytes", delta.length < target.length / 10 );
+        assertTrue( Arrays.equals( target, BinaryDelta.apply( source, new ByteArrayInputStream( delta ) ) ) );
+    }
+
+    public void testRoundTripWithoutCommonBytes()
+            throws IOException
+    {
+        assertRoundTrip( new byte[0], TestJars.contents( random, 1000 ) );
+        assertRoundTrip( TestJars.contents( random, 1000 ), new byte[0] );
+        assertRoundTrip( new byte[0], new byte[0] );
+        assertRoundTrip( new byte[]{ 1, 2, 3 }, new byte[]{ 3, 2, 1 } );
+        byte[] noise = new byte[5000];
+        random.nextBytes( noise );
+        assertRoundTrip( TestJars.contents( random, 5000 ), noise );
+    }
+
+    public void testWrongSourceIsRejected()
+            throws IOException
+    {
+        byte[] source = TestJars.contents( random, 8 * 1024 );
+        byte[] delta = BinaryDelta.create( source, edit( source ) );
+
+        byte[] other = source.clone();
+        other[100]++;
+        assertNull( BinaryDelta.apply( other, new ByteArrayInputStream( delta ) ) );
+
+        byte[] shorter = new byte[source.length - 1];
+        System.arraycopy( source, 0, shorter, 0, shorter.length );
+        assertNull( BinaryDelta.apply( shorter, new ByteArrayInputStream( delta ) ) );
+    }
+
+    public void testTruncatedDeltaIsRejected()
+    {
+        byte[] source = TestJars.contents( random, 8 * 1024 );
+        byte[] delta = BinaryDelta.create( source, edit( source ) );
+
+        for ( int length = 0; length < delta.length; length++ )
+        {
+            try
+            {
+                byte[] result = BinaryDelta.apply( source, new ByteArrayInputStream( delta, 0, length ) );
+                assertNull( "delta truncated to " + length + " bytes", result );
+            }
+            catch ( IOException expected )
+            {
+                // Ran out of delta
+            }
+        }
+    }
+
+    public void testOversizedContentsAreRejected()
+            throws IOException
+    {
+        byte[] source = TestJars.contents( random, 1000 );
+        ByteArrayOutputStream delta = header( source, BinaryDelta.MAX_SIZE + 1L, 0 );
+        // Copy the whole source, never reached
+        writeNumber( delta, ( (long) source.length << 1 ) | 1 );
+        writeNumber( delta, 0 );
+        assertNull( BinaryDelta.apply( source, new ByteArrayInputStream( delta.toByteArray() ) ) );
+
+        delta = header( source, Long.MAX_VALUE, 0 );
+        assertNull( BinaryDelta.apply( source, new ByteArrayInputStream( delta.toByteArray() ) ) );
+    }
+
+    public void testCopyOutsideSourceIsRejected()
+            throws IOException
+    {
+        byte[] source = TestJars.contents( random, 1000 );
+        long[] offsets = { -1, Long.MIN_VALUE, source.length - 5, source.length + 1, Long.MAX_VALUE };
+        for ( long offset : offsets )
+        {
+            ByteArrayOutputStream delta = header( source, 10, 0 );
+            writeNumber( delta, ( 10L << 1 ) | 1 );
+            writeNumber( delta, offset );
+            byte[] result = BinaryDelta.apply( source, new ByteArrayInputStream( delta.toByteArray() ) );
+            assertNull( "offset " + offset, result );
+        }
+    }
+
+    /**
+     * Starts a delta applying to the source, producing contents of the given length and CRC-32
+     */
+    private static ByteArrayOutputStream header( byte[] source, long length, int crc )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CRC32 sourceCrc = new CRC32();
+        sourceCrc.update( source, 0, source.length );
+        writeNumber( out, source.length );
+        writeInt( out, (int) sourceCrc.getValue() );
+        writeNumber( out, length );
+        writeInt( out, crc );
+        return out;
+    }
+
+    private static void writeNumber( ByteArrayOutputStream out, long v )
+    {
+        while ( ( v & ~0x7fL ) != 0 )
+        {
+            out.write( (int) ( ( v & 0x7f ) | 0x80 ) );
+            v >>>= 7;
+        }
+        out.write( (int) v );
+    }
+
+    private static void writeInt( ByteArrayOutputStream out, int v )
+    {
+        out.write( v & 0xff );
+        out.write( ( v >>> 8 ) & 0xff );
+        out.write( ( v >>> 16 ) & 0xff );
+        out.write( ( v >>> 24 ) & 0xff );
+    }
+
+    private static void assertRoundTrip( byte[] source, byte[] target )
+            throws IOException
+    {
+        byte[] delta = BinaryDelta.create( source, target );
+        assertTrue( Arrays.equals( target, BinaryDelta.apply( source, new ByteArrayInputStream( delta ) ) ) );
+    }
+
+    /**
+     * Returns the contents with a few bytes changed, inserted and removed, as a recompiled class would be
+     */
+    private byte[] edit( byte[] source )
+    {
+        byte[] target = new byte[source.length + 50];
+        int cut = source.length / 2;
+        System.arraycopy( source, 0, target, 0, cut );
+        byte[] inserted = TestJars.contents( random, 100 );
+        System.arraycopy( inserted, 0, target, cut, inserted.length );
+        System.arraycopy( source, cut + 50, target, cut + inserted.length, source.length - cut - 50 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            target[random.nextInt( target.length )]++;
+        }
+        return target;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.jardiff;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class JarDiffTest
+        extends TestCase
+{
+    private final Random random = new Random( 7 );
+
+    private File dir;
+
+    private File oldJar;
+
+    private File newJar;
+
+    protected void setUp()
+            throws Exception
+    {
+        dir = File.createTempFile( "jardiff", ".test" );
+        dir.delete();
+        dir.mkdir();
+
+        Map<String, byte[]> oldEntries = new LinkedHashMap<>();
+        for ( int i = 0; i < 20; i++ )
+        {
+            oldEntries.put( "a/C" + i + ".class", TestJars.contents( random, 2000 + random.nextInt( 20000 ) ) );
+        }
+        oldEntries.put( "a/Removed.class", TestJars.contents( random, 3000 ) );
+
+        Map<String, byte[]> newEntries = new LinkedHashMap<>( oldEntries );
+        newEntries.remove( "a/Removed.class" );
+        for ( int i = 0; i < 20; i += 2 )
+        {
+            // Recompiled: a few bytes differ
+            byte[] contents = oldEntries.get( "a/C" + i + ".class" ).clone();
+            for ( int j = 0; j < 5; j++ )
+            {
+                contents[random.nextInt( contents.length )]++;
+            }
+            newEntries.put( "a/C" + i + ".class", contents );
+        }
+        newEntries.put( "a/Added.class", TestJars.contents( random, 3000 ) );
+
+        oldJar = TestJars.write( new File( dir, "old.jar" ), oldEntries );
+        newJar = TestJars.write( new File( dir, "new.jar" ), newEntries );
+    }
+
+    protected void tearDown()
+    {
+        TestJars.delete( dir );
+    }
+
+    public void testVersion1RoundTrip()
+            throws IOException
+    {
+        File diff = TestJars.createPatch( oldJar, newJar, new File( dir, "v1.jardiff" ), JarDiff.VERSION_1 );
+        assertFalse( TestJars.readIndex( diff ).contains( JarDiffConstants.PATCH_COMMAND + " " ) );
+        assertPatchedToNewJar( diff );
+    }
+
+    public void testVersion2RoundTrip()
+            throws IOException
+    {
+        File v1 = TestJars.createPatch( oldJar, newJar, new File( dir, "v1.jardiff" ), JarDiff.VERSION_1 );
+        File v2 = TestJars.createPatch( oldJar, newJar, new File( dir, "v2.jardiff" ), JarDiff.VERSION_2 );
+        String index = TestJars.readIndex( v2 );
+        assertTrue( index, index.startsWith( JarDiffConstants.VERSION_2_HEADER ) );
+        assertTrue( index, index.contains( JarDiffConstants.PATCH_COMMAND + " a/C0.class" ) );
+        assertTrue( v2.length() + " bytes, version 1 has " + v1.length(), v2.length() < v1.length() / 2 );
+        assertPatchedToNewJar( v2 );
+    }
+
+    public void testVersion2RejectsOtherOldJar()
+            throws IOException
+    {
+        File diff = TestJars.createPatch( oldJar, newJar, new File( dir, "v2.jardiff" ), JarDiff.VERSION_2 );
+
+        Map<String, byte[]> otherEntries = TestJars.read( oldJar );
+        otherEntries.get( "a/C0.class" )[10]++;
+        File otherJar = TestJars.write( new File( dir, "other.jar" ), otherEntries );
+        try
+        {
+            TestJars.applyPatch( new JarDiffPatcher(), otherJar, diff, new File( dir, "result.jar" ) );
+            fail( "patched an entry the delta was not computed against" );
+        }
+        catch ( IOException expected )
+        {
+            assertTrue( expected.getMessage(), expected.getMessage().contains( "a/C0.class" ) );
+        }
+    }
+
+    private void assertPatchedToNewJar( File diff )
+            throws IOException
+    {
+        File result = TestJars.applyPatch( new JarDiffPatcher(), oldJar, diff, new File( dir, "result.jar" ) );
+        assertSameEntries( TestJars.read( newJar ), TestJars.read( result ) );
+    }
+
+    static void assertSameEntries( Map<String, byte[]> expected, Map<String, byte[]> actual )
+    {
+        assertEquals( expected.keySet(), actual.keySet() );
+        for ( Map.Entry<String, byte[]> entry : expected.entrySet() )
+        {
+            assertTrue( entry.getKey(), Arrays.equals( entry.getValue(), actual.get( entry.getKey() ) ) );
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.jardiff;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+public class StreamingJarDiffPatcherTest
+        extends TestCase
+{
+    private final Random random = new Random( 11 );
+
+    private File dir;
+
+    private File oldJar;
+
+    private File newJar;
+
+    protected void setUp()
+            throws Exception
+    {
+        dir = File.createTempFile( "jardiff", ".test" );
+        dir.delete();
+        dir.mkdir();
+
+        // Deflated entries written by ZipOutputStream are followed by a data descriptor
+        Map<String, byte[]> oldEntries = new LinkedHashMap<>();
+        oldEntries.put( "a/Stored.txt", TestJars.contents( random, 5000 ) );
+        oldEntries.put( "a/StoredChanged.txt", TestJars.contents( random, 5000 ) );
+        for ( int i = 0; i < 10; i++ )
+        {
+            oldEntries.put( "a/C" + i + ".class", TestJars.contents( random, 1000 + random.nextInt( 10000 ) ) );
+        }
+        oldEntries.put( "a/Moved.class", TestJars.contents( random, 4000 ) );
+        oldEntries.put( "a/Copied.class", TestJars.contents( random, 4000 ) );
+        oldEntries.put( "a/Removed.class", TestJars.contents( random, 4000 ) );
+
+        Map<String, byte[]> newEntries = new LinkedHashMap<>( oldEntries );
+        newEntries.put( "a/StoredChanged.txt", change( oldEntries.get( "a/StoredChanged.txt" ) ) );
+        for ( int i = 0; i < 10; i += 3 )
+        {
+            newEntries.put( "a/C" + i + ".class", change( oldEntries.get( "a/C" + i + ".class" ) ) );
+        }
+        newEntries.put( "b/Moved.class", newEntries.remove( "a/Moved.class" ) );
+        newEntries.put( "c/Copied.class", oldEntries.get( "a/Copied.class" ) );
+        newEntries.remove( "a/Removed.class" );
+        newEntries.put( "b/New.txt", TestJars.contents( random, 3000 ) );
+
+        oldJar = TestJars.write( new File( dir, "old.jar" ), oldEntries, "a/Stored.txt", "a/StoredChanged.txt" );
+        newJar = TestJars.write( new File( dir, "new.jar" ), newEntries, "a/StoredChanged.txt", "b/New.txt" );
+    }
+
+    protected void tearDown()
+    {
+        TestJars.delete( dir );
+    }
+
+    public void testVersion1MatchesJarDiffPatcher()
+            throws IOException
+    {
+        assertSameAsJarDiffPatcher( JarDiff.VERSION_1 );
+    }
+
+    public void testVersion2MatchesJarDiffPatcher()
+            throws IOException
+    {
+        assertSameAsJarDiffPatcher( JarDiff.VERSION_2 );
+    }
+
+    public void testZip64DirectoryIsRejected()
+            throws IOException
+    {
+        File diff = TestJars.createPatch( oldJar, newJar, new File( dir, "v1.jardiff" ), JarDiff.VERSION_1 );
+
+        // Number of entries of the end of central directory record, which has no comment
+        RandomAccessFile file = new RandomAccessFile( oldJar, "rw" );
+        try
+        {
+            file.seek( file.length() - 22 + 10 );
+            file.writeShort( 0xffff );
+        }
+        finally
+        {
+            file.close();
+        }
+        assertRejected( diff );
+    }
+
+    public void testZip64EntryIsRejected()
+            throws IOException
+    {
+        File diff = TestJars.createPatch( oldJar, newJar, new File( dir, "v1.jardiff" ), JarDiff.VERSION_1 );
+
+        // Compressed size of the first central directory header
+        RandomAccessFile file = new RandomAccessFile( oldJar, "rw" );
+        try
+        {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully( bytes );
+            int pos = 0;
+            while ( !( bytes[pos] == 'P' && bytes[pos + 1] == 'K' && bytes[pos + 2] == 1 && bytes[pos + 3] == 2 ) )
+            {
+                pos++;
+            }
+            file.seek( pos + 20 );
+            file.writeInt( 0xffffffff );
+        }
+        finally
+        {
+            file.close();
+        }
+        assertRejected( diff );
+    }
+
+    private void assertSameAsJarDiffPatcher( int version )
+            throws IOException
+    {
+        File diff = TestJars.createPatch( oldJar, newJar, new File( dir, "jardiff" ), version );
+        String index = TestJars.readIndex( diff );
+        assertTrue( index, index.contains( JarDiffConstants.MOVE_COMMAND + " a/Moved.class b/Moved.class" ) );
+        assertTrue( index, index.contains( JarDiffConstants.MOVE_COMMAND + " a/Copied.class c/Copied.class" ) );
+
+        File expected = TestJars.applyPatch( new JarDiffPatcher(), oldJar, diff, new File( dir, "expected.jar" ) );
+        File actual = TestJars.applyPatch( new StreamingJarDiffPatcher(), oldJar, diff, new File( dir, "actual.jar" ) );
+        JarDiffTest.assertSameEntries( TestJars.read( newJar ), TestJars.read( expected ) );
+        JarDiffTest.assertSameEntries( TestJars.read( expected ), TestJars.read( actual ) );
+        // The local headers must agree with the central directory
+        JarDiffTest.assertSameEntries( TestJars.read( actual ), readStream( actual ) );
+    }
+
+    private void assertRejected( File diff )
+    {
+        try
+        {
+            TestJars.applyPatch( new StreamingJarDiffPatcher(), oldJar, diff, new File( dir, "actual.jar" ) );
+            fail( "patched a Zip64 jar" );
+        }
+        catch ( ZipException expected )
+        {
+            assertTrue( expected.getMessage(), expected.getMessage().contains( "Zip64" ) );
+        }
+        catch ( IOException ioe )
+        {
+            fail( ioe.toString() );
+        }
+    }
+
+    private byte[] change( byte[] contents )
+    {
+        byte[] changed = contents.clone();
+        for ( int i = 0; i < 5; i++ )
+        {
+            changed[random.nextInt( changed.length )]++;
+        }
+        return changed;
+    }
+
+    private static Map<String, byte[]> readStream( File jar )
+            throws IOException
+    {
+        Map<String, byte[]> entries = new TreeMap<>();
+        ZipInputStream in = new ZipInputStream( new FileInputStream( jar ) );
+        try
+        {
+            ZipEntry entry;
+            while ( ( entry = in.getNextEntry() ) != null )
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ( ( read = in.read( buffer ) ) != -1 )
+                {
+                    out.write( buffer, 0, read );
+                }
+                entries.put( entry.getName(), out.toByteArray() );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.jardiff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds and reads the jars used by the JarDiff tests
+ */
+final class TestJars
+{
+    private static final String[] WORDS =
+            { "java/lang/Object", "java/lang/String", "<init>", "()V", "Code", "LineNumberTable", "this",
+                    "jnlp/sample/", "getName", "(Ljava/lang/String;)V", "SourceFile", "\u0000\u0001" };
+
+    private TestJars()
+    {
+    }
+
+    /**
+     * Returns contents that compress about as well as a class file
+     *
+     * @param random the source of the contents
+     * @param length number of bytes to return
+     * @return the contents
+     */
+    static byte[] contents( Random random, int length )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( length + 32 );
+        while ( out.size() < length )
+        {
+            if ( random.nextInt( 4 ) == 0 )
+            {
+                out.write( random.nextInt( 256 ) );
+            }
+            else
+            {
+                byte[] word = WORDS[random.nextInt( WORDS.length )].getBytes();
+                out.write( word, 0, word.length );
+            }
+        }
+        byte[] bytes = out.toByteArray();
+        byte[] result = new byte[length];
+        System.arraycopy( bytes, 0, result, 0, length );
+        return result;
+    }
+
+    /**
+     * Writes a jar with ZipOutputStream, so deflated entries are followed by a data descriptor
+     *
+     * @param file    the jar to write
+     * @param entries contents of the entries, by name, in the order of the jar
+     * @param stored  names of the entries to store rather than deflate
+     * @return file
+     * @throws IOException if the jar cannot be written
+     */
+    static File write( File file, Map<String, byte[]> entries, String... stored )
+            throws IOException
+    {
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            for ( Map.Entry<String, byte[]> e : entries.entrySet() )
+            {
+                ZipEntry entry = new ZipEntry( e.getKey() );
+                for ( String name : stored )
+                {
+                    if ( name.equals( e.getKey() ) )
+                    {
+                        CRC32 crc = new CRC32();
+                        crc.update( e.getValue() );
+                        entry.setMethod( ZipEntry.STORED );
+                        entry.setSize( e.getValue().length );
+                        entry.setCrc( crc.getValue() );
+                    }
+                }
+                out.putNextEntry( entry );
+                out.write( e.getValue() );
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads the entries of a jar
+     *
+     * @param file the jar to read
+     * @return contents of the entries, by name
+     * @throws IOException if the jar cannot be read
+     */
+    static Map<String, byte[]> read( File file )
+            throws IOException
+    {
+        Map<String, byte[]> entries = new TreeMap<>();
+        ZipFile zip = new ZipFile( file );
+        try
+        {
+            for ( Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); )
+            {
+                ZipEntry entry = e.nextElement();
+                entries.put( entry.getName(), readFully( zip.getInputStream( entry ) ) );
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the index of a JarDiff
+     *
+     * @param diff the JarDiff
+     * @return the commands of the index
+     * @throws IOException if the JarDiff cannot be read
+     */
+    static String readIndex( File diff )
+            throws IOException
+    {
+        return new String( read( diff ).get( JarDiffConstants.INDEX_NAME ), "UTF-8" );
+    }
+
+    /**
+     * Creates the JarDiff between two jars
+     *
+     * @param oldJar  the old jar
+     * @param newJar  the new jar
+     * @param diff    the JarDiff to write
+     * @param version format of the JarDiff
+     * @return diff
+     * @throws IOException if the JarDiff cannot be created
+     */
+    static File createPatch( File oldJar, File newJar, File diff, int version )
+            throws IOException
+    {
+        FileOutputStream out = new FileOutputStream( diff );
+        try
+        {
+            JarDiff.createPatch( oldJar.getPath(), newJar.getPath(), out, true, version );
+        }
+        finally
+        {
+            out.close();
+        }
+        return diff;
+    }
+
+    /**
+     * Applies a JarDiff to a jar
+     *
+     * @param patcher the patcher to apply it with
+     * @param oldJar  the old jar
+     * @param diff    the JarDiff
+     * @param result  the jar to write
+     * @return result
+     * @throws IOException if the JarDiff cannot be applied
+     */
+    static File applyPatch( Patcher patcher, File oldJar, File diff, File result )
+            throws IOException
+    {
+        FileOutputStream out = new FileOutputStream( result );
+        try
+        {
+            patcher.applyPatch( null, oldJar.getPath(), diff.getPath(), out );
+        }
+        finally
+        {
+            out.close();
+        }
+        return result;
+    }
+
+    /**
+     * Deletes a directory and its files
+     *
+     * @param dir the directory
+     */
+    static void delete( File dir )
+    {
+        File[] files = dir.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static byte[] readFully( InputStream in )
+            throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( ( read = in.read( buffer ) ) != -1 )
+            {
+                out.write( buffer, 0, read );
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import junit.framework.TestCase;
+
+public class AcceptEncodingTest
+        extends TestCase
+{
+    protected void setUp()
+    {
+        EncodingVariant.setVariants( null );
+    }
+
+    public void testQualities()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( "gzip;q=0.5, br" );
+        assertEquals( 0.5f, accept.getQuality( "gzip" ) );
+        assertEquals( 1f, accept.getQuality( "br" ) );
+        assertEquals( 0f, accept.getQuality( "zstd" ) );
+        assertEquals( 1f, accept.getQuality( "identity" ) );
+    }
+
+    public void testZeroQualityExcludes()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( "gzip;q=0, br;q=0.0, identity;q=0" );
+        assertEquals( 0f, accept.getQuality( "gzip" ) );
+        assertEquals( 0f, accept.getQuality( "br" ) );
+        assertEquals( 0f, accept.getQuality( "identity" ) );
+        assertEquals( 0, accept.getAcceptedVariants() );
+    }
+
+    public void testMalformedOrOutOfRangeQualities()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( "gzip;q=high, br;q=2, zstd;q=-1" );
+        assertEquals( 0f, accept.getQuality( "gzip" ) );
+        assertEquals( 1f, accept.getQuality( "br" ) );
+        assertEquals( 0f, accept.getQuality( "zstd" ) );
+    }
+
+    public void testXGzipIsGzip()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( "x-gzip" );
+        assertEquals( 1f, accept.getQuality( "gzip" ) );
+        assertEquals( variantBit( "gzip" ), accept.getAcceptedVariants() );
+    }
+
+    public void testWildcard()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( "*;q=0.3, gzip;q=0" );
+        assertEquals( 0.3f, accept.getQuality( "br" ) );
+        assertEquals( 0.3f, accept.getQuality( "identity" ) );
+        assertEquals( 0f, accept.getQuality( "gzip" ) );
+        // Only Java Web Start decodes pack200-gzip, which must be named
+        assertEquals( 0f, accept.getQuality( "pack200-gzip" ) );
+        assertEquals( variantBit( "br" ) | variantBit( "zstd" ), accept.getAcceptedVariants() );
+    }
+
+    public void testWhitespaceAndCase()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( " GZIP ; Q=0.8 ,, \tBr\t, ;q=1" );
+        assertEquals( 0.8f, accept.getQuality( "gzip" ) );
+        assertEquals( 1f, accept.getQuality( "br" ) );
+        assertEquals( variantBit( "gzip" ) | variantBit( "br" ), accept.getAcceptedVariants() );
+    }
+
+    public void testNoHeader()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( null );
+        assertEquals( 1f, accept.getQuality( "identity" ) );
+        assertEquals( 0f, accept.getQuality( "gzip" ) );
+        assertEquals( 0, accept.getAcceptedVariants() );
+    }
+
+    public void testPack200()
+    {
+        AcceptEncoding accept = AcceptEncoding.valueOf( "pack200-gzip, gzip" );
+        assertEquals( variantBit( "pack200-gzip" ) | variantBit( "gzip" ), accept.getAcceptedVariants() );
+    }
+
+    public void testHeadersAreShared()
+    {
+        assertSame( AcceptEncoding.valueOf( "gzip, deflate" ), AcceptEncoding.valueOf( "gzip, deflate" ) );
+    }
+
+    private static int variantBit( String encoding )
+    {
+        EncodingVariant[] variants = EncodingVariant.getVariants();
+        for ( int i = 0; i < variants.length; i++ )
+        {
+            if ( variants[i].getEncoding().equals( encoding ) )
+            {
+                return 1 << i;
+            }
+        }
+        throw new IllegalArgumentException( encoding );
+    }
+}
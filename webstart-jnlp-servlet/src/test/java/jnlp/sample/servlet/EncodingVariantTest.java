@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import junit.framework.TestCase;
+
+public class EncodingVariantTest
+        extends TestCase
+{
+    protected void tearDown()
+    {
+        EncodingVariant.setVariants( null );
+    }
+
+    public void testDefaults()
+    {
+        EncodingVariant.setVariants( null );
+        assertVariants( "pack200-gzip=.pack.gz", "br=.br", "zstd=.zst", "gzip=.gz" );
+        EncodingVariant.setVariants( "  " );
+        assertVariants( "pack200-gzip=.pack.gz", "br=.br", "zstd=.zst", "gzip=.gz" );
+    }
+
+    public void testSpec()
+    {
+        EncodingVariant.setVariants( " br = .br ,GZIP=gz" );
+        assertVariants( "br=.br", "gzip=.gz" );
+    }
+
+    public void testMalformedPairsAreSkipped()
+    {
+        EncodingVariant.setVariants( "=.x, br=, gzip, ,zstd=.zst" );
+        assertVariants( "zstd=.zst" );
+    }
+
+    public void testVariantsAreLimited()
+    {
+        StringBuilder spec = new StringBuilder();
+        for ( int i = 0; i < 40; i++ )
+        {
+            spec.append( "c" ).append( i ).append( "=.c" ).append( i ).append( ',' );
+        }
+        EncodingVariant.setVariants( spec.toString() );
+        // The accepted variants of a request are a bit mask in an int
+        assertEquals( 31, EncodingVariant.getVariants().length );
+    }
+
+    public void testForFileName()
+    {
+        assertEquals( "pack200-gzip", EncodingVariant.forFileName( "/app/app.jar.pack.gz" ).getEncoding() );
+        assertEquals( "gzip", EncodingVariant.forFileName( "/app/app.jar.gz" ).getEncoding() );
+        assertEquals( "br", EncodingVariant.forFileName( "app.jnlp.br" ).getEncoding() );
+        assertNull( EncodingVariant.forFileName( "/app/app.jar" ) );
+    }
+
+    public void testPack200OnlyAppliesToJars()
+    {
+        EncodingVariant pack = EncodingVariant.forFileName( "app.jar.pack.gz" );
+        assertTrue( pack.appliesTo( "application/java-archive" ) );
+        assertTrue( pack.appliesTo( "application/x-java-archive" ) );
+        assertFalse( pack.appliesTo( "application/x-java-jnlp-file" ) );
+        assertTrue( EncodingVariant.forFileName( "app.jnlp.gz" ).appliesTo( "application/x-java-jnlp-file" ) );
+    }
+
+    public void testAcceptedVariantsFollowTheRegistry()
+    {
+        assertEquals( 1 << 1, AcceptEncoding.valueOf( "br" ).getAcceptedVariants() );
+        EncodingVariant.setVariants( "br=.br" );
+        assertEquals( 1, AcceptEncoding.valueOf( "br" ).getAcceptedVariants() );
+    }
+
+    private static void assertVariants( String... expected )
+    {
+        EncodingVariant[] variants = EncodingVariant.getVariants();
+        assertEquals( expected.length, variants.length );
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( expected[i], variants[i].toString() );
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import junit.framework.TestCase;
+
+import javax.servlet.ServletContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+public class FileEntryParserTest
+        extends TestCase
+{
+    private ResourceCatalog.FileEntryParser parser;
+
+    protected void setUp()
+    {
+        parser = new ResourceCatalog.FileEntryParser( emptyContext() );
+    }
+
+    public void testVersion()
+    {
+        JnlpResource res = parser.parse( "/app/", "app__V1.2.3.jar" );
+        assertEquals( "app.jar", res.getName() );
+        assertEquals( "1.2.3", res.getVersionId() );
+        assertEquals( "1.2.3", res.getReturnVersionId() );
+        assertNull( res.getOSList() );
+        assertNull( res.getArchList() );
+        assertNull( res.getLocaleList() );
+    }
+
+    public void testOptions()
+    {
+        JnlpResource res = parser.parse( "/", "native__V2.0__OWindows__Ax86__Lfr_FR__Lfr.jar" );
+        assertEquals( "native.jar", res.getName() );
+        assertEquals( "2.0", res.getVersionId() );
+        assertEquals( Arrays.asList( "Windows" ), Arrays.asList( res.getOSList() ) );
+        assertEquals( Arrays.asList( "x86" ), Arrays.asList( res.getArchList() ) );
+        assertEquals( Arrays.asList( "fr_FR", "fr" ), Arrays.asList( res.getLocaleList() ) );
+
+        // The lists of the previous name are not carried over
+        res = parser.parse( "/", "other__V1.0.jar" );
+        assertNull( res.getOSList() );
+        assertNull( res.getArchList() );
+        assertNull( res.getLocaleList() );
+    }
+
+    public void testOptionsWithoutVersion()
+    {
+        JnlpResource res = parser.parse( "/", "native__OLinux.jar" );
+        assertEquals( "native.jar", res.getName() );
+        assertNull( res.getVersionId() );
+        assertEquals( Arrays.asList( "Linux" ), Arrays.asList( res.getOSList() ) );
+    }
+
+    public void testNames()
+    {
+        assertEquals( "lib", parser.parse( "/", "lib__V1" ).getName() );
+        // The extension starts at the last '.', even in a name without one
+        JnlpResource res = parser.parse( "/", "lib__V1.0" );
+        assertEquals( "lib.0", res.getName() );
+        assertEquals( "1", res.getVersionId() );
+        assertEquals( "a.b.jar", parser.parse( "/", "a.b__V1.0.jar" ).getName() );
+        assertEquals( "app.jar.gz", parser.parse( "/", "app.jar__V1.0.gz" ).getName() );
+    }
+
+    public void testNotVersionBased()
+    {
+        assertNull( parser.parse( "/", "app.jar" ) );
+        assertNull( parser.parse( "/", "version.xml" ) );
+    }
+
+    public void testMalformedNames()
+    {
+        String[] names = { "app__", "app__.jar", "app__X1.0.jar", "app____V1.0.jar", "app__V1.0___OLinux.jar",
+                "app__V1.0__.jar" };
+        for ( String name : names )
+        {
+            assertNull( name, parser.parse( "/", name ) );
+        }
+    }
+
+    /**
+     * Returns a web application without any resource
+     */
+    private static ServletContext emptyContext()
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                return null;
+            }
+        };
+        return (ServletContext) Proxy.newProxyInstance( FileEntryParserTest.class.getClassLoader(),
+                                                        new Class[]{ ServletContext.class }, handler );
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006 Sun Microsystems, Inc. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * -Redistribution of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * -Redistribution in binary form must reproduce the above copyright notice,
+ *  this list of conditions and the following disclaimer in the documentation
+ *  and/or other materials provided with the distribution.
+ *
+ * Neither the name of Sun Microsystems, Inc. or the names of contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * This software is provided "AS IS," without a warranty of any kind. ALL
+ * EXPRESS OR IMPLIED CONDITIONS, REPRESENTATIONS AND WARRANTIES, INCLUDING
+ * ANY IMPLIED WARRANTY OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE
+ * OR NON-INFRINGEMENT, ARE HEREBY EXCLUDED. SUN MIDROSYSTEMS, INC. ("SUN")
+ * AND ITS LICENSORS SHALL NOT BE LIABLE FOR ANY DAMAGES SUFFERED BY LICENSEE
+ * AS A RESULT OF USING, MODIFYING OR DISTRIBUTING THIS SOFTWARE OR ITS
+ * DERIVATIVES. IN NO EVENT WILL SUN OR ITS LICENSORS BE LIABLE FOR ANY LOST
+ * REVENUE, PROFIT OR DATA, OR FOR DIRECT, INDIRECT, SPECIAL, CONSEQUENTIAL,
+ * INCIDENTAL OR PUNITIVE DAMAGES, HOWEVER CAUSED AND REGARDLESS OF THE THEORY
+ * OF LIABILITY, ARISING OUT OF THE USE OF OR INABILITY TO USE THIS SOFTWARE,
+ * EVEN IF SUN HAS BEEN ADVISED OF THE POSSIBILITY OF SUCH DAMAGES.
+ *
+ * You acknowledge that this software is not designed, licensed or intended
+ * for use in the design, construction, operation or maintenance of any
+ * nuclear facility.
+ */
+
+package jnlp.sample.servlet;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class VersionIndexTest
+        extends TestCase
+{
+    private static final long XML_LENGTH = 1234;
+
+    private static final long XML_CRC = 0xcafebabeL;
+
+    private File file;
+
+    private List<VersionXmlParser.Entry> resources;
+
+    private List<VersionXmlParser.Entry> platforms;
+
+    protected void setUp()
+            throws Exception
+    {
+        file = File.createTempFile( "versionindex", ".idx" );
+
+        resources = new ArrayList<>();
+        resources.add( new VersionXmlParser.Entry( false, "app.jar", "1.0", null, null, null, "app__V1.0.jar", null ) );
+        resources.add( new VersionXmlParser.Entry( false, "app.jar", "2.0",
+                                                   new String[]{ "Windows", "Mac OS X" }, new String[]{ "x86" },
+                                                   new String[]{ "fr_FR", "fr" }, "app-2.0-win.jar", null ) );
+        resources.add( new VersionXmlParser.Entry( false, "r\u00e9sum\u00e9.jnlp", "1.0", new String[0], null,
+                                                   null, "r\u00e9sum\u00e9.jnlp", null ) );
+        platforms = new ArrayList<>();
+        platforms.add( new VersionXmlParser.Entry( true, "JRE", "1.8", new String[]{ "Linux" }, null, null,
+                                                   "jre-8.jar", "1.8.0_402" ) );
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    public void testRoundTrip()
+            throws IOException
+    {
+        VersionIndex.write( file, XML_LENGTH, XML_CRC, resources, platforms );
+
+        VersionIndex index = VersionIndex.read( file, XML_LENGTH, XML_CRC );
+        assertNotNull( index );
+        assertSameEntries( resources, index.getResources() );
+        assertSameEntries( platforms, index.getPlatforms() );
+    }
+
+    public void testRoundTripWithoutEntries()
+            throws IOException
+    {
+        List<VersionXmlParser.Entry> none = new ArrayList<>();
+        VersionIndex.write( file, 0, VersionIndex.checksum( new byte[0] ), none, none );
+
+        VersionIndex index = VersionIndex.read( file, 0, VersionIndex.checksum( new byte[0] ) );
+        assertNotNull( index );
+        assertTrue( index.getResources().isEmpty() );
+        assertTrue( index.getPlatforms().isEmpty() );
+    }
+
+    public void testStaleIndexIsIgnored()
+            throws IOException
+    {
+        VersionIndex.write( file, XML_LENGTH, XML_CRC, resources, platforms );
+
+        assertNull( VersionIndex.read( file, XML_LENGTH, XML_CRC + 1 ) );
+        assertNull( VersionIndex.read( file, XML_LENGTH + 1, XML_CRC ) );
+    }
+
+    public void testTruncatedIndexIsIgnored()
+            throws IOException
+    {
+        VersionIndex.write( file, XML_LENGTH, XML_CRC, resources, platforms );
+        byte[] bytes = readFile( file );
+
+        for ( int length = 0; length < bytes.length; length++ )
+        {
+            writeFile( file, bytes, length );
+            assertNull( "index truncated to " + length + " bytes", VersionIndex.read( file, XML_LENGTH, XML_CRC ) );
+        }
+    }
+
+    private static void assertSameEntries( List<VersionXmlParser.Entry> expected, List<VersionXmlParser.Entry> actual )
+    {
+        assertEquals( expected.size(), actual.size() );
+        for ( int i = 0; i < expected.size(); i++ )
+        {
+            VersionXmlParser.Entry e = expected.get( i );
+            VersionXmlParser.Entry a = actual.get( i );
+            assertEquals( e.getKey(), a.getKey() );
+            assertEquals( e.isPlatform(), a.isPlatform() );
+            assertEquals( e.getProductVersionId(), a.getProductVersionId() );
+        }
+    }
+
+    private static byte[] readFile( File file )
+            throws IOException
+    {
+        byte[] bytes = new byte[(int) file.length()];
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            int offset = 0;
+            while ( offset < bytes.length )
+            {
+                offset += in.read( bytes, offset, bytes.length - offset );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void writeFile( File file, byte[] bytes, int length )
+            throws IOException
+    {
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( bytes, 0, length );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}